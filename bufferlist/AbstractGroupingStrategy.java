@@ -0,0 +1,57 @@
+/*{{{ header
+ * AbstractGroupingStrategy.java - base class for grouping strategies
+ *
+ * :tabSize=4:indentSize=4:noTabs=false:maxLineLen=0:folding=explicit:collapseFolds=1:
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA 02111-1307, USA.
+ *}}}
+ */
+package bufferlist;
+
+// {{{ imports
+import java.util.Collection;
+
+import org.gjt.sp.jedit.Buffer;
+import org.gjt.sp.jedit.jEdit;
+
+// }}}
+
+/**
+ * A {@link GroupingStrategy} whose groups are labelled with their keys and
+ * which computes all keys synchronously.
+ */
+public abstract class AbstractGroupingStrategy implements GroupingStrategy
+{
+	// {{{ +getGroupLabel(String) : String
+	public String getGroupLabel(String key)
+	{
+		if (NO_GROUP.equals(key))
+		{
+			return jEdit.getProperty("bufferlist.group.other.label");
+		}
+		return key;
+	} // }}}
+
+	// {{{ +getBaseDirectory(String) : String
+	public String getBaseDirectory(String key)
+	{
+		return null;
+	} // }}}
+
+	// {{{ +prepare(Collection<Buffer>, Runnable) : void
+	public void prepare(Collection<Buffer> buffers, Runnable callback)
+	{
+	} // }}}
+}
@@ -0,0 +1,171 @@
+/*{{{ header
+ * BufferEntry.java - per-buffer data kept by BufferList
+ *
+ * :tabSize=4:indentSize=4:noTabs=false:maxLineLen=0:folding=explicit:collapseFolds=1:
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA 02111-1307, USA.
+ *}}}
+ */
+package bufferlist;
+
+// {{{ imports
+import org.gjt.sp.jedit.Buffer;
+
+// }}}
+
+/**
+ * What BufferList knows about an open buffer: its path and directory (so
+ * that sorting does not have to ask the VFS again) and its dirty state. The
+ * directory is the canonical one (see {@link CanonicalPaths}) once it has
+ * been resolved.
+ */
+public class BufferEntry
+{
+	// {{{ instance variables
+	private final Buffer buffer;
+
+	private String path;
+
+	private String dir;
+
+	/**
+	 * Canonical directory, null until resolved.
+	 */
+	private String realDir;
+
+	/**
+	 * Dirty state as last seen by {@link BufferSetTracker}.
+	 */
+	boolean dirty;
+
+	/**
+	 * Number of tracked buffer sets that contain the buffer.
+	 */
+	int refCount;
+
+	/**
+	 * Slot of the entry in the index of {@link BufferSetTracker}; slots of
+	 * removed entries are reused.
+	 */
+	int id;
+
+	/**
+	 * Group key assigned by the current GroupingStrategy of BufferList.
+	 */
+	String groupKey; // }}}
+
+	// {{{ BufferEntry(Buffer) : <init>
+	BufferEntry(Buffer buffer)
+	{
+		this.buffer = buffer;
+		this.dirty = buffer.isDirty();
+		update();
+	} // }}}
+
+	// {{{ update() : boolean
+	/**
+	 * Re-reads path and directory of the buffer, e.g. after "save as".
+	 *
+	 * @return true if the path has changed.
+	 */
+	boolean update()
+	{
+		String newPath = buffer.getPath();
+		if (newPath.equals(path))
+		{
+			return false;
+		}
+		path = newPath;
+		dir = buffer.getVFS().getParentOfPath(newPath);
+		realDir = CanonicalPaths.getCanonicalDir(dir);
+		return true;
+	} // }}}
+
+	// {{{ updateRealDir() : boolean
+	/**
+	 * Takes the canonical directory from {@link CanonicalPaths}, if it has
+	 * been resolved.
+	 *
+	 * @return true if {@link #getDir()} has changed.
+	 */
+	boolean updateRealDir()
+	{
+		String newRealDir = CanonicalPaths.getCanonicalDir(dir);
+		if (newRealDir == null || newRealDir.equals(realDir))
+		{
+			return false;
+		}
+		boolean moved = !newRealDir.equals(getDir());
+		realDir = newRealDir;
+		return moved;
+	} // }}}
+
+
+	// {{{ getters
+	public Buffer getBuffer()
+	{
+		return buffer;
+	}
+
+	public String getPath()
+	{
+		return path;
+	}
+
+	/**
+	 * @return the canonical directory of the buffer, or the parent of its path
+	 *         until that has been resolved.
+	 */
+	public String getDir()
+	{
+		return realDir == null ? dir : realDir;
+	}
+
+	/**
+	 * @return the parent directory of {@link #getPath()}, symbolic links not
+	 *         resolved.
+	 */
+	public String getPathDir()
+	{
+		return dir;
+	}
+
+	public String getName()
+	{
+		return buffer.getName();
+	}
+
+	public boolean isDirty()
+	{
+		return dirty;
+	}
+
+	/**
+	 * @return the number of tracked buffer sets that contain the buffer.
+	 */
+	public int getRefCount()
+	{
+		return refCount;
+	}
+
+	/**
+	 * @return the slot of the entry in the index of the tracker, for bit
+	 *         sets of entries; small and dense.
+	 */
+	public int getId()
+	{
+		return id;
+	} // }}}
+}
@@ -0,0 +1,235 @@
+/*{{{ header
+ * BufferFilters.java - which buffers pass the filters of a BufferList
+ *
+ * :tabSize=4:indentSize=4:noTabs=false:maxLineLen=0:folding=explicit:collapseFolds=1:
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA 02111-1307, USA.
+ *}}}
+ */
+package bufferlist;
+
+// {{{ imports
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+
+import org.gjt.sp.jedit.bufferset.BufferSet;
+
+// }}}
+
+/**
+ * The filters of a BufferList: only unsaved buffers, only the buffers of the
+ * current edit pane, only buffers changed or deleted on disk. For each
+ * filter a bit set holds the {@link BufferEntry#getId() ids} of the buffers
+ * that pass it. The bit sets are kept up to date from buffer events through
+ * {@link #update(BufferEntry)}, whether a filter is switched on or not, so
+ * switching filters only costs the intersection of the active bit sets and
+ * the buffers that pass.
+ * <p>
+ * Only used on the event dispatch thread.
+ */
+class BufferFilters
+{
+	// {{{ filter constants
+	static final int UNSAVED = 0;
+
+	static final int CURRENT_PANE = 1;
+
+	static final int CHANGED_ON_DISK = 2;
+
+	/**
+	 * Used in property names.
+	 */
+	static final String[] NAMES = { "unsaved", "currentPane", "changedOnDisk" }; // }}}
+
+	// {{{ instance variables
+	private final BufferSetTracker tracker;
+
+	private final BitSet[] members = new BitSet[NAMES.length];
+
+	private final boolean[] active = new boolean[NAMES.length];
+
+	/**
+	 * Buffer set of the current edit pane.
+	 */
+	private BufferSet currentSet; // }}}
+
+	// {{{ BufferFilters(BufferSetTracker) : <init>
+	BufferFilters(BufferSetTracker tracker)
+	{
+		this.tracker = tracker;
+		for (int i = 0; i < members.length; i++)
+		{
+			members[i] = new BitSet();
+		}
+	} // }}}
+
+	// {{{ isActive() : boolean
+	/**
+	 * @return true if at least one filter is switched on.
+	 */
+	boolean isActive()
+	{
+		for (boolean on : active)
+		{
+			if (on)
+			{
+				return true;
+			}
+		}
+		return false;
+	} // }}}
+
+	// {{{ isActive(int) : boolean
+	boolean isActive(int filter)
+	{
+		return active[filter];
+	} // }}}
+
+	// {{{ setActive(int, boolean) : void
+	void setActive(int filter, boolean on)
+	{
+		active[filter] = on;
+	} // }}}
+
+	// {{{ rebuild(BufferSet) : void
+	/**
+	 * Recomputes the bit sets from all tracked buffers, after the tracker has
+	 * been attached again or a bulk update; O(n).
+	 *
+	 * @param currentSet
+	 *            the buffer set of the current edit pane
+	 */
+	void rebuild(BufferSet currentSet)
+	{
+		this.currentSet = currentSet;
+		for (BitSet bits : members)
+		{
+			bits.clear();
+		}
+		for (BufferEntry entry : tracker.getEntries())
+		{
+			update(entry);
+		}
+	} // }}}
+
+	// {{{ setCurrentBufferSet(BufferSet) : boolean
+	/**
+	 * Called when another edit pane has become the current one; O(size of the
+	 * buffer set).
+	 *
+	 * @return true if the buffers passing the filters may have changed.
+	 */
+	boolean setCurrentBufferSet(BufferSet currentSet)
+	{
+		if (currentSet == this.currentSet)
+		{
+			return false;
+		}
+		this.currentSet = currentSet;
+		BitSet bits = members[CURRENT_PANE];
+		bits.clear();
+		for (BufferEntry entry : tracker.getMembers(currentSet))
+		{
+			bits.set(entry.getId());
+		}
+		return active[CURRENT_PANE];
+	} // }}}
+
+	// {{{ update(BufferEntry) : boolean
+	/**
+	 * Updates the bits of a buffer after an event that may have changed its
+	 * state.
+	 *
+	 * @return true if the buffer passed the active filters before and does
+	 *         not now, or vice versa.
+	 */
+	boolean update(BufferEntry entry)
+	{
+		boolean matched = matches(entry);
+		int id = entry.getId();
+		members[UNSAVED].set(id, entry.isDirty());
+		members[CURRENT_PANE].set(id, currentSet != null && tracker.contains(currentSet, entry));
+		members[CHANGED_ON_DISK].set(id,
+			ExternalChanges.getState(entry.getBuffer()) != ExternalChanges.UNCHANGED);
+		return matches(entry) != matched;
+	} // }}}
+
+	// {{{ removed(BufferEntry) : void
+	/**
+	 * Called after a buffer has left the tracker; its id may be reused.
+	 */
+	void removed(BufferEntry entry)
+	{
+		for (BitSet bits : members)
+		{
+			bits.clear(entry.getId());
+		}
+	} // }}}
+
+	// {{{ matches(BufferEntry) : boolean
+	/**
+	 * @return true if the buffer passes all active filters.
+	 */
+	boolean matches(BufferEntry entry)
+	{
+		for (int i = 0; i < active.length; i++)
+		{
+			if (active[i] && !members[i].get(entry.getId()))
+			{
+				return false;
+			}
+		}
+		return true;
+	} // }}}
+
+	// {{{ getMatches() : List<BufferEntry>
+	/**
+	 * @return the buffers passing all active filters, found by intersecting
+	 *         their bit sets.
+	 */
+	List<BufferEntry> getMatches()
+	{
+		BitSet result = null;
+		for (int i = 0; i < active.length; i++)
+		{
+			if (active[i])
+			{
+				if (result == null)
+				{
+					result = (BitSet) members[i].clone();
+				}
+				else
+				{
+					result.and(members[i]);
+				}
+			}
+		}
+		List<BufferEntry> matches = new ArrayList<BufferEntry>();
+		if (result == null)
+		{
+			return matches;
+		}
+		for (int id = result.nextSetBit(0); id >= 0; id = result.nextSetBit(id + 1))
+		{
+			BufferEntry entry = tracker.getEntry(id);
+			if (entry != null)
+			{
+				matches.add(entry);
+			}
+		}
+		return matches;
+	} // }}}
+}
@@ -0,0 +1,151 @@
+/*{{{ header
+ * BufferFootprint.java - approximate heap usage of a buffer
+ *
+ * :tabSize=4:indentSize=4:noTabs=false:maxLineLen=0:folding=explicit:collapseFolds=1:
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA 02111-1307, USA.
+ *}}}
+ */
+package bufferlist;
+
+// {{{ imports
+import java.text.NumberFormat;
+import java.util.Map;
+import java.util.WeakHashMap;
+
+import org.gjt.sp.jedit.Buffer;
+import org.gjt.sp.jedit.jEdit;
+
+// }}}
+
+/**
+ * The approximate heap usage of a buffer: two bytes per character of text
+ * plus the per line data jEdit keeps (line end offsets, fold levels and
+ * tokenizer contexts). jEdit does not expose the size of the undo history,
+ * so it is not included.
+ * <p>
+ * Footprints are computed when first asked for and cached until
+ * {@link #invalidate(Buffer)} is called, i.e. until the buffer is saved or
+ * its dirty state changes. All methods must be called on the event dispatch
+ * thread.
+ */
+public class BufferFootprint
+{
+	/**
+	 * Estimated bytes per character of the buffer text.
+	 */
+	static final int BYTES_PER_CHAR = 2;
+
+	/**
+	 * Estimated bytes per line: an int offset, a fold level and a reference
+	 * to a tokenizer context.
+	 */
+	static final int BYTES_PER_LINE = 16;
+
+	private static final Map<Buffer, BufferFootprint> cache = new WeakHashMap<Buffer, BufferFootprint>();
+
+	// {{{ instance variables
+	private final int length;
+
+	private final int lineCount; // }}}
+
+	// {{{ -BufferFootprint(int, int) : <init>
+	private BufferFootprint(int length, int lineCount)
+	{
+		this.length = length;
+		this.lineCount = lineCount;
+	} // }}}
+
+	// {{{ +get(Buffer) : BufferFootprint
+	/**
+	 * @return the footprint of a buffer; an empty one while it is loading.
+	 */
+	public static BufferFootprint get(Buffer buffer)
+	{
+		BufferFootprint footprint = cache.get(buffer);
+		if (footprint == null)
+		{
+			if (!buffer.isLoaded())
+			{
+				return new BufferFootprint(0, 0);
+			}
+			footprint = new BufferFootprint(buffer.getLength(), buffer.getLineCount());
+			cache.put(buffer, footprint);
+		}
+		return footprint;
+	} // }}}
+
+	// {{{ +getBytes(Buffer) : long
+	public static long getBytes(Buffer buffer)
+	{
+		return get(buffer).getBytes();
+	} // }}}
+
+	// {{{ +invalidate(Buffer) : boolean
+	/**
+	 * Forgets the footprint of a buffer.
+	 *
+	 * @return true if it had been computed.
+	 */
+	public static boolean invalidate(Buffer buffer)
+	{
+		return cache.remove(buffer) != null;
+	} // }}}
+
+	// {{{ +clear() : void
+	public static void clear()
+	{
+		cache.clear();
+	} // }}}
+
+	// {{{ +getBytes() : long
+	public long getBytes()
+	{
+		return (long) length * BYTES_PER_CHAR + (long) lineCount * BYTES_PER_LINE;
+	} // }}}
+
+	// {{{ +getLength() : int
+	public int getLength()
+	{
+		return length;
+	} // }}}
+
+	// {{{ +getLineCount() : int
+	public int getLineCount()
+	{
+		return lineCount;
+	} // }}}
+
+	// {{{ +format(long) : String
+	/**
+	 * @return a number of bytes in a human readable form, e.g. "1.4 MB".
+	 */
+	public static String format(long bytes)
+	{
+		NumberFormat nf = NumberFormat.getNumberInstance();
+		nf.setMaximumFractionDigits(1);
+		if (bytes < 1024)
+		{
+			return jEdit.getProperty("bufferlist.footprint.bytes", new Object[] { nf.format(bytes) });
+		}
+		if (bytes < 1024 * 1024)
+		{
+			return jEdit.getProperty("bufferlist.footprint.kilobytes",
+				new Object[] { nf.format(bytes / 1024.0) });
+		}
+		return jEdit.getProperty("bufferlist.footprint.megabytes",
+			new Object[] { nf.format(bytes / (1024.0 * 1024.0)) });
+	} // }}}
+}
@@ -0,0 +1,94 @@
+/*{{{ header
+ * BufferGroup.java - a top level group of the BufferList tree
+ *
+ * :tabSize=4:indentSize=4:noTabs=false:maxLineLen=0:folding=explicit:collapseFolds=1:
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA 02111-1307, USA.
+ *}}}
+ */
+package bufferlist;
+
+// {{{ imports
+import java.util.HashMap;
+
+import org.gjt.sp.jedit.Buffer;
+
+// }}}
+
+/**
+ * A group of buffers shown below its own node, e.g. the buffers of one edit
+ * pane. This is the user object of group nodes. When the buffers are not
+ * grouped, there is a single group whose node is the (invisible) root.
+ */
+public class BufferGroup
+{
+	// {{{ instance variables
+	private final String key;
+
+	private String label;
+
+	/**
+	 * Tree node of the group.
+	 */
+	BufferListTreeNode node;
+
+	/**
+	 * What the group stands for, e.g. the BufferSet of an edit pane.
+	 */
+	Object source;
+
+	/**
+	 * The tree node of each buffer in the group.
+	 */
+	final HashMap<Buffer, BufferListTreeNode> bufferNodes = new HashMap<Buffer, BufferListTreeNode>(); // }}}
+
+	// {{{ +BufferGroup(String, String) : <init>
+	/**
+	 * @param key
+	 *            identifies the group across model rebuilds.
+	 * @param label
+	 *            text shown for the group node.
+	 */
+	public BufferGroup(String key, String label)
+	{
+		this.key = key;
+		this.label = label;
+	} // }}}
+
+	// {{{ +getKey() : String
+	public String getKey()
+	{
+		return key;
+	} // }}}
+
+	// {{{ +getLabel() : String
+	public String getLabel()
+	{
+		return label;
+	} // }}}
+
+	// {{{ setLabel(String) : void
+	void setLabel(String label)
+	{
+		this.label = label;
+	} // }}}
+
+	// {{{ +toString() : String
+	@Override
+	public String toString()
+	{
+		return label;
+	} // }}}
+}
@@ -24,26 +24,45 @@ package bufferlist;
 
 // {{{ imports
 import java.awt.BorderLayout;
+import java.awt.FlowLayout;
+import java.awt.Insets;
 import java.awt.Rectangle;
+import java.awt.event.ActionEvent;
+import java.awt.event.ActionListener;
 import java.awt.event.InputEvent;
 import java.awt.event.KeyAdapter;
 import java.awt.event.KeyEvent;
 import java.awt.event.MouseAdapter;
 import java.awt.event.MouseEvent;
+import java.io.File;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.Comparator;
 import java.util.Enumeration;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
 import java.util.Vector;
+import java.util.concurrent.ConcurrentHashMap;
 
 import javax.swing.JLabel;
 import javax.swing.JPanel;
 import javax.swing.JScrollPane;
+import javax.swing.JToggleButton;
 import javax.swing.JTree;
 import javax.swing.KeyStroke;
 import javax.swing.ScrollPaneConstants;
+import javax.swing.SwingUtilities;
+import javax.swing.Timer;
 import javax.swing.ToolTipManager;
+import javax.swing.event.TreeModelEvent;
+import javax.swing.event.TreeModelListener;
 import javax.swing.event.TreeSelectionEvent;
 import javax.swing.event.TreeSelectionListener;
 import javax.swing.tree.DefaultTreeModel;
@@ -54,19 +73,23 @@ import org.gjt.sp.jedit.EBComponent;
 import org.gjt.sp.jedit.EBMessage;
 import org.gjt.sp.jedit.EditBus;
 import org.gjt.sp.jedit.EditPane;
+import org.gjt.sp.jedit.EditPlugin;
 import org.gjt.sp.jedit.GUIUtilities;
 import org.gjt.sp.jedit.MiscUtilities;
 import org.gjt.sp.jedit.OperatingSystem;
+import org.gjt.sp.jedit.ServiceManager;
 import org.gjt.sp.jedit.View;
 import org.gjt.sp.jedit.bufferset.BufferSet;
-import org.gjt.sp.jedit.bufferset.BufferSetManager;
 import org.gjt.sp.jedit.jEdit;
 import org.gjt.sp.jedit.gui.DockableWindowManager;
 import org.gjt.sp.jedit.io.VFS;
 import org.gjt.sp.jedit.io.VFSManager;
 import org.gjt.sp.jedit.msg.BufferUpdate;
 import org.gjt.sp.jedit.msg.EditPaneUpdate;
+import org.gjt.sp.jedit.msg.EditorExiting;
 import org.gjt.sp.jedit.msg.PropertiesChanged;
+import org.gjt.sp.jedit.msg.ViewUpdate;
+import org.gjt.sp.util.Log;
 import org.gjt.sp.util.StandardUtilities;
 
 // }}}
@@ -86,6 +109,20 @@ public class BufferList extends JPanel implements EBComponent
 
 	public static final int DISPLAY_MODE_HIERARCHICAL = 2;// }}}
 
+	// {{{ grouping constants
+	public static final String GROUPING_NONE = "none";
+
+	public static final String GROUPING_EDITPANE = "editpane";
+
+	public static final String GROUPING_PROJECT = "project";// }}}
+
+	// {{{ sort mode constants
+	public static final String SORT_NAME = "name";
+
+	public static final String SORT_MRU = "mru";
+
+	public static final String SORT_MEMORY = "memory";// }}}
+
 	// {{{ instance variables
 	private final View view;
 
@@ -97,16 +134,242 @@ public class BufferList extends JPanel implements EBComponent
 
 	private DefaultTreeModel model;
 
-	private final BufferListTreeNode rootNode;
+	private BufferListTreeNode rootNode;
+
+	/**
+	 * User object of the root nodes.
+	 */
+	private final Object rootObject;
 
 	private boolean sortIgnoreCase;
+
+	/**
+	 * Order of directory nodes, for {@link TreeUpdates}.
+	 */
+	private final Comparator<String> dirOrder = new Comparator<String>()
+	{
+		public int compare(String dir1, String dir2)
+		{
+			return compareDirs(dir1, dir2);
+		}
+	};
+
+	private boolean shortenHome;
+
+	/**
+	 * Whether buffers are shown in their canonical directories, see
+	 * {@link CanonicalPaths}.
+	 */
+	private boolean resolveSymlinks;
+
+	/**
+	 * The buffer that the renderer shows bold.
+	 */
+	private Buffer currentBuffer;
 	
 	private boolean ignoreSelectionChange;
 
 	private int displayMode;
 
+	private String grouping;
+
 	private HashMap<String, BufferListTreeNode> distinctDirs;
 
+	/**
+	 * The top level groups of the current model; just the rootGroup if the
+	 * buffers are not grouped.
+	 */
+	private List<BufferGroup> groups;
+
+	private BufferGroup rootGroup;
+
+	/**
+	 * The grouping strategy, null if the buffers are not grouped or grouped
+	 * by edit pane.
+	 */
+	private GroupingStrategy strategy;
+
+	/**
+	 * The groups by group key, if the buffers are grouped by a strategy.
+	 */
+	private HashMap<String, BufferGroup> strategyGroups;
+
+	/**
+	 * The tree of the other display mode while it is up to date, so that
+	 * toggling the display mode only swaps the model; null if it has not been
+	 * built or has been outdated by a change.
+	 */
+	private Projection hiddenProjection;
+
+	/**
+	 * The expanded directories and groups of the other display mode, by key
+	 * in <code>distinctDirs</code>; kept when its tree is dropped.
+	 */
+	private Set<String> hiddenExpansion;
+
+	/**
+	 * Snapshot of the buffers shown, maintained through BufferSetListeners.
+	 */
+	private final BufferSetTracker tracker;
+
+	/**
+	 * Which buffers pass the filters of the filter buttons.
+	 */
+	private final BufferFilters filters;
+
+	/**
+	 * The tree shown while a filter is switched on, or null. The model of
+	 * the buffer sets is kept up to date behind it, with its expansion state
+	 * saved in its nodes, and shown again when the last filter is switched
+	 * off.
+	 */
+	private DefaultTreeModel filterModel;
+
+	/**
+	 * Buffer nodes and directory nodes of filterModel.
+	 */
+	private final HashMap<Buffer, BufferListTreeNode> filterNodes = new HashMap<Buffer, BufferListTreeNode>();
+
+	private final HashMap<String, BufferListTreeNode> filterDirs = new HashMap<String, BufferListTreeNode>();
+
+	private final JToggleButton[] filterButtons = new JToggleButton[BufferFilters.NAMES.length];
+
+	private boolean reattachPending;
+
+	/**
+	 * True while the tree shows a restored snapshot that has not yet been
+	 * reconciled with the buffer sets.
+	 */
+	private boolean reconcilePending;
+
+	/**
+	 * True if changes have been skipped during a bulk update.
+	 */
+	private boolean resyncPending;
+
+	/**
+	 * The tree snapshot is only used for the first BufferList of a session.
+	 */
+	private static boolean snapshotChecked;
+
+	/**
+	 * Moves buffers whose group keys have been computed in the background.
+	 */
+	private final Runnable regroupCallback = new Runnable()
+	{
+		public void run()
+		{
+			regroupAll(false);
+		}
+	};
+
+	/**
+	 * Moves buffers whose canonical directories have been resolved in the
+	 * background.
+	 */
+	private final Runnable canonicalCallback = new Runnable()
+	{
+		public void run()
+		{
+			canonicalDirsResolved();
+		}
+	};
+
+	/**
+	 * The snapshot of the current tree, see {@link #getSnapshot()}.
+	 */
+	private volatile BufferListSnapshot snapshot = BufferListSnapshot.EMPTY;
+
+	/**
+	 * The snapshots of all BufferLists, for threads that must not ask the
+	 * DockableWindowManager.
+	 */
+	private static final ConcurrentHashMap<View, BufferListSnapshot> snapshots = new ConcurrentHashMap<View, BufferListSnapshot>();
+
+	private boolean snapshotPending;
+
+	/**
+	 * Publishes a new snapshot after the tree model has changed.
+	 */
+	private final TreeModelListener snapshotTrigger = new TreeModelListener()
+	{
+		public void treeNodesChanged(TreeModelEvent e)
+		{
+			// only a new group label outdates the tree of the other mode
+			Object[] children = e.getChildren();
+			for (int i = 0; children != null && i < children.length; i++)
+			{
+				if (((BufferListTreeNode) children[i]).isGroupNode())
+				{
+					hiddenProjection = null;
+					break;
+				}
+			}
+			scheduleSnapshot();
+		}
+
+		public void treeNodesInserted(TreeModelEvent e)
+		{
+			hiddenProjection = null;
+			scheduleSnapshot();
+			TreeUpdates.dirCountsChanged((DefaultTreeModel) e.getSource(), (BufferListTreeNode) e
+				.getTreePath().getLastPathComponent());
+		}
+
+		public void treeNodesRemoved(TreeModelEvent e)
+		{
+			hiddenProjection = null;
+			scheduleSnapshot();
+			TreeUpdates.dirCountsChanged((DefaultTreeModel) e.getSource(), (BufferListTreeNode) e
+				.getTreePath().getLastPathComponent());
+		}
+
+		public void treeStructureChanged(TreeModelEvent e)
+		{
+			hiddenProjection = null;
+			scheduleSnapshot();
+		}
+	};
+
+	/**
+	 * SORT_NAME, SORT_MRU or SORT_MEMORY; in SORT_MRU and SORT_MEMORY the
+	 * buffers of each group are listed without directories, most recently
+	 * used or biggest first.
+	 */
+	private String sortMode;
+
+	private boolean footprintTooltips;
+
+	/**
+	 * Number of buffers from which on the tree is switched to large model
+	 * mode; 0 to never switch.
+	 */
+	private int largeModelThreshold;
+
+	/**
+	 * Whether the tree is in large model mode, with a fixed row height.
+	 */
+	private boolean largeModel;
+
+	/**
+	 * The buffers of this view by last activation, maintained in all sort
+	 * modes.
+	 */
+	private final RecencyIndex recency = new RecencyIndex();
+
+	/**
+	 * The buffer the running quick switch has gone to, or null. It is moved
+	 * to the front of the recency index when the quick switch is finished.
+	 */
+	private Buffer switchTarget;
+
+	/**
+	 * Position of the switchTarget in the recency index.
+	 */
+	private int switchDepth;
+
+	private Timer switchTimer;
+
 	private final JLabel bufferCountsLabel = new JLabel();// }}}
 
 	// {{{ +BufferList(View, String) : <init>
@@ -114,7 +377,7 @@ public class BufferList extends JPanel implements EBComponent
 	{
 		super(new BorderLayout());
 		// <reusage of BufferListTreeNode>
-		final Object root = new Object()
+		rootObject = new Object()
 		{
 			@Override
 			public String toString()
@@ -122,11 +385,13 @@ public class BufferList extends JPanel implements EBComponent
 				return ROOT;
 			}
 		};
-		rootNode = new BufferListTreeNode(root);
-		distinctDirs = new HashMap<String, BufferListTreeNode>();
-		distinctDirs.put(ROOT, rootNode);
+		installProjection(new Projection(rootObject));
 		// </reusage of BufferListTreeNode>
 		this.view = view;
+		tracker = new BufferSetTracker(view, new TrackerHandler());
+		tracker.attach();
+		filters = new BufferFilters(tracker);
+		filters.rebuild(getCurrentBufferSet());
 		// this.position = position;
 		sortIgnoreCase = jEdit.getBooleanProperty("vfs.browser.sortIgnoreCase");
 		// tree:
@@ -144,6 +409,41 @@ public class BufferList extends JPanel implements EBComponent
 				ignoreSelectionChange = false;
 				return res;
 			}
+
+			@Override
+			public String convertValueToText(Object value, boolean selected, boolean expanded,
+				boolean leaf, int row, boolean hasFocus)
+			{
+				// avoid Buffer.toString(), which builds a new string each time
+				if (value instanceof BufferListTreeNode)
+				{
+					return ((BufferListTreeNode) value).getLabel();
+				}
+				return super.convertValueToText(value, selected, expanded, leaf, row, hasFocus);
+			}
+
+			@Override
+			public String getToolTipText(MouseEvent e)
+			{
+				// computed on hover only, instead of by the renderer for every row
+				TreePath path = getPathForLocation(e.getX(), e.getY());
+				if (path == null)
+				{
+					return null;
+				}
+				BufferListTreeNode node = (BufferListTreeNode) path.getLastPathComponent();
+				String text = node.isGroupNode() ? node.getLabel() : node.getUserPath();
+				if (node.isBuffer())
+				{
+					Buffer duplicate = CanonicalPaths.getDuplicateOf(node.getBuffer());
+					if (duplicate != null)
+					{
+						text = jEdit.getProperty("bufferlist.duplicate.tooltip", new Object[] {
+							text, duplicate.getPath() });
+					}
+				}
+				return footprintTooltips ? getFootprintToolTip(node, text) : text;
+			}
 		};
 		tree.setRootVisible(false);
 		tree.setShowsRootHandles(true);
@@ -172,20 +472,69 @@ public class BufferList extends JPanel implements EBComponent
 		scrTree = new JScrollPane(tree);
 		// overall layout:
 		updateBufferCounts();
-		add(BorderLayout.NORTH, bufferCountsLabel);
+		JPanel filterPanel = new JPanel(new FlowLayout(FlowLayout.RIGHT, 2, 0));
+		for (int i = 0; i < filterButtons.length; i++)
+		{
+			final int filter = i;
+			filterButtons[i] = new JToggleButton(jEdit.getProperty("bufferlist.filter."
+				+ BufferFilters.NAMES[i] + ".label"));
+			filterButtons[i].setToolTipText(jEdit.getProperty("bufferlist.filter."
+				+ BufferFilters.NAMES[i] + ".tooltip"));
+			filterButtons[i].setMargin(new Insets(0, 2, 0, 2));
+			filterButtons[i].setFocusable(false);
+			filterButtons[i].addActionListener(new ActionListener()
+			{
+				public void actionPerformed(ActionEvent e)
+				{
+					setFilter(filter, filterButtons[filter].isSelected());
+				}
+			});
+			filterPanel.add(filterButtons[i]);
+		}
+		JPanel northPanel = new JPanel(new BorderLayout());
+		northPanel.add(BorderLayout.CENTER, bufferCountsLabel);
+		northPanel.add(BorderLayout.EAST, filterPanel);
+		add(BorderLayout.NORTH, northPanel);
 		add(BorderLayout.CENTER, scrTree);
 		displayMode = jEdit.getIntegerProperty("bufferlist.displayMode", DISPLAY_MODE_FLAT_TREE);
+		grouping = jEdit.getProperty("bufferlist.grouping", GROUPING_NONE);
+		strategy = getStrategy(grouping);
+		sortMode = jEdit.getProperty("bufferlist.sortMode", SORT_NAME);
 		sortIgnoreCase = jEdit.getBooleanProperty("vfs.browser.sortIgnoreCase");
-		createModel();
-		handlePropertiesChanged();
-		if (position.equals(DockableWindowManager.FLOATING))
+		shortenHome = jEdit.getBooleanProperty("bufferlist.shortenHome", true);
+		resolveSymlinks = jEdit.getBooleanProperty("bufferlist.resolveSymlinks", true);
+		currentBuffer = view.getBuffer();
+		EdtWatchdog.begin("BufferList.<init>");
+		try
 		{
-			requestTreeFocus();
+			boolean restored = restoreSnapshot();
+			// the buffers shown in the edit panes are the most recently used
+			for (EditPane editPane : view.getEditPanes())
+			{
+				recency.touch(editPane.getBuffer());
+			}
+			recency.touch(view.getBuffer());
+			if (!restored)
+			{
+				createModel();
+			}
+			handlePropertiesChanged();
+			if (position.equals(DockableWindowManager.FLOATING))
+			{
+				requestTreeFocus();
+			}
+			if (!restored)
+			{
+				expandCurrentPath();
+				if (jEdit.getBooleanProperty("bufferlist.startExpanded"))
+				{
+					TreeTools.expandAll(tree);
+				}
+			}
 		}
-		expandCurrentPath();
-		if (jEdit.getBooleanProperty("bufferlist.startExpanded"))
+		finally
 		{
-			TreeTools.expandAll(tree);
+			EdtWatchdog.end();
 		}
 	} // }}}
 
@@ -224,12 +573,13 @@ public class BufferList extends JPanel implements EBComponent
 	 */
 	public void expandCurrentPath()
 	{
-		BufferListTreeNode node = getNode(view.getBuffer());
+		BufferListTreeNode node = filterModel != null ? filterNodes.get(view.getBuffer())
+			: getNode(view.getBuffer());
 		if (node == null)
 		{
 			return;
 		}
-		TreePath path = new TreePath(node.getPath());
+		TreePath path = node.getTreePath();
 		tree.expandPath(path.getParentPath());
 		//We don't need two emphasizers - selection and bold font.
 		tree.clearSelection();
@@ -256,7 +606,7 @@ public class BufferList extends JPanel implements EBComponent
 	public void nextBuffer()
 	{
 		Buffer buffer = view.getBuffer();
-		Enumeration<BufferListTreeNode> e = rootNode.depthFirstEnumeration();
+		Enumeration<BufferListTreeNode> e = getCurrentGroup().node.depthFirstEnumeration();
 		BufferListTreeNode first = null, next = null;
 		while (e.hasMoreElements())
 		{
@@ -298,7 +648,7 @@ public class BufferList extends JPanel implements EBComponent
 	public void previousBuffer()
 	{
 		Buffer buffer = view.getBuffer();
-		Enumeration<BufferListTreeNode> e = rootNode.depthFirstEnumeration();
+		Enumeration<BufferListTreeNode> e = getCurrentGroup().node.depthFirstEnumeration();
 		BufferListTreeNode prev = null, node = null;
 		while (e.hasMoreElements())
 		{
@@ -338,6 +688,11 @@ public class BufferList extends JPanel implements EBComponent
 	 */
 	public void setDisplayMode(int pDisplayMode)
 	{
+		if (pDisplayMode == displayMode)
+		{
+			updateModel();
+			return;
+		}
 		displayMode = pDisplayMode;
 		if (displayMode == DISPLAY_MODE_FLAT_TREE)
 		{
@@ -347,7 +702,13 @@ public class BufferList extends JPanel implements EBComponent
 		{
 			tree.putClientProperty("JTree.lineStyle", "Angled");
 		}
-		updateModel();
+		if (filterModel != null)
+		{
+			// the tree of the new mode is shown when the filters are off
+			updateModel();
+			return;
+		}
+		swapProjections();
 	} // }}}
 
 	// {{{ +toggleDisplayMode() : void
@@ -392,411 +753,2407 @@ public class BufferList extends JPanel implements EBComponent
 		}
 	} // }}}
 
-	// {{{ +addNotify() : void
+	// {{{ +setGrouping(String) : void
 	/**
-	 * Invoked when the component is created; adds focus event handlers to all
-	 * EditPanes of the View associated with this BufferList.
+	 * Sets how the top level of the tree is grouped for this instance.
+	 *
+	 * @param pGrouping
+	 *            GROUPING_NONE, GROUPING_EDITPANE or the name of a grouping
+	 *            strategy service
+	 * @since BufferList 1.5
+	 * @see #getGroupings()
 	 */
-	@Override
-	public void addNotify()
+	public void setGrouping(String pGrouping)
 	{
-		super.addNotify();
-		EditBus.addToBus(this);
+		grouping = pGrouping;
+		strategy = getStrategy(pGrouping);
+		updateModel();
 	} // }}}
 
-	// {{{ +removeNotify() : void
+	// {{{ +getGroupings() : String[]
 	/**
-	 * Invoked when the component is removed; removes the focus event handlers
-	 * from all EditPanes.
+	 * @return the names of all available groupings: GROUPING_NONE,
+	 *         GROUPING_EDITPANE and the names of the grouping strategy
+	 *         services.
+	 * @since BufferList 1.5
 	 */
-	@Override
-	public void removeNotify()
+	public static String[] getGroupings()
 	{
-		super.removeNotify();
-		EditBus.removeFromBus(this);
+		String[] services = ServiceManager.getServiceNames(BufferListPlugin.GROUPING_SERVICE_TYPE);
+		String[] groupings = new String[services.length + 2];
+		groupings[0] = GROUPING_NONE;
+		groupings[1] = GROUPING_EDITPANE;
+		System.arraycopy(services, 0, groupings, 2, services.length);
+		return groupings;
 	} // }}}
 
-	// {{{ +handleMessage(EBMessage) : void
-	/** Handle jEdit EditBus messages */
-	public void handleMessage(EBMessage message)
+	// {{{ +getGroupingLabel(String) : String
+	/**
+	 * @return the text shown for a grouping in menus and options.
+	 * @since BufferList 1.5
+	 */
+	public static String getGroupingLabel(String name)
 	{
-		if (message instanceof BufferUpdate)
-		{
-			handleBufferUpdate((BufferUpdate) message);
-		}
-		else if (message instanceof EditPaneUpdate)
-		{
-			handleEditPaneUpdate((EditPaneUpdate) message);
-		}
-		else if (message instanceof PropertiesChanged)
-		{
-			handlePropertiesChanged();
-		}
+		return jEdit.getProperty("bufferlist.grouping." + name + ".label", name);
 	} // }}}
 
-	// {{{ -handleBufferUpdate(BufferUpdate) : void
-	private void handleBufferUpdate(BufferUpdate bu)
+	// {{{ +toggleEditPaneGrouping() : void
+	/**
+	 * Invoked by action "bufferlist-toggle-editpane-grouping".
+	 *
+	 * @since BufferList 1.5
+	 * @see actions.xml
+	 */
+	public void toggleEditPaneGrouping()
 	{
-		if (bu.getWhat() == BufferUpdate.DIRTY_CHANGED)
-		{
-			updateNode(bu.getBuffer());
-		}
-		else if (bu.getWhat() == BufferUpdate.CREATED || bu.getWhat() == BufferUpdate.CLOSED
-			|| bu.getWhat() == BufferUpdate.SAVED)
-		{
-			updateModel();
-		}
-		updateBufferCounts();
+		setGrouping(GROUPING_EDITPANE.equals(grouping) ? GROUPING_NONE : GROUPING_EDITPANE);
 	} // }}}
 
-	// {{{ -handleEditPaneUpdate(EditPaneUpdate) : void
-	private void handleEditPaneUpdate(EditPaneUpdate epu)
+	// {{{ +toggleProjectGrouping() : void
+	/**
+	 * Invoked by action "bufferlist-toggle-project-grouping".
+	 *
+	 * @since BufferList 1.5
+	 * @see actions.xml
+	 */
+	public void toggleProjectGrouping()
 	{
-		// View v = ((EditPane) epu.getSource()).getView();
-		View v = epu.getEditPane().getView();
-		if (v != view)
-		{
-			return; // not for this BufferList instance
-		}
-		if (epu.getWhat() == EditPaneUpdate.BUFFER_CHANGED)
-		{
-			currentBufferChanged();
-		}
+		setGrouping(GROUPING_PROJECT.equals(grouping) ? GROUPING_NONE : GROUPING_PROJECT);
 	} // }}}
 
-	// {{{ -handlePropertiesChanged() : void
-	private void handlePropertiesChanged()
+	// {{{ +getGrouping(View) : String
+	/**
+	 * Used by "bufferlist-toggle-editpane-grouping:IS_SELECTED"; returns the
+	 * grouping of the view's bufferlist or the current default grouping.
+	 *
+	 * @since BufferList 1.5
+	 * @see actions.xml
+	 */
+	public static String getGrouping(View view)
 	{
-		boolean modelChanged = false;
-		if (jEdit.getIntegerProperty("bufferlist.textClipping", 1) == 0)
+		DockableWindowManager mgr = view.getDockableWindowManager();
+		BufferList bufferlist = (BufferList) mgr.getDockable("bufferlist");
+		if (bufferlist == null)
 		{
-			scrTree
-				.setHorizontalScrollBarPolicy(ScrollPaneConstants.HORIZONTAL_SCROLLBAR_AS_NEEDED);
+			return jEdit.getProperty("bufferlist.grouping", GROUPING_NONE);
 		}
 		else
 		{
-			scrTree.setHorizontalScrollBarPolicy(ScrollPaneConstants.HORIZONTAL_SCROLLBAR_NEVER);
-		}
-		boolean newSortIgnoreCase = jEdit.getBooleanProperty("vfs.browser.sortIgnoreCase");
-		if (sortIgnoreCase != newSortIgnoreCase)
-		{
-			modelChanged = true;
-			sortIgnoreCase = newSortIgnoreCase;
-		}
-		if (modelChanged)
-		{
-			updateModel();
+			return bufferlist.grouping;
 		}
-		// set new cell renderer to change fonts:
-		tree.setCellRenderer(new BufferListRenderer(view));
 	} // }}}
 
-	// {{{ -updateBufferCounts() : void
-	private void updateBufferCounts()
+	// {{{ +setSortMode(String) : void
+	/**
+	 * Sets the order of the buffers for this instance.
+	 *
+	 * @param pSortMode
+	 *            SORT_NAME, SORT_MRU or SORT_MEMORY
+	 * @since BufferList 1.5
+	 */
+	public void setSortMode(String pSortMode)
 	{
-		int dirtyBuffers = 0;
-		Buffer buffers[] = getBuffers();
-		for (Buffer buffer : buffers)
-		{
-			if (buffer.isDirty())
-			{
-				dirtyBuffers++;
-			}
-		}
-		bufferCountsLabel.setText(jEdit.getProperty("bufferlist.openfiles.label")
-			+ buffers.length + " " + jEdit.getProperty("bufferlist.dirtyfiles.label")
-			+ dirtyBuffers);
+		sortMode = pSortMode;
+		updateModel();
+		expandCurrentPath();
 	} // }}}
 
-	// {{{ -getDir(Buffer) : String
-	private static String getDir(Buffer buffer)
-	{
-		return buffer.getVFS().getParentOfPath(buffer.getPath());
+	// {{{ +getSortModes() : String[]
+	/**
+	 * @return the names of all sort modes.
+	 * @since BufferList 1.5
+	 */
+	public static String[] getSortModes()
+	{
+		return new String[] { SORT_NAME, SORT_MRU, SORT_MEMORY };
+	} // }}}
+
+	// {{{ +getSortModeLabel(String) : String
+	/**
+	 * @return the text shown for a sort mode in menus and options.
+	 * @since BufferList 1.5
+	 */
+	public static String getSortModeLabel(String name)
+	{
+		return jEdit.getProperty("bufferlist.sortMode." + name + ".label", name);
+	} // }}}
+
+	// {{{ +toggleSortMode() : void
+	/**
+	 * Invoked by action "bufferlist-toggle-sort-mode" only; toggles between
+	 * SORT_NAME/SORT_MRU.
+	 *
+	 * @since BufferList 1.5
+	 * @see actions.xml
+	 */
+	public void toggleSortMode()
+	{
+		setSortMode(SORT_MRU.equals(sortMode) ? SORT_NAME : SORT_MRU);
+	} // }}}
+
+	// {{{ +getSortMode(View) : String
+	/**
+	 * Used by "bufferlist-toggle-sort-mode:IS_SELECTED"; returns the sort
+	 * mode of the view's bufferlist or the current default sort mode.
+	 *
+	 * @since BufferList 1.5
+	 * @see actions.xml
+	 */
+	public static String getSortMode(View view)
+	{
+		DockableWindowManager mgr = view.getDockableWindowManager();
+		BufferList bufferlist = (BufferList) mgr.getDockable("bufferlist");
+		if (bufferlist == null)
+		{
+			return jEdit.getProperty("bufferlist.sortMode", SORT_NAME);
+		}
+		else
+		{
+			return bufferlist.sortMode;
+		}
+	} // }}}
+
+	// {{{ +quickSwitch() : void
+	/**
+	 * Invoked by action "bufferlist-quick-switch"; goes to the most recently
+	 * used buffer but the current one. Repeated within
+	 * <code>bufferlist.quickSwitch.delay</code> ms, it goes further back in
+	 * the list, which is only updated when the repetitions have stopped.
+	 *
+	 * @since BufferList 1.5
+	 * @see actions.xml
+	 */
+	public void quickSwitch()
+	{
+		if (switchTarget == null || switchTarget != view.getBuffer())
+		{
+			finishQuickSwitch();
+			switchDepth = 0;
+		}
+		// one pass over the recency index: the first candidate after the
+		// current depth, or the first one at all to wrap around
+		Buffer current = view.getBuffer();
+		Buffer target = null;
+		int depth = -1;
+		Buffer first = null;
+		int firstDepth = -1;
+		int i = 0;
+		for (Iterator<Buffer> it = recency.iterator(); it.hasNext(); i++)
+		{
+			Buffer buffer = it.next();
+			if (buffer == current || tracker.getEntry(buffer) == null)
+			{
+				continue;
+			}
+			if (first == null)
+			{
+				first = buffer;
+				firstDepth = i;
+			}
+			if (i > switchDepth)
+			{
+				target = buffer;
+				depth = i;
+				break;
+			}
+		}
+		if (target == null)
+		{
+			target = first;
+			depth = firstDepth;
+		}
+		if (target == null)
+		{
+			return;
+		}
+		if (switchTimer == null)
+		{
+			switchTimer = new Timer(0, new ActionListener()
+			{
+				public void actionPerformed(ActionEvent e)
+				{
+					finishQuickSwitch();
+				}
+			});
+			switchTimer.setRepeats(false);
+		}
+		switchTimer.setInitialDelay(jEdit.getIntegerProperty("bufferlist.quickSwitch.delay", 1000));
+		switchTimer.restart();
+		switchDepth = depth;
+		switchTarget = target;
+		view.goToBuffer(switchTarget);
+	} // }}}
+
+	// {{{ +addNotify() : void
+	/**
+	 * Invoked when the component is created; adds focus event handlers to all
+	 * EditPanes of the View associated with this BufferList.
+	 */
+	@Override
+	public void addNotify()
+	{
+		super.addNotify();
+		EditBus.addToBus(this);
+		if (!tracker.isAttached())
+		{
+			// we missed all changes while we were removed
+			tracker.attach();
+			filters.rebuild(getCurrentBufferSet());
+			updateModel();
+			updateBufferCounts();
+		}
+	} // }}}
+
+	// {{{ +removeNotify() : void
+	/**
+	 * Invoked when the component is removed; removes the focus event handlers
+	 * from all EditPanes.
+	 */
+	@Override
+	public void removeNotify()
+	{
+		super.removeNotify();
+		EditBus.removeFromBus(this);
+		tracker.detach();
+		snapshots.remove(view);
+	} // }}}
+
+	// {{{ +handleMessage(EBMessage) : void
+	/** Handle jEdit EditBus messages */
+	public void handleMessage(EBMessage message)
+	{
+		BufferListMetrics.messageHandled(message);
+		EdtWatchdog.begin(message);
+		try
+		{
+			if (message instanceof BufferUpdate)
+			{
+				handleBufferUpdate((BufferUpdate) message);
+			}
+			else if (message instanceof EditPaneUpdate)
+			{
+				handleEditPaneUpdate((EditPaneUpdate) message);
+			}
+			else if (message instanceof PropertiesChanged)
+			{
+				handlePropertiesChanged();
+			}
+			else if (message instanceof ViewUpdate)
+			{
+				ViewUpdate vu = (ViewUpdate) message;
+				if (vu.getView() == view && vu.getWhat() == ViewUpdate.EDIT_PANE_CHANGED
+					&& filters.setCurrentBufferSet(getCurrentBufferSet()) && filterModel != null)
+				{
+					showFilterView();
+				}
+			}
+			else if (message instanceof EditorExiting)
+			{
+				if (view == jEdit.getActiveView())
+				{
+					saveSnapshot();
+				}
+			}
+		}
+		finally
+		{
+			EdtWatchdog.end();
+		}
+	} // }}}
+
+	// {{{ -handleBufferUpdate(BufferUpdate) : void
+	private void handleBufferUpdate(BufferUpdate bu)
+	{
+		// Buffers entering or leaving the buffer sets are handled by the
+		// TrackerHandler; only state changes of known buffers arrive here.
+		Buffer buffer = bu.getBuffer();
+		if (bu.getWhat() == BufferUpdate.CLOSED)
+		{
+			recency.remove(buffer);
+			BufferFootprint.invalidate(buffer);
+			if (buffer == switchTarget)
+			{
+				switchTarget = null;
+			}
+		}
+		else if (bu.getWhat() == BufferUpdate.DIRTY_CHANGED)
+		{
+			BufferFootprint.invalidate(buffer);
+			if (tracker.dirtyChanged(buffer) && !deferToBulkUpdate())
+			{
+				footprintChanged(buffer);
+				updateNode(buffer);
+				filterChanged(tracker.getEntry(buffer), false);
+				updateBufferCounts();
+			}
+		}
+		else if (bu.getWhat() == BufferUpdate.SAVED)
+		{
+			BufferEntry entry = tracker.getEntry(buffer);
+			if (entry == null)
+			{
+				return;
+			}
+			tracker.dirtyChanged(buffer);
+			BufferFootprint.invalidate(buffer);
+			boolean moved = entry.update();
+			if (deferToBulkUpdate())
+			{
+				return;
+			}
+			if (moved)
+			{
+				// "save as": move the node to its new directory
+				resolveCanonicalDirs(Collections.singletonList(entry));
+				moveBufferNode(entry);
+				// the moved node still counts the buffer as unsaved
+				updateNode(buffer);
+			}
+			else
+			{
+				footprintChanged(buffer);
+				updateNode(buffer);
+			}
+			filterChanged(entry, moved);
+			updateBufferCounts();
+		}
+		else if (bu.getWhat() == BufferUpdate.LOADED)
+		{
+			// the buffer was sorted as empty while it was loading, and a
+			// reloaded one by its old size
+			BufferFootprint.invalidate(buffer);
+			if (!deferToBulkUpdate())
+			{
+				footprintChanged(buffer);
+			}
+			// loading or reloading a file is when a changed link is noticed
+			BufferEntry entry = tracker.getEntry(buffer);
+			if (entry != null)
+			{
+				CanonicalPaths.invalidate(entry.getPathDir());
+				resolveCanonicalDirs(Collections.singletonList(entry));
+			}
+		}
+		else if (bu.getWhat() == BufferUpdate.PROPERTIES_CHANGED && strategy != null)
+		{
+			// e.g. the edit mode has changed
+			BufferEntry entry = tracker.getEntry(buffer);
+			if (entry != null && !deferToBulkUpdate())
+			{
+				regroup(entry);
+			}
+		}
+	} // }}}
+
+	// {{{ -handleEditPaneUpdate(EditPaneUpdate) : void
+	private void handleEditPaneUpdate(EditPaneUpdate epu)
+	{
+		// View v = ((EditPane) epu.getSource()).getView();
+		View v = epu.getEditPane().getView();
+		if (v != view)
+		{
+			return; // not for this BufferList instance
+		}
+		if (epu.getWhat() == EditPaneUpdate.BUFFER_CHANGED)
+		{
+			Buffer buffer = epu.getEditPane().getBuffer();
+			boolean activated = bufferActivated(buffer);
+			if (deferToBulkUpdate())
+			{
+				return;
+			}
+			if (activated && SORT_MRU.equals(sortMode))
+			{
+				moveToFront(buffer);
+			}
+			currentBufferChanged();
+			BufferGroup group = getGroup(epu.getEditPane().getBufferSet());
+			if (group != null && group != rootGroup)
+			{
+				updateGroupLabel(group, groups.indexOf(group));
+				model.nodeChanged(group.node);
+			}
+		}
+		else if (epu.getWhat() == EditPaneUpdate.BUFFERSET_CHANGED
+			|| ((epu.getWhat() == EditPaneUpdate.CREATED || epu.getWhat() == EditPaneUpdate.DESTROYED)
+				&& tracker.getScope() == BufferSet.Scope.editpane))
+		{
+			reattachLater();
+		}
+	} // }}}
+
+	// {{{ -handlePropertiesChanged() : void
+	private void handlePropertiesChanged()
+	{
+		boolean modelChanged = false;
+		if (jEdit.getIntegerProperty("bufferlist.textClipping", 1) == 0)
+		{
+			scrTree
+				.setHorizontalScrollBarPolicy(ScrollPaneConstants.HORIZONTAL_SCROLLBAR_AS_NEEDED);
+		}
+		else
+		{
+			scrTree.setHorizontalScrollBarPolicy(ScrollPaneConstants.HORIZONTAL_SCROLLBAR_NEVER);
+		}
+		boolean newSortIgnoreCase = jEdit.getBooleanProperty("vfs.browser.sortIgnoreCase");
+		if (sortIgnoreCase != newSortIgnoreCase)
+		{
+			modelChanged = true;
+			sortIgnoreCase = newSortIgnoreCase;
+		}
+		boolean newShortenHome = jEdit.getBooleanProperty("bufferlist.shortenHome", true);
+		if (shortenHome != newShortenHome)
+		{
+			modelChanged = true;
+			shortenHome = newShortenHome;
+		}
+		ProjectRoots.configure();
+		CanonicalPaths.configure();
+		boolean newResolveSymlinks = jEdit.getBooleanProperty("bufferlist.resolveSymlinks", true);
+		if (resolveSymlinks != newResolveSymlinks)
+		{
+			resolveSymlinks = newResolveSymlinks;
+			for (BufferEntry entry : tracker.getEntries())
+			{
+				entry.updateRealDir();
+			}
+			resolveCanonicalDirs(tracker.getEntries());
+			modelChanged = true;
+		}
+		footprintTooltips = jEdit.getBooleanProperty("bufferlist.footprint.tooltip", false);
+		if (tracker.getScope() != jEdit.getBufferSetManager().getScope())
+		{
+			tracker.attach();
+			filters.rebuild(getCurrentBufferSet());
+			updateBufferCounts();
+			modelChanged = true;
+		}
+		if (modelChanged)
+		{
+			updateModel();
+		}
+		else if (strategy != null)
+		{
+			// strategy settings, e.g. the project root markers, may have changed
+			regroupAll(true);
+		}
+		// set new cell renderer to change fonts:
+		tree.setCellRenderer(new BufferListRenderer(view));
+		largeModelThreshold = jEdit.getIntegerProperty("bufferlist.largeModel.threshold", 1000);
+		updateLargeModel(true);
+	} // }}}
+
+	// {{{ -updateLargeModel(boolean) : void
+	/**
+	 * Switches the tree to large model mode when the number of buffers has
+	 * reached the threshold, and back when it has dropped by a tenth below
+	 * it. In large model mode, the tree has a fixed row height derived from
+	 * the fonts and only lays out the rows that are shown, so expanding,
+	 * collapsing and scrolling do not depend on the number of rows.
+	 *
+	 * @param force
+	 *            apply the mode even if it has not changed, e.g. because
+	 *            the fonts have changed.
+	 */
+	private void updateLargeModel(boolean force)
+	{
+		if (!(tree.getCellRenderer() instanceof BufferListRenderer))
+		{
+			// not yet configured
+			return;
+		}
+		int size = tracker.size();
+		boolean newLargeModel = largeModelThreshold > 0
+			&& (largeModel ? size >= largeModelThreshold - largeModelThreshold / 10
+				: size >= largeModelThreshold);
+		if (newLargeModel == largeModel && !force)
+		{
+			return;
+		}
+		largeModel = newLargeModel;
+		BufferListRenderer renderer = (BufferListRenderer) tree.getCellRenderer();
+		renderer.setLargeModel(largeModel);
+		// the row height must be set first; JTree ignores large model mode
+		// with variable row heights
+		tree.setRowHeight(largeModel ? renderer.getFixedRowHeight() : 0);
+		tree.setLargeModel(largeModel);
+	} // }}}
+
+	// {{{ -updateBufferCounts() : void
+	private void updateBufferCounts()
+	{
+		updateLargeModel(false);
+		String text = jEdit.getProperty("bufferlist.openfiles.label") + tracker.size() + " "
+			+ jEdit.getProperty("bufferlist.dirtyfiles.label") + tracker.getDirtyCount();
+		if (filterModel != null)
+		{
+			text = jEdit.getProperty("bufferlist.filter.shown.label", new Object[] { text,
+				Integer.valueOf(filterNodes.size()) });
+		}
+		bufferCountsLabel.setText(text);
+	} // }}}
+
+	// {{{ -getCurrentBufferSet() : BufferSet
+	private BufferSet getCurrentBufferSet()
+	{
+		EditPane editPane = view.getEditPane();
+		return editPane == null ? null : editPane.getBufferSet();
+	} // }}}
+
+	// {{{ +setFilter(int, boolean) : void
+	/**
+	 * Switches a filter on or off. While a filter is on, the tree shows only
+	 * the buffers that pass all filters that are on, by directory; the tree
+	 * of the buffer sets is kept behind it and shown again unchanged when
+	 * the last filter is switched off. Takes time in proportion to the
+	 * number of buffers shown, the tree is not rebuilt.
+	 *
+	 * @param filter
+	 *            BufferFilters.UNSAVED, CURRENT_PANE or CHANGED_ON_DISK
+	 * @since BufferList 1.5
+	 */
+	public void setFilter(int filter, boolean on)
+	{
+		if (filters.isActive(filter) == on)
+		{
+			return;
+		}
+		filterButtons[filter].setSelected(on);
+		if (!filters.isActive())
+		{
+			// remember the expansion state of the hidden tree in its nodes;
+			// unlike saveExpansionState(), keeps distinctDirs for the
+			// incremental updates of the hidden tree
+			for (BufferListTreeNode node : distinctDirs.values())
+			{
+				node.setExpanded(tree.isExpanded(node.getTreePath()));
+			}
+		}
+		filters.setActive(filter, on);
+		if (filters.isActive())
+		{
+			showFilterView();
+		}
+		else
+		{
+			filterModel = null;
+			filterNodes.clear();
+			filterDirs.clear();
+			tree.setModel(model);
+			restoreExpansionState();
+			expandCurrentPath();
+		}
+		updateBufferCounts();
+	} // }}}
+
+	// {{{ -showFilterView() : void
+	/**
+	 * Shows the buffers passing the active filters, grouped by directory.
+	 */
+	private void showFilterView()
+	{
+		List<BufferEntry> matches = filters.getMatches();
+		Collections.sort(matches, new Comparator<BufferEntry>()
+		{
+			public int compare(BufferEntry entry1, BufferEntry entry2)
+			{
+				int cmpDir = compareDirs(entry1.getDir(), entry2.getDir());
+				return cmpDir != 0 ? cmpDir : StandardUtilities.compareStrings(entry1.getName(),
+					entry2.getName(), sortIgnoreCase);
+			}
+		});
+		filterNodes.clear();
+		filterDirs.clear();
+		BufferListTreeNode root = new BufferListTreeNode(rootObject);
+		for (BufferEntry entry : matches)
+		{
+			BufferListTreeNode dirNode = filterDirs.get(entry.getDir());
+			if (dirNode == null)
+			{
+				dirNode = createFilterDirNode(entry.getDir());
+				root.add(dirNode);
+			}
+			BufferListTreeNode node = new BufferListTreeNode(entry.getBuffer(), false);
+			dirNode.add(node);
+			filterNodes.put(entry.getBuffer(), node);
+		}
+		filterModel = new DefaultTreeModel(root);
+		tree.setModel(filterModel);
+		for (BufferListTreeNode dirNode : filterDirs.values())
+		{
+			tree.expandPath(dirNode.getTreePath());
+		}
+		updateBufferCounts();
+	} // }}}
+
+	// {{{ -createFilterDirNode(String) : BufferListTreeNode
+	private BufferListTreeNode createFilterDirNode(String dir)
+	{
+		BufferListTreeNode dirNode = new BufferListTreeNode(dir, true);
+		dirNode.setLabel(shortenHome ? MiscUtilities.abbreviate(dir) : dir);
+		filterDirs.put(dir, dirNode);
+		return dirNode;
+	} // }}}
+
+	// {{{ -filterChanged(BufferEntry, boolean) : void
+	/**
+	 * Updates the filter bits of a buffer after an event, and the filtered
+	 * tree if it is shown and the buffer has entered or left it. O(depth +
+	 * siblings).
+	 *
+	 * @param moved
+	 *            true if the buffer has been saved under another path
+	 */
+	private void filterChanged(BufferEntry entry, boolean moved)
+	{
+		if (entry == null)
+		{
+			return;
+		}
+		boolean changed = filters.update(entry);
+		if (filterModel == null || (!changed && !moved))
+		{
+			return;
+		}
+		removeFilterNode(entry.getBuffer());
+		if (filters.matches(entry))
+		{
+			addFilterNode(entry);
+		}
+		updateBufferCounts();
+	} // }}}
+
+	// {{{ -addFilterNode(BufferEntry) : void
+	private void addFilterNode(BufferEntry entry)
+	{
+		BufferListTreeNode root = (BufferListTreeNode) filterModel.getRoot();
+		BufferListTreeNode dirNode = filterDirs.get(entry.getDir());
+		if (dirNode == null)
+		{
+			dirNode = createFilterDirNode(entry.getDir());
+			int index = 0;
+			while (index < root.getChildCount()
+				&& compareDirs(((BufferListTreeNode) root.getChildAt(index)).getUserPath(),
+					entry.getDir()) < 0)
+			{
+				index++;
+			}
+			filterModel.insertNodeInto(dirNode, root, index);
+		}
+		int index = 0;
+		while (index < dirNode.getChildCount()
+			&& StandardUtilities.compareStrings(((BufferListTreeNode) dirNode
+				.getChildAt(index)).getBuffer().getName(), entry.getName(), sortIgnoreCase) < 0)
+		{
+			index++;
+		}
+		BufferListTreeNode node = new BufferListTreeNode(entry.getBuffer(), false);
+		filterModel.insertNodeInto(node, dirNode, index);
+		filterNodes.put(entry.getBuffer(), node);
+		TreeUpdates.dirCountsChanged(filterModel, dirNode);
+		tree.expandPath(dirNode.getTreePath());
+	} // }}}
+
+	// {{{ -removeFilterNode(Buffer) : void
+	private void removeFilterNode(Buffer buffer)
+	{
+		BufferListTreeNode node = filterNodes.remove(buffer);
+		if (node == null || filterModel == null)
+		{
+			return;
+		}
+		BufferListTreeNode dirNode = (BufferListTreeNode) node.getParent();
+		filterModel.removeNodeFromParent(node);
+		if (dirNode.getChildCount() == 0)
+		{
+			filterDirs.remove(dirNode.getUserPath());
+			filterModel.removeNodeFromParent(dirNode);
+		}
+		else
+		{
+			TreeUpdates.dirCountsChanged(filterModel, dirNode);
+		}
+	} // }}}
+
+	// {{{ -reattachLater() : void
+	/**
+	 * Re-scans the buffer sets of the view once the current EditPane
+	 * change has been completed.
+	 */
+	private void reattachLater()
+	{
+		if (reattachPending)
+		{
+			return;
+		}
+		reattachPending = true;
+		SwingUtilities.invokeLater(new Runnable()
+		{
+			public void run()
+			{
+				reattachPending = false;
+				if (tracker.isAttached())
+				{
+					tracker.attach();
+					filters.rebuild(getCurrentBufferSet());
+					if (!deferToBulkUpdate())
+					{
+						updateModel();
+						updateBufferCounts();
+					}
+				}
+			}
+		});
+	} // }}}
+
+	// {{{ +getSnapshot() : BufferListSnapshot
+	/**
+	 * May be called from any thread.
+	 *
+	 * @return the snapshot of the buffers shown in this BufferList; it is
+	 *         replaced shortly after each change of the tree.
+	 * @since BufferList 1.5
+	 */
+	public BufferListSnapshot getSnapshot()
+	{
+		return snapshot;
+	} // }}}
+
+	// {{{ +getSnapshot(View) : BufferListSnapshot
+	/**
+	 * May be called from any thread; unlike {@link #getInstanceForView(View)}
+	 * it does not need the event dispatch thread.
+	 *
+	 * @return the snapshot of the BufferList of the given view, or
+	 *         {@link BufferListSnapshot#EMPTY} if it is not shown.
+	 * @since BufferList 1.5
+	 */
+	public static BufferListSnapshot getSnapshot(View view)
+	{
+		BufferListSnapshot result = snapshots.get(view);
+		return result == null ? BufferListSnapshot.EMPTY : result;
+	} // }}}
+
+	// {{{ -scheduleSnapshot() : void
+	/**
+	 * Publishes a new snapshot once the current event has been handled, so
+	 * that a burst of changes costs one snapshot.
+	 */
+	private void scheduleSnapshot()
+	{
+		if (snapshotPending)
+		{
+			return;
+		}
+		snapshotPending = true;
+		SwingUtilities.invokeLater(new Runnable()
+		{
+			public void run()
+			{
+				snapshotPending = false;
+				publishSnapshot();
+			}
+		});
+	} // }}}
+
+	// {{{ -publishSnapshot() : void
+	/**
+	 * Walks the tree and publishes the snapshot of it with its
+	 * BufferListChanged message; O(n) in the number of buffers shown.
+	 */
+	private void publishSnapshot()
+	{
+		if (!tracker.isAttached() || reconcilePending)
+		{
+			return;
+		}
+		List<BufferGroup> shown = new ArrayList<BufferGroup>();
+		if (groups.size() == 1 && groups.get(0) == rootGroup)
+		{
+			shown.add(rootGroup);
+		}
+		else
+		{
+			for (int i = 0; i < rootNode.getChildCount(); i++)
+			{
+				BufferListTreeNode node = (BufferListTreeNode) rootNode.getChildAt(i);
+				if (node.isGroupNode())
+				{
+					shown.add(node.getGroup());
+				}
+			}
+		}
+		List<List<BufferEntry>> members = new ArrayList<List<BufferEntry>>(shown.size());
+		for (BufferGroup group : shown)
+		{
+			List<BufferEntry> groupMembers = new ArrayList<BufferEntry>(group.bufferNodes.size());
+			Enumeration<BufferListTreeNode> e = group.node.preorderEnumeration();
+			while (e.hasMoreElements())
+			{
+				BufferListTreeNode node = e.nextElement();
+				if (node.isBuffer())
+				{
+					BufferEntry entry = tracker.getEntry(node.getBuffer());
+					if (entry != null)
+					{
+						groupMembers.add(entry);
+					}
+				}
+			}
+			members.add(groupMembers);
+		}
+		BufferListSnapshot previous = snapshot;
+		BufferListSnapshot next = BufferListSnapshot.create(previous, shown, members);
+		// create() returns previous itself when nothing has changed and
+		// increments the sequence otherwise, so every new snapshot is sent
+		// in exactly one message and consumers can detect gaps
+		if (next != previous)
+		{
+			snapshot = next;
+			snapshots.put(view, next);
+			EditBus.send(new BufferListChanged(this, view, previous, next));
+		}
+	} // }}}
+
+	// {{{ -resolveCanonicalDirs(Collection<BufferEntry>) : void
+	/**
+	 * Resolves the canonical directories of the given buffers that are not
+	 * known yet in the background; {@link #canonicalDirsResolved()} moves
+	 * them when they are.
+	 */
+	private void resolveCanonicalDirs(Collection<BufferEntry> entries)
+	{
+		Set<String> unresolved = new HashSet<String>();
+		for (BufferEntry entry : entries)
+		{
+			String dir = entry.getPathDir();
+			if (CanonicalPaths.getCanonicalDir(dir) == null)
+			{
+				unresolved.add(dir);
+			}
+		}
+		if (!unresolved.isEmpty())
+		{
+			CanonicalPaths.resolve(unresolved, canonicalCallback);
+		}
+	} // }}}
+
+	// {{{ -canonicalDirsResolved() : void
+	private void canonicalDirsResolved()
+	{
+		List<BufferEntry> moved = new ArrayList<BufferEntry>();
+		for (BufferEntry entry : tracker.getEntries())
+		{
+			if (entry.updateRealDir())
+			{
+				moved.add(entry);
+			}
+		}
+		if (!tracker.isAttached() || reconcilePending || deferToBulkUpdate())
+		{
+			// the model is built with the new directories anyway
+			return;
+		}
+		if (moved.size() == 1)
+		{
+			moveBufferNode(moved.get(0));
+		}
+		else if (!moved.isEmpty())
+		{
+			updateModel();
+		}
+		// buffers opened twice are marked
+		tree.repaint();
+	} // }}}
+
+	// {{{ -getComparablePath(String) : String
+	private static String getComparablePath(String path)
+	{
+		VFS vfs = VFSManager.getVFSForPath(path);
+		if ((vfs.getCapabilities() & VFS.CASE_INSENSITIVE_CAP) != 0)
+		{
+			return path.toUpperCase();
+		}
+		return path;
+	} // }}}
+
+	// {{{ -getDirKey(BufferGroup, String) : String
+	/**
+	 * @return the key of a directory node of the given group in
+	 *         <code>distinctDirs</code>.
+	 */
+	private String getDirKey(BufferGroup group, String path)
+	{
+		if (group == rootGroup)
+		{
+			return getComparablePath(path);
+		}
+		return group.getKey() + ':' + getComparablePath(path);
+	} // }}}
+
+	// {{{ -createDirectoryNodes(BufferGroup, String) : BufferListTreeNode
+	private BufferListTreeNode createDirectoryNodes(BufferGroup group, String path)
+	{
+		VFS vfs = VFSManager.getVFSForPath(path);
+		String parent = vfs.getParentOfPath(path);
+		if (path.equals(parent))
+		{
+			return group.node;
+		}
+		String key = getDirKey(group, path);
+		BufferListTreeNode node = distinctDirs.get(key);
+		if (node == null)
+		{
+			node = new BufferListTreeNode(path, true);
+			distinctDirs.put(key, node);
+		}
+		if (!node.isConnected())
+		{
+			BufferListTreeNode parentNode;
+			if (displayMode == DISPLAY_MODE_FLAT_TREE)
+			{
+				parentNode = group.node;
+			}
+			else
+			{
+				parentNode = createDirectoryNodes(group, parent);
+			}
+			parentNode.add(node);
+			node.setConnected();
+		}
+		return node;
+	} // }}}
+
+	// {{{ -createGroups() : void
+	/**
+	 * Sets up the top level groups for a new model, reusing the group nodes
+	 * (and thus their expansion state) of the previous one.
+	 */
+	private void createGroups()
+	{
+		groups.clear();
+		rootGroup.bufferNodes.clear();
+		strategyGroups.clear();
+		if (GROUPING_EDITPANE.equals(grouping))
+		{
+			for (BufferSet bs : tracker.getBufferSets())
+			{
+				BufferGroup group = addGroup("editpane:" + groups.size());
+				group.source = bs;
+				updateGroupLabel(group, groups.size() - 1);
+			}
+		}
+		else if (strategy != null)
+		{
+			createStrategyGroups();
+		}
+		else
+		{
+			groups.add(rootGroup);
+		}
+	} // }}}
+
+	// {{{ -getStrategy(String) : GroupingStrategy
+	/**
+	 * @return the grouping strategy service of the given name, or null.
+	 */
+	private static GroupingStrategy getStrategy(String name)
+	{
+		if (GROUPING_NONE.equals(name) || GROUPING_EDITPANE.equals(name))
+		{
+			return null;
+		}
+		Object service = ServiceManager.getService(BufferListPlugin.GROUPING_SERVICE_TYPE, name);
+		if (service instanceof GroupingStrategy)
+		{
+			return (GroupingStrategy) service;
+		}
+		Log.log(Log.WARNING, BufferList.class, "Service " + name
+			+ " is not a valid bufferlist.GroupingStrategy service");
+		return null;
+	} // }}}
+
+	// {{{ -createStrategyGroups() : void
+	/**
+	 * Computes the group key of every buffer and creates a group for each
+	 * key, sorted by label; buffers without a group go to the last one.
+	 */
+	private void createStrategyGroups()
+	{
+		strategy.prepare(Arrays.asList(tracker.getBuffers()), regroupCallback);
+		HashMap<String, BufferGroup> byKey = new HashMap<String, BufferGroup>();
+		for (BufferEntry entry : tracker.getEntries())
+		{
+			entry.groupKey = strategy.getGroupKey(entry.getBuffer());
+			if (!byKey.containsKey(entry.groupKey))
+			{
+				BufferGroup group = new BufferGroup(grouping + ':' + entry.groupKey, null);
+				group.source = entry.groupKey;
+				updateGroupLabel(group, 0);
+				byKey.put(entry.groupKey, group);
+			}
+		}
+		List<BufferGroup> sorted = new ArrayList<BufferGroup>(byKey.values());
+		Collections.sort(sorted, new Comparator<BufferGroup>()
+		{
+			public int compare(BufferGroup group1, BufferGroup group2)
+			{
+				return compareGroups(group1, group2);
+			}
+		});
+		for (BufferGroup sortedGroup : sorted)
+		{
+			BufferGroup group = addGroup(sortedGroup.getKey());
+			group.source = sortedGroup.source;
+			group.setLabel(sortedGroup.getLabel());
+			strategyGroups.put((String) group.source, group);
+		}
+	} // }}}
+
+	// {{{ -compareGroups(BufferGroup, BufferGroup) : int
+	/**
+	 * Order of the groups of a strategy: by label, buffers without a group
+	 * last.
+	 */
+	private static int compareGroups(BufferGroup group1, BufferGroup group2)
+	{
+		boolean none1 = GroupingStrategy.NO_GROUP.equals(group1.source);
+		boolean none2 = GroupingStrategy.NO_GROUP.equals(group2.source);
+		if (none1 || none2)
+		{
+			return none1 == none2 ? 0 : none1 ? 1 : -1;
+		}
+		int cmp = group1.getLabel().compareToIgnoreCase(group2.getLabel());
+		return cmp != 0 ? cmp : ((String) group1.source).compareTo((String) group2.source);
+	} // }}}
+
+	// {{{ -insertGroup(String) : BufferGroup
+	/**
+	 * Adds the group of a strategy key to the current model.
+	 */
+	private BufferGroup insertGroup(String key)
+	{
+		BufferGroup group = new BufferGroup(grouping + ':' + key, null);
+		BufferListTreeNode node = new BufferListTreeNode(group, true);
+		group.node = node;
+		group.source = key;
+		updateGroupLabel(group, 0);
+		int index = 0;
+		while (index < groups.size() && compareGroups(groups.get(index), group) < 0)
+		{
+			index++;
+		}
+		groups.add(index, group);
+		strategyGroups.put(key, group);
+		distinctDirs.put(group.getKey(), node);
+		node.setConnected();
+		model.insertNodeInto(node, rootNode, index);
+		return group;
+	} // }}}
+
+	// {{{ -regroup(BufferEntry) : boolean
+	/**
+	 * Moves a buffer to another group if its group key has changed.
+	 *
+	 * @return true if the group key has changed.
+	 */
+	private boolean regroup(BufferEntry entry)
+	{
+		String key = strategy.getGroupKey(entry.getBuffer());
+		if (key.equals(entry.groupKey))
+		{
+			return false;
+		}
+		BufferGroup oldGroup = strategyGroups.get(entry.groupKey);
+		entry.groupKey = key;
+		if (oldGroup != null)
+		{
+			removeBufferNode(entry, oldGroup);
+			if (oldGroup.bufferNodes.isEmpty())
+			{
+				removeGroup(oldGroup);
+			}
+		}
+		BufferGroup group = strategyGroups.get(key);
+		boolean expand = group == null;
+		if (expand)
+		{
+			group = insertGroup(key);
+		}
+		addBufferNode(entry, group);
+		if (expand && filterModel != null)
+		{
+			// expanded when the hidden tree is shown again
+			group.node.setExpanded(true);
+		}
+		else if (expand)
+		{
+			tree.expandPath(group.node.getTreePath());
+		}
+		BufferListMetrics.incrementalUpdate();
+		return true;
+	} // }}}
+
+	// {{{ -regroupAll(boolean) : void
+	/**
+	 * Asks the strategy for the group keys of all buffers again, and moves
+	 * the buffers whose keys have changed.
+	 *
+	 * @param prepare
+	 *            true to let the strategy look the keys up again first.
+	 */
+	private void regroupAll(boolean prepare)
+	{
+		if (strategy == null || !tracker.isAttached() || reconcilePending || deferToBulkUpdate())
+		{
+			return;
+		}
+		if (prepare)
+		{
+			strategy.prepare(Arrays.asList(tracker.getBuffers()), regroupCallback);
+		}
+		for (BufferEntry entry : new ArrayList<BufferEntry>(tracker.getEntries()))
+		{
+			regroup(entry);
+		}
+	} // }}}
+
+	// {{{ -addGroup(String) : BufferGroup
+	/**
+	 * Appends a group to the top level of the tree, reusing the group node of
+	 * the previous model with the same key.
+	 */
+	private BufferGroup addGroup(String key)
+	{
+		BufferListTreeNode node = distinctDirs.get(key);
+		BufferGroup group;
+		if (node == null)
+		{
+			group = new BufferGroup(key, key);
+			node = new BufferListTreeNode(group, true);
+			group.node = node;
+			// new groups start expanded
+			node.setExpanded(true);
+			distinctDirs.put(key, node);
+		}
+		else
+		{
+			group = node.getGroup();
+			group.bufferNodes.clear();
+		}
+		rootNode.add(node);
+		node.setConnected();
+		groups.add(group);
+		return group;
+	} // }}}
+
+	// {{{ -removeGroup(BufferGroup) : void
+	/**
+	 * Removes an empty group from the current model.
+	 */
+	private void removeGroup(BufferGroup group)
+	{
+		if (group.node.getParent() != null)
+		{
+			model.removeNodeFromParent(group.node);
+		}
+		groups.remove(group);
+		strategyGroups.remove(group.source);
+		distinctDirs.remove(group.getKey());
+	} // }}}
+
+	// {{{ -getEntryGroup(BufferEntry) : BufferGroup
+	/**
+	 * Computes the group key of a buffer that has been added.
+	 *
+	 * @return the group of the buffer if the buffers are not grouped by edit
+	 *         pane; it is created if needed.
+	 */
+	private BufferGroup getEntryGroup(BufferEntry entry)
+	{
+		if (strategy == null)
+		{
+			return rootGroup;
+		}
+		strategy.prepare(Collections.singletonList(entry.getBuffer()), regroupCallback);
+		entry.groupKey = strategy.getGroupKey(entry.getBuffer());
+		BufferGroup group = strategyGroups.get(entry.groupKey);
+		return group == null ? insertGroup(entry.groupKey) : group;
+	} // }}}
+
+	// {{{ -updateGroupLabel(BufferGroup, int) : void
+	private void updateGroupLabel(BufferGroup group, int index)
+	{
+		if (group.source instanceof String)
+		{
+			group.setLabel(strategy.getGroupLabel((String) group.source));
+			return;
+		}
+		BufferSet.Scope scope = tracker.getScope();
+		if (scope == BufferSet.Scope.editpane)
+		{
+			EditPane editPane = tracker.getEditPane((BufferSet) group.source);
+			Buffer buffer = editPane == null ? null : editPane.getBuffer();
+			group.setLabel(jEdit.getProperty("bufferlist.group.editpane.label", new Object[] {
+				index + 1, buffer == null ? "" : buffer.getName() }));
+		}
+		else
+		{
+			group.setLabel(jEdit.getProperty("bufferlist.group." + scope + ".label"));
+		}
+	} // }}}
+
+	// {{{ -getGroup(BufferSet) : BufferGroup
+	/**
+	 * @return the group showing the given buffer set: the rootGroup if the
+	 *         buffers are not grouped, null if there is no such group.
+	 */
+	private BufferGroup getGroup(BufferSet bs)
+	{
+		for (BufferGroup group : groups)
+		{
+			if (group == rootGroup || group.source == bs)
+			{
+				return group;
+			}
+		}
+		return null;
+	} // }}}
+
+	// {{{ -getCurrentGroup() : BufferGroup
+	/**
+	 * @return the group of the current edit pane.
+	 */
+	private BufferGroup getCurrentGroup()
+	{
+		BufferGroup group;
+		if (strategy != null)
+		{
+			BufferEntry entry = tracker.getEntry(view.getBuffer());
+			group = entry == null ? null : strategyGroups.get(entry.groupKey);
+		}
+		else
+		{
+			group = getGroup(view.getEditPane().getBufferSet());
+		}
+		return group == null ? rootGroup : group;
+	} // }}}
+
+	// {{{ -isGrouped() : boolean
+	private boolean isGrouped()
+	{
+		return GROUPING_EDITPANE.equals(grouping);
+	} // }}}
+
+	// {{{ -removeObsoleteDirNodes(BufferListTreeNode) : void
+	/**
+	 * Removes all intermediate directory nodes that only have one directory
+	 * node and no buffer nodes as children, i.e. removes unnecessary levels
+	 * from the tree.
+	 */
+	private void removeObsoleteDirNodes(BufferListTreeNode node)
+	{
+		Vector<BufferListTreeNode> vec = new Vector<BufferListTreeNode>(node.getChildCount());
+		Enumeration<BufferListTreeNode> children = node.children();
+		while (children.hasMoreElements())
+		{
+			vec.add(children.nextElement());
+		}
+		node.removeAllChildren();
+		children = vec.elements();
+		while (children.hasMoreElements())
+		{
+			BufferListTreeNode child = children.nextElement();
+			removeObsoleteDirNodes(child);
+			boolean keep = child.getChildCount() > 1 || child.isBuffer() || child.isGroupNode();
+			if (!keep && child.getChildCount() == 1)
+			{
+				if (((BufferListTreeNode) child.getFirstChild()).getUserObject() instanceof Buffer)
+				{
+					keep = true;
+				}
+			}
+			if (keep)
+			{
+				node.add(child);
+			}
+			else
+			{
+				Enumeration<BufferListTreeNode> childChildren = child.children();
+				while (childChildren.hasMoreElements())
+				{
+					node.add(childChildren.nextElement());
+				}
+			}
+		}
+	} // }}}
+
+	// {{{ -setDirLabel(BufferListTreeNode, String, String) : void
+	/**
+	 * Shows a directory node relative to a prefix, the path of its parent
+	 * node or the base directory of its group.
+	 */
+	private void setDirLabel(BufferListTreeNode node, String path, String prefix)
+	{
+		String label = path;
+		if (path.startsWith(prefix))
+		{
+			label = path.substring(prefix.length());
+			node.setUserObject(label);
+		}
+		node.setLabel(shortenHome ? MiscUtilities.abbreviate(label) : label);
+	} // }}}
+
+	// {{{ -getBaseDirectory(BufferGroup) : String
+	/**
+	 * @return the directory the directories of a group are shown relative
+	 *         to, or null.
+	 */
+	private String getBaseDirectory(BufferGroup group)
+	{
+		if (strategy == null || !(group.source instanceof String))
+		{
+			return null;
+		}
+		return strategy.getBaseDirectory((String) group.source);
+	} // }}}
+
+	// {{{ -removeDirNodesCommonPrefixes(BufferListTreeNode, String) : void
+	/**
+	 * Removes the path prefix that is present in the parent node (for each
+	 * directory node) and sets the label the renderer shows.
+	 */
+	private void removeDirNodesCommonPrefixes(BufferListTreeNode node, String prefix)
+	{
+		Enumeration<BufferListTreeNode> children = node.children();
+		while (children.hasMoreElements())
+		{
+			BufferListTreeNode child = children.nextElement();
+			if (child.getUserObject() instanceof String)
+			{
+				String child_prefix = (String) child.getUserObject();
+				setDirLabel(child, child_prefix, prefix);
+				removeDirNodesCommonPrefixes(child, child_prefix);
+			}
+			else if (child.isGroupNode() && getBaseDirectory(child.getGroup()) != null)
+			{
+				// show directories relative to the base directory of the group
+				removeDirNodesCommonPrefixes(child, getBaseDirectory(child.getGroup()));
+			}
+			else
+			{
+				removeDirNodesCommonPrefixes(child, prefix);
+			}
+		}
+	} // }}}
+
+	// {{{ -saveExpansionState() : void
+	/**
+	 * Saves the expansion state of all directory nodes (within each
+	 * BufferListTreeNode).
+	 */
+	private void saveExpansionState()
+	{
+		for (BufferListTreeNode node : distinctDirs.values())
+		{
+			node.reset();
+		}
+		distinctDirs.clear();
+		distinctDirs.put(ROOT, rootNode);
+		Enumeration<TreePath> e = tree.getExpandedDescendants(new TreePath(tree.getModel()
+			.getRoot()));
+		if (e != null)
+		{
+			while (e.hasMoreElements())
+			{
+				TreePath expPath = e.nextElement();
+				if (expPath.getLastPathComponent() instanceof BufferListTreeNode)
+				{
+					BufferListTreeNode node = (BufferListTreeNode) expPath.getLastPathComponent();
+					node.setExpanded(true);
+					String key = getExpansionKey(expPath);
+					if (key != null)
+					{
+						distinctDirs.put(key, node);
+					}
+				}
+				else
+				{
+					System.err.println("test");
+				}
+			}
+		}
+	} // }}}
+
+	// {{{ -getExpansionKey(TreePath) : String
+	/**
+	 * @return the key in <code>distinctDirs</code> of the group or directory
+	 *         node at the end of the path; null for the root.
+	 */
+	private String getExpansionKey(TreePath path)
+	{
+		BufferListTreeNode node = (BufferListTreeNode) path.getLastPathComponent();
+		if (node.isGroupNode())
+		{
+			return node.getUserPath();
+		}
+		if (node == rootNode)
+		{
+			return null;
+		}
+		BufferGroup group = rootGroup;
+		if (path.getPathCount() > 1
+			&& ((BufferListTreeNode) path.getPathComponent(1)).isGroupNode())
+		{
+			group = ((BufferListTreeNode) path.getPathComponent(1)).getGroup();
+		}
+		return getDirKey(group, node.getUserPath());
+	} // }}}
+
+	// {{{ -swapProjections() : void
+	/**
+	 * Shows the tree of the new display mode: the kept model of that mode if
+	 * it is still up to date, otherwise one built for it, expanded like it was
+	 * when it was last shown.
+	 */
+	private void swapProjections()
+	{
+		EdtWatchdog.begin("swapProjections");
+		try
+		{
+			long start = System.nanoTime();
+			Projection shown = hiddenProjection;
+			Set<String> expansion = hiddenExpansion;
+			Projection hidden = new Projection(rootNode, rootGroup, groups, strategyGroups,
+				distinctDirs, model);
+			Enumeration<TreePath> e = tree.getExpandedDescendants(rootNode.getTreePath());
+			hidden.expanded = e == null ? new ArrayList<TreePath>() : Collections.list(e);
+			hiddenExpansion = new HashSet<String>();
+			for (TreePath path : hidden.expanded)
+			{
+				String key = getExpansionKey(path);
+				if (key != null)
+				{
+					hiddenExpansion.add(key);
+				}
+			}
+			// a tree restored from the last session is not kept
+			hiddenProjection = reconcilePending || model == null ? null : hidden;
+			if (shown != null)
+			{
+				installProjection(shown);
+				recountDirty();
+				tree.setModel(model);
+				for (TreePath path : shown.expanded)
+				{
+					tree.expandPath(path);
+				}
+				scheduleSnapshot();
+			}
+			else
+			{
+				installProjection(new Projection(rootObject));
+				createModel();
+				restoreExpansionState();
+				// directories expanded in this mode before, or in the other
+				// mode if this one has not been shown yet
+				for (String key : expansion == null ? hiddenExpansion : expansion)
+				{
+					BufferListTreeNode node = distinctDirs.get(key);
+					if (node != null && node.getParent() != null)
+					{
+						tree.expandPath(node.getTreePath());
+					}
+				}
+			}
+			BufferListMetrics.recordTime(BufferListMetrics.UPDATE_MODEL, start);
+		}
+		finally
+		{
+			EdtWatchdog.end();
+		}
+	} // }}}
+
+	// {{{ -recountDirty() : void
+	/**
+	 * Counts the unsaved buffers of the directories again after a hidden
+	 * projection has been shown; its counts were not updated while buffers
+	 * were modified or saved. O(n); only the ancestors of buffers whose
+	 * state has changed are updated.
+	 */
+	private void recountDirty()
+	{
+		List<BufferGroup> allGroups = new ArrayList<BufferGroup>(groups);
+		allGroups.add(rootGroup);
+		for (BufferGroup group : allGroups)
+		{
+			for (BufferListTreeNode node : group.bufferNodes.values())
+			{
+				node.updateDirty();
+			}
+		}
+	} // }}}
+
+	// {{{ -installProjection(Projection) : void
+	private void installProjection(Projection projection)
+	{
+		rootNode = projection.rootNode;
+		rootGroup = projection.rootGroup;
+		groups = projection.groups;
+		strategyGroups = projection.strategyGroups;
+		distinctDirs = projection.distinctDirs;
+		model = projection.model;
+	} // }}}
+
+	// {{{ -restoreExpansionState() : void
+	/**
+	 * Restores the expansion state of all directory nodes.
+	 */
+	private void restoreExpansionState()
+	{
+		long start = System.nanoTime();
+		for (BufferListTreeNode node : distinctDirs.values())
+		{
+			if (node.isExpanded())
+			{
+				tree.expandPath(node.getTreePath());
+			}
+		}
+		BufferListMetrics.recordTime(BufferListMetrics.RESTORE_EXPANSION, start);
+	} // }}}
+
+	// {{{ -getSnapshotFile() : File
+	private static File getSnapshotFile()
+	{
+		File home = EditPlugin.getPluginHome(BufferListPlugin.class);
+		return home == null ? null : new File(home, "tree-snapshot.txt");
+	} // }}}
+
+	// {{{ -saveSnapshot() : void
+	/**
+	 * Writes the shape of the current tree to the plugin home, for the first
+	 * BufferList of the next session.
+	 */
+	private void saveSnapshot()
+	{
+		if (!jEdit.getBooleanProperty("bufferlist.snapshot", true) || reconcilePending
+			|| filterModel != null)
+		{
+			return;
+		}
+		TreeSnapshot.capture(rootNode, tree, displayMode, grouping, sortMode,
+			String.valueOf(tracker.getScope()), shortenHome).write(getSnapshotFile());
 	} // }}}
 
-	// {{{ -createDirectoryNodes(String) : BufferListTreeNode
-	private BufferListTreeNode createDirectoryNodes(String path)
+	// {{{ -restoreSnapshot() : boolean
+	/**
+	 * Shows the tree saved at the end of the last session, if it was built
+	 * with the current settings. The snapshot is replaced by a real model as
+	 * soon as the pending events (e.g. of a session being loaded) have been
+	 * handled.
+	 *
+	 * @return true if the snapshot has been restored.
+	 */
+	private boolean restoreSnapshot()
 	{
-		VFS vfs = VFSManager.getVFSForPath(path);
-		String parent = vfs.getParentOfPath(path);
-		if (path.equals(parent))
+		if (snapshotChecked || !jEdit.getBooleanProperty("bufferlist.snapshot", true))
 		{
-			return rootNode;
+			return false;
 		}
-		String comparablePath = path;
-		if ((vfs.getCapabilities() & VFS.CASE_INSENSITIVE_CAP) != 0)
+		snapshotChecked = true;
+		TreeSnapshot snapshot = TreeSnapshot.read(getSnapshotFile());
+		if (snapshot == null
+			|| !snapshot.matches(displayMode, grouping, sortMode,
+				String.valueOf(tracker.getScope()), shortenHome))
+		{
+			return false;
+		}
+		List<BufferListTreeNode> expanded = snapshot.restore(rootNode);
+		if (SORT_MRU.equals(sortMode))
+		{
+			// the snapshot lists the buffers most recently used first
+			List<Buffer> buffers = new ArrayList<Buffer>();
+			Enumeration<BufferListTreeNode> e = rootNode.preorderEnumeration();
+			while (e.hasMoreElements())
+			{
+				BufferListTreeNode node = e.nextElement();
+				if (node.isBuffer())
+				{
+					buffers.add(node.getBuffer());
+				}
+			}
+			for (int i = buffers.size() - 1; i >= 0; i--)
+			{
+				recency.touch(buffers.get(i));
+			}
+		}
+		model = new DefaultTreeModel(rootNode);
+		tree.setModel(model);
+		for (BufferListTreeNode node : expanded)
+		{
+			tree.expandPath(node.getTreePath());
+		}
+		reconcilePending = true;
+		SwingUtilities.invokeLater(new Runnable()
+		{
+			public void run()
+			{
+				reconcile();
+			}
+		});
+		return true;
+	} // }}}
+
+	// {{{ -reconcile() : void
+	/**
+	 * Replaces a restored snapshot with a model built from the buffer sets;
+	 * the expansion state of the snapshot is kept.
+	 */
+	private void reconcile()
+	{
+		if (!reconcilePending || BulkUpdate.isActive())
+		{
+			// a bulk update calls again when it is finished
+			return;
+		}
+		reconcilePending = false;
+		updateModel();
+		updateBufferCounts();
+		expandCurrentPath();
+	} // }}}
+
+	// {{{ -deferToBulkUpdate() : boolean
+	/**
+	 * @return true if a bulk update is active; the tree is then rebuilt when
+	 *         the bulk update has finished.
+	 */
+	private boolean deferToBulkUpdate()
+	{
+		if (BulkUpdate.isActive())
+		{
+			resyncPending = true;
+			return true;
+		}
+		return false;
+	} // }}}
+
+	// {{{ bulkUpdateFinished() : void
+	/**
+	 * Called by {@link BulkUpdate} when the last bulk phase has ended.
+	 */
+	void bulkUpdateFinished()
+	{
+		if (reconcilePending)
+		{
+			resyncPending = false;
+			filters.rebuild(getCurrentBufferSet());
+			reconcile();
+			return;
+		}
+		if (!resyncPending)
+		{
+			return;
+		}
+		resyncPending = false;
+		// the filters missed the changes deferred to the bulk update
+		filters.rebuild(getCurrentBufferSet());
+		currentBuffer = view.getBuffer();
+		updateModel();
+		updateBufferCounts();
+		expandCurrentPath();
+	} // }}}
+
+	// {{{ decorationsChanged(Collection<Buffer>) : void
+	/**
+	 * Called by {@link ExternalChanges} and {@link BufferSearch} when the
+	 * badges or annotations of buffers have changed; repaints their nodes and
+	 * the directories above them.
+	 */
+	void decorationsChanged(Collection<Buffer> buffers)
+	{
+		if (reconcilePending || BulkUpdate.isActive())
+		{
+			// the tree is rebuilt anyway
+			return;
+		}
+		for (Buffer buffer : buffers)
+		{
+			for (BufferGroup group : groups)
+			{
+				BufferListTreeNode node = group.bufferNodes.get(buffer);
+				for (; node != null && node != rootNode; node = (BufferListTreeNode) node
+					.getParent())
+				{
+					model.nodeChanged(node);
+				}
+			}
+			BufferEntry entry = tracker.getEntry(buffer);
+			if (entry != null)
+			{
+				filterChanged(entry, false);
+				BufferListTreeNode node = filterNodes.get(buffer);
+				for (; node != null && filterModel != null; node = (BufferListTreeNode) node
+					.getParent())
+				{
+					filterModel.nodeChanged(node);
+				}
+			}
+		}
+	} // }}}
+
+	// {{{ -recreateModel() : void
+	/**
+	 * Updates the tree model (preserving the current expansion state).
+	 */
+	private void updateModel()
+	{
+		EdtWatchdog.begin("updateModel");
+		try
+		{
+			long start = System.nanoTime();
+			hiddenProjection = null;
+			if (filterModel != null)
+			{
+				rebuildHiddenModel();
+			}
+			else if (model == null || tree.getModel() != model
+				|| !Arrays.asList(model.getTreeModelListeners()).contains(snapshotTrigger))
+			{
+				// nothing shown yet, or the restored tree snapshot
+				saveExpansionState();
+				createModel();
+				restoreExpansionState();
+			}
+			else
+			{
+				mergeModel();
+			}
+			if (filterModel != null)
+			{
+				showFilterView();
+			}
+			BufferListMetrics.recordTime(BufferListMetrics.UPDATE_MODEL, start);
+		}
+		finally
+		{
+			EdtWatchdog.end();
+		}
+	} // }}}
+
+	// {{{ -rebuildHiddenModel() : void
+	/**
+	 * Rebuilds the tree hidden behind the filtered view. It is built into a
+	 * fresh projection, as the nodes of the old one are still connected; the
+	 * expansion state, kept in the nodes while the tree is hidden, is carried
+	 * over by key.
+	 */
+	private void rebuildHiddenModel()
+	{
+		List<String> expanded = new ArrayList<String>();
+		for (Map.Entry<String, BufferListTreeNode> e : distinctDirs.entrySet())
+		{
+			if (e.getValue().isExpanded())
+			{
+				expanded.add(e.getKey());
+			}
+		}
+		installProjection(new Projection(rootObject));
+		createModel();
+		for (String key : expanded)
+		{
+			BufferListTreeNode node = distinctDirs.get(key);
+			if (node != null)
+			{
+				node.setExpanded(true);
+			}
+		}
+	} // }}}
+
+	// {{{ -createModel() : void
+	/**
+	 * Sets a new tree model.
+	 */
+	private void createModel()
+	{
+		buildModel();
+		model = new DefaultTreeModel(rootNode);
+		model.addTreeModelListener(snapshotTrigger);
+		if (filterModel == null)
+		{
+			tree.setModel(model);
+		}
+		scheduleSnapshot();
+		BufferListMetrics.fullUpdate();
+	} // }}}
+
+	// {{{ -buildModel() : void
+	/**
+	 * Builds the tree below <code>rootNode</code> from the buffer sets.
+	 */
+	private void buildModel()
+	{
+		long start = System.nanoTime();
+		Collection<BufferEntry> entries = tracker.getEntries();
+		resolveCanonicalDirs(entries);
+		BufferEntry[] sorted = entries.toArray(new BufferEntry[entries.size()]);
+		final boolean flat = isFlatSort();
+		Arrays.sort(sorted, new Comparator<BufferEntry>()
+		{
+			public int compare(BufferEntry entry1, BufferEntry entry2)
+			{
+				if (entry1 == entry2)
+				{
+					return 0;
+				}
+				else
+				{
+					if (flat)
+					{
+						int cmp = compareFlat(entry1.getBuffer(), entry2.getBuffer());
+						if (cmp != 0)
+						{
+							return cmp;
+						}
+					}
+					int cmpDir = compareDirs(entry1.getDir(), entry2.getDir());
+					if (cmpDir == 0)
+					{
+						return StandardUtilities.compareStrings(entry1.getName(), entry2
+							.getName(), sortIgnoreCase);
+					}
+					else
+					{
+						return cmpDir;
+					}
+				}
+			}
+		});
+		for (BufferListTreeNode node : distinctDirs.values())
+		{
+			node.removeAllChildren();
+		}
+		createGroups();
+		if (strategy != null)
+		{
+			for (BufferEntry entry : sorted)
+			{
+				addToModel(strategyGroups.get(entry.groupKey), entry);
+			}
+		}
+		else
+		{
+			// buffers shared by several groups are sorted only once
+			for (BufferGroup group : groups)
+			{
+				for (BufferEntry entry : sorted)
+				{
+					if (group.source == null || tracker.contains((BufferSet) group.source, entry))
+					{
+						addToModel(group, entry);
+					}
+				}
+			}
+		}
+		removeObsoleteDirNodes(rootNode); // NOTE: when ommited, the tree
+		// contains all intermediate levels
+		// i.e. gets its "full depth"
+		removeDirNodesCommonPrefixes(rootNode, "");
+		BufferListMetrics.recordTime(BufferListMetrics.CREATE_MODEL, start);
+	} // }}}
+
+	// {{{ -mergeModel() : void
+	/**
+	 * Builds the tree from scratch in a new projection and applies the
+	 * difference to the current model as insertions, removals and changes of
+	 * nodes. The JTree thus keeps the selection, expansion, scroll position
+	 * and layout cache of the nodes that stay; only the changed parts are laid
+	 * out again.
+	 */
+	private void mergeModel()
+	{
+		BufferListTreeNode liveRoot = rootNode;
+		DefaultTreeModel liveModel = model;
+		installProjection(new Projection(rootObject));
+		buildModel();
+		BufferListTreeNode freshRoot = rootNode;
+		rootNode = liveRoot;
+		model = liveModel;
+
+		IdentityHashMap<BufferListTreeNode, BufferListTreeNode> merged = new IdentityHashMap<BufferListTreeNode, BufferListTreeNode>();
+		List<BufferListTreeNode> inserted = new ArrayList<BufferListTreeNode>();
+		merged.put(freshRoot, liveRoot);
+		mergeChildren(liveRoot, freshRoot, merged, inserted);
+
+		// the groups and directories of the new projection refer to the nodes
+		// now in the tree
+		List<BufferGroup> allGroups = new ArrayList<BufferGroup>(groups);
+		allGroups.add(rootGroup);
+		for (BufferGroup group : allGroups)
+		{
+			group.node = getMerged(merged, group.node);
+			for (Map.Entry<Buffer, BufferListTreeNode> e : group.bufferNodes.entrySet())
+			{
+				e.setValue(getMerged(merged, e.getValue()));
+			}
+		}
+		for (Map.Entry<String, BufferListTreeNode> e : distinctDirs.entrySet())
+		{
+			e.setValue(getMerged(merged, e.getValue()));
+		}
+		// expand the new subtrees as restoreExpansionState() would
+		for (BufferListTreeNode node : inserted)
+		{
+			Enumeration<BufferListTreeNode> e = node.preorderEnumeration();
+			while (e.hasMoreElements())
+			{
+				BufferListTreeNode child = e.nextElement();
+				if (!child.isBuffer() && child.isExpanded())
+				{
+					tree.expandPath(child.getTreePath());
+				}
+			}
+		}
+		BufferListMetrics.fullUpdate();
+	} // }}}
+
+	// {{{ -mergeChildren(BufferListTreeNode, BufferListTreeNode, IdentityHashMap<BufferListTreeNode, BufferListTreeNode>, List<BufferListTreeNode>) : void
+	/**
+	 * Makes the children of a node in the tree match those of its counterpart
+	 * in a newly built tree: children that are gone are removed, new ones
+	 * are inserted (with their subtrees) and the others are moved into place
+	 * and merged recursively. Nodes are matched by buffer, directory path or
+	 * group key.
+	 *
+	 * @param merged
+	 *            receives each new node that has been merged into a node of
+	 *            the tree
+	 * @param inserted
+	 *            receives the new nodes inserted into the tree
+	 */
+	private void mergeChildren(BufferListTreeNode live, BufferListTreeNode fresh,
+		IdentityHashMap<BufferListTreeNode, BufferListTreeNode> merged,
+		List<BufferListTreeNode> inserted)
+	{
+		BufferListTreeNode[] freshChildren = new BufferListTreeNode[fresh.getChildCount()];
+		HashMap<Object, BufferListTreeNode> wanted = new HashMap<Object, BufferListTreeNode>();
+		for (int i = 0; i < freshChildren.length; i++)
+		{
+			freshChildren[i] = (BufferListTreeNode) fresh.getChildAt(i);
+			wanted.put(getMergeKey(freshChildren[i]), freshChildren[i]);
+		}
+		HashMap<Object, BufferListTreeNode> present = new HashMap<Object, BufferListTreeNode>();
+		for (int i = live.getChildCount() - 1; i >= 0; i--)
+		{
+			BufferListTreeNode child = (BufferListTreeNode) live.getChildAt(i);
+			Object key = getMergeKey(child);
+			if (wanted.containsKey(key))
+			{
+				present.put(key, child);
+			}
+			else
+			{
+				model.removeNodeFromParent(child);
+			}
+		}
+		for (int i = 0; i < freshChildren.length; i++)
+		{
+			BufferListTreeNode freshChild = freshChildren[i];
+			BufferListTreeNode liveChild = present.get(getMergeKey(freshChild));
+			if (liveChild == null)
+			{
+				model.insertNodeInto(freshChild, live, i);
+				inserted.add(freshChild);
+				continue;
+			}
+			if (live.getChildAt(i) != liveChild)
+			{
+				// out of order, e.g. after the sort order has changed
+				TreePath path = liveChild.getTreePath();
+				boolean expanded = tree.isExpanded(path);
+				model.removeNodeFromParent(liveChild);
+				model.insertNodeInto(liveChild, live, i);
+				if (expanded)
+				{
+					tree.expandPath(path);
+				}
+			}
+			merged.put(freshChild, liveChild);
+			if (liveChild.takeOver(freshChild))
+			{
+				model.nodeChanged(liveChild);
+			}
+			if (liveChild.updateDirty())
+			{
+				// e.g. saved during a bulk update
+				TreeUpdates.dirCountsChanged(model, live);
+			}
+			mergeChildren(liveChild, freshChild, merged, inserted);
+		}
+	} // }}}
+
+	// {{{ -getMergeKey(BufferListTreeNode) : Object
+	private static Object getMergeKey(BufferListTreeNode node)
+	{
+		if (node.isBuffer())
+		{
+			return node.getBuffer();
+		}
+		return (node.isGroupNode() ? "group:" : "dir:") + node.getUserPath();
+	} // }}}
+
+	// {{{ -getMerged(IdentityHashMap<BufferListTreeNode, BufferListTreeNode>, BufferListTreeNode) : BufferListTreeNode
+	private static BufferListTreeNode getMerged(
+		IdentityHashMap<BufferListTreeNode, BufferListTreeNode> merged, BufferListTreeNode node)
+	{
+		BufferListTreeNode live = merged.get(node);
+		return live == null ? node : live;
+	} // }}}
+
+	// {{{ -addToModel(BufferGroup, BufferEntry) : void
+	/**
+	 * Adds a buffer node to a model that is being built.
+	 */
+	private void addToModel(BufferGroup group, BufferEntry entry)
+	{
+		BufferListTreeNode dirNode = isFlatSort() ? group.node : createDirectoryNodes(group, entry
+			.getDir());
+		BufferListTreeNode node = new BufferListTreeNode(entry.getBuffer(), false);
+		dirNode.add(node);
+		group.bufferNodes.put(entry.getBuffer(), node);
+	} // }}}
+
+	// {{{ -getNode(Buffer) : BufferListTreeNode
+	/**
+	 * @return the tree node for the jEdit buffer in the group of the current
+	 *         edit pane, or null if the buffer cannot be found in the current
+	 *         tree model.
+	 */
+	private BufferListTreeNode getNode(Buffer buffer)
+	{
+		return getCurrentGroup().bufferNodes.get(buffer);
+	} // }}}
+
+	// {{{ -compareDirs(String, String) : int
+	private int compareDirs(String dir1, String dir2)
+	{
+		if (MiscUtilities.pathsEqual(dir1, dir2))
+		{
+			return 0;
+		}
+		return StandardUtilities.compareStrings(dir1, dir2, sortIgnoreCase);
+	} // }}}
+
+	// {{{ -addBufferNode(BufferEntry, BufferGroup) : void
+	/**
+	 * Inserts a node for a buffer that entered a group. Falls back to
+	 * rebuilding the model if the hierarchical tree would change its shape.
+	 */
+	private void addBufferNode(BufferEntry entry, BufferGroup group)
+	{
+		Buffer buffer = entry.getBuffer();
+		if (group.bufferNodes.containsKey(buffer))
+		{
+			return;
+		}
+		if (isFlatSort())
 		{
-			comparablePath = path.toUpperCase();
+			BufferListTreeNode node = new BufferListTreeNode(buffer, false);
+			model.insertNodeInto(node, group.node, getFlatInsertIndex(group.node, buffer));
+			group.bufferNodes.put(buffer, node);
+			BufferListMetrics.incrementalUpdate();
+			return;
+		}
+		String dir = entry.getDir();
+		String key = getDirKey(group, dir);
+		BufferListTreeNode dirNode = distinctDirs.get(key);
+		if (dirNode == null || dirNode.getParent() == null)
+		{
+			if (displayMode != DISPLAY_MODE_FLAT_TREE || dir.equals(VFSManager.getVFSForPath(dir)
+				.getParentOfPath(dir)))
+			{
+				updateModel();
+				return;
+			}
+			dirNode = new BufferListTreeNode(dir, true);
+			dirNode.setConnected();
+			String base = getBaseDirectory(group);
+			setDirLabel(dirNode, dir, base == null ? "" : base);
+			distinctDirs.put(key, dirNode);
+			TreeUpdates.insertDirNode(model, group.node, dirNode, dirOrder);
 		}
-		BufferListTreeNode node = distinctDirs.get(comparablePath);
+		BufferListTreeNode node = new BufferListTreeNode(buffer, false);
+		TreeUpdates.insertBufferNode(model, dirNode, node, entry.getName(), sortIgnoreCase);
+		group.bufferNodes.put(buffer, node);
+		BufferListMetrics.incrementalUpdate();
+	} // }}}
+
+	// {{{ -removeBufferNode(BufferEntry, BufferGroup) : void
+	/**
+	 * Removes the node of a buffer that left a group. Falls back to
+	 * rebuilding the model if the hierarchical tree would change its shape.
+	 */
+	private void removeBufferNode(BufferEntry entry, BufferGroup group)
+	{
+		BufferListTreeNode node = group.bufferNodes.remove(entry.getBuffer());
 		if (node == null)
 		{
-			node = new BufferListTreeNode(path, true);
-			distinctDirs.put(comparablePath, node);
+			return;
 		}
-		if (!node.isConnected())
+		if (displayMode == DISPLAY_MODE_FLAT_TREE)
 		{
-			BufferListTreeNode parentNode;
-			if (displayMode == DISPLAY_MODE_FLAT_TREE)
+			BufferListTreeNode dirNode = TreeUpdates.removeBufferNode(model, group.node, node);
+			if (dirNode != null)
 			{
-				parentNode = rootNode;
+				distinctDirs.remove(getDirKey(group, dirNode.getUserPath()));
 			}
-			else
+		}
+		else
+		{
+			BufferListTreeNode parent = (BufferListTreeNode) node.getParent();
+			model.removeNodeFromParent(node);
+			if (parent != group.node
+				&& (parent.getChildCount() == 0 || parent.getChildCount() == 1
+					&& ((BufferListTreeNode) parent.getFirstChild()).isDirNode()))
 			{
-				parentNode = createDirectoryNodes(parent);
+				// the directory node would be removed by removeObsoleteDirNodes()
+				updateModel();
+				return;
 			}
-			parentNode.add(node);
-			node.setConnected();
 		}
-		return node;
+		BufferListMetrics.incrementalUpdate();
 	} // }}}
 
-	// {{{ -removeObsoleteDirNodes(BufferListTreeNode) : void
+	// {{{ -moveBufferNode(BufferEntry) : void
 	/**
-	 * Removes all intermediate directory nodes that only have one directory
-	 * node and no buffer nodes as children, i.e. removes unnecessary levels
-	 * from the tree.
+	 * Moves the nodes of a buffer whose path has changed.
 	 */
-	private void removeObsoleteDirNodes(BufferListTreeNode node)
+	private void moveBufferNode(BufferEntry entry)
 	{
-		Vector<BufferListTreeNode> vec = new Vector<BufferListTreeNode>(node.getChildCount());
-		Enumeration<BufferListTreeNode> children = node.children();
-		while (children.hasMoreElements())
+		if (strategy != null && regroup(entry))
 		{
-			vec.add(children.nextElement());
+			// the buffer has moved to another group
+			return;
 		}
-		node.removeAllChildren();
-		children = vec.elements();
-		while (children.hasMoreElements())
+		for (BufferGroup group : new ArrayList<BufferGroup>(groups))
 		{
-			BufferListTreeNode child = children.nextElement();
-			removeObsoleteDirNodes(child);
-			boolean keep = child.getChildCount() > 1 || child.getUserObject() instanceof Buffer;
-			if (!keep && child.getChildCount() == 1)
-			{
-				if (((BufferListTreeNode) child.getFirstChild()).getUserObject() instanceof Buffer)
-				{
-					keep = true;
-				}
-			}
-			if (keep)
+			if (group.bufferNodes.containsKey(entry.getBuffer()))
 			{
-				node.add(child);
+				removeBufferNode(entry, group);
+				addBufferNode(entry, group);
 			}
-			else
+		}
+	} // }}}
+
+	// {{{ -updateNode(Buffer) : void
+	private void updateNode(Buffer buffer)
+	{
+		if (buffer == null)
+		{
+			return;
+		}
+		for (BufferGroup group : groups)
+		{
+			BufferListTreeNode node = group.bufferNodes.get(buffer);
+			if (node != null)
 			{
-				Enumeration<BufferListTreeNode> childChildren = child.children();
-				while (childChildren.hasMoreElements())
-				{
-					node.add(childChildren.nextElement());
-				}
+				TreeUpdates.bufferChanged(model, node, buffer.isDirty());
+				BufferListMetrics.incrementalUpdate();
 			}
 		}
 	} // }}}
 
-	// {{{ -removeDirNodesCommonPrefixes(BufferListTreeNode, String) : void
+	// {{{ -currentBufferChanged() : void
 	/**
-	 * Removes the path prefix that is present in the parent node (for each
-	 * directory node)
+	 * Called after the current buffer has changed; makes sure the current
+	 * buffer is visible.
 	 */
-	private void removeDirNodesCommonPrefixes(BufferListTreeNode node, String prefix)
+	private void currentBufferChanged()
 	{
-		Enumeration<BufferListTreeNode> children = node.children();
-		while (children.hasMoreElements())
+		// The renderer draws the current buffer bold; only the rows of the
+		// previous and the new current buffer change their size.
+		updateNode(currentBuffer);
+		currentBuffer = view.getBuffer();
+		updateNode(currentBuffer);
+		expandCurrentPath();
+	} // }}}
+
+	// {{{ -bufferActivated(Buffer) : boolean
+	/**
+	 * Moves a buffer that has been activated to the front of the recency
+	 * index, unless it has been activated by the running quick switch.
+	 *
+	 * @return true if the buffer has been moved.
+	 */
+	private boolean bufferActivated(Buffer buffer)
+	{
+		if (buffer == null)
 		{
-			BufferListTreeNode child = children.nextElement();
-			if (child.getUserObject() instanceof String)
-			{
-				String child_prefix = (String) child.getUserObject();
-				if (child_prefix.startsWith(prefix))
-				{
-					child.setUserObject(child_prefix.substring(prefix.length()));
-				}
-				removeDirNodesCommonPrefixes(child, child_prefix);
-			}
-			else
+			return false;
+		}
+		if (switchTarget != null)
+		{
+			if (buffer == switchTarget)
 			{
-				removeDirNodesCommonPrefixes(child, prefix);
+				return false;
 			}
+			// another buffer has been activated: the quick switch is over
+			switchTimer.stop();
+			switchTarget = null;
 		}
+		recency.touch(buffer);
+		return true;
 	} // }}}
 
-	// {{{ -saveExpansionState() : void
+	// {{{ -finishQuickSwitch() : void
 	/**
-	 * Saves the expansion state of all directory nodes (within each
-	 * BufferListTreeNode).
+	 * Moves the buffer the quick switch has stopped at to the front.
 	 */
-	private void saveExpansionState()
+	private void finishQuickSwitch()
 	{
-		for (BufferListTreeNode node : distinctDirs.values())
+		if (switchTimer != null)
 		{
-			node.reset();
+			switchTimer.stop();
 		}
-		distinctDirs.clear();
-		distinctDirs.put(ROOT, rootNode);
-		Enumeration<TreePath> e = tree.getExpandedDescendants(new TreePath(tree.getModel()
-			.getRoot()));
-		if (e != null)
+		Buffer buffer = switchTarget;
+		switchTarget = null;
+		if (buffer == null || buffer != view.getBuffer())
 		{
-			while (e.hasMoreElements())
-			{
-				TreePath expPath = e.nextElement();
-				if (expPath.getLastPathComponent() instanceof BufferListTreeNode)
-				{
-					BufferListTreeNode node = (BufferListTreeNode) expPath.getLastPathComponent();
-					node.setExpanded(true);
-					if (node != rootNode)
-					{
-						distinctDirs.put(node.getUserPath(), node);
-					}
-				}
-				else
-				{
-					System.err.println("test");
-				}
-			}
+			return;
+		}
+		recency.touch(buffer);
+		if (SORT_MRU.equals(sortMode) && !deferToBulkUpdate() && !reconcilePending)
+		{
+			moveToFront(buffer);
 		}
 	} // }}}
 
-	// {{{ -restoreExpansionState() : void
+	// {{{ -moveToFront(Buffer) : void
 	/**
-	 * Restores the expansion state of all directory nodes.
+	 * Moves the nodes of a buffer to the top of their groups, in SORT_MRU.
 	 */
-	private void restoreExpansionState()
+	private void moveToFront(Buffer buffer)
 	{
-		for (BufferListTreeNode node : distinctDirs.values())
+		for (BufferGroup group : groups)
 		{
-			if (node.isExpanded())
+			BufferListTreeNode node = group.bufferNodes.get(buffer);
+			if (node != null && node.getParent() == group.node && group.node.getIndex(node) != 0)
 			{
-				tree.expandPath(new TreePath(node.getPath()));
+				model.removeNodeFromParent(node);
+				model.insertNodeInto(node, group.node, 0);
+				BufferListMetrics.incrementalUpdate();
 			}
 		}
 	} // }}}
 
-	// {{{ -recreateModel() : void
+	// {{{ -isFlatSort() : boolean
 	/**
-	 * Updates the tree model (preserving the current expansion state).
+	 * @return true if the buffers are listed without directories.
 	 */
-	private void updateModel()
+	private boolean isFlatSort()
 	{
-		saveExpansionState();
-		createModel();
-		restoreExpansionState();
+		return SORT_MRU.equals(sortMode) || SORT_MEMORY.equals(sortMode);
 	} // }}}
 
-	//{{{ -getBuffers(): Buffer[]
-	/**
-	 * Returns an array of Buffers opened from view. 
-	 */
-	private Buffer[] getBuffers() {
-		BufferSetManager mgr = jEdit.getBufferSetManager();
-		HashSet<Buffer> retval = new HashSet<Buffer>();
-		for (EditPane ep: view.getEditPanes()) {
-			BufferSet bs = ep.getBufferSet();
-			for (Buffer b: bs.getAllBuffers()) 
-				retval.add(b);
-			if (mgr.getScope() != BufferSet.Scope.editpane)
-				break;	
-		}
-		Buffer[] bufs = new Buffer[retval.size()];
-		retval.toArray(bufs);
-		return bufs;
-	}
-	
-	// {{{ -createModel() : void
+	// {{{ -compareFlat(Buffer, Buffer) : int
 	/**
-	 * Sets a new tree model.
+	 * @return the order of two buffers in SORT_MRU or SORT_MEMORY, 0 if they
+	 *         are equally recent or big.
 	 */
-	private void createModel()
+	private int compareFlat(Buffer buffer1, Buffer buffer2)
 	{
-		
-		Buffer[] buffers = getBuffers();
-			
-		Arrays.sort(buffers, new Comparator<Buffer>()
-		{
-			public int compare(Buffer buf1, Buffer buf2)
-			{
-				if (buf1 == buf2)
-				{
-					return 0;
-				}
-				else
-				{
-					String dir1 = getDir(buf1);
-					String dir2 = getDir(buf2);
-					int cmpDir = StandardUtilities.compareStrings(dir1, dir2, sortIgnoreCase);
-					if (MiscUtilities.pathsEqual(dir1, dir2)) cmpDir = 0;
-					if (cmpDir == 0)
-					{
-						return StandardUtilities.compareStrings(buf1.getName(), buf2.getName(),
-							sortIgnoreCase);
-					}
-					else
-					{
-						return cmpDir;
-					}
-				}
-			}
-		});
-		for (BufferListTreeNode node : distinctDirs.values())
+		long value1, value2;
+		if (SORT_MEMORY.equals(sortMode))
 		{
-			node.removeAllChildren();
+			value1 = BufferFootprint.getBytes(buffer1);
+			value2 = BufferFootprint.getBytes(buffer2);
 		}
-		for (int i = 0; i < buffers.length; ++i)
+		else
 		{
-			Buffer buffer = buffers[i];
-			BufferListTreeNode dirNode = createDirectoryNodes(buffer.getVFS().getParentOfPath(
-				buffer.getPath()));
-			dirNode.add(new BufferListTreeNode(buffer, false));
+			value1 = recency.getStamp(buffer1);
+			value2 = recency.getStamp(buffer2);
 		}
-		removeObsoleteDirNodes(rootNode); // NOTE: when ommited, the tree
-		// contains all intermediate levels
-		// i.e. gets its "full depth"
-		removeDirNodesCommonPrefixes(rootNode, "");
-		model = new DefaultTreeModel(rootNode);
-		tree.setModel(model);
+		return value1 == value2 ? 0 : value1 > value2 ? -1 : 1;
 	} // }}}
 
-	// {{{ -getNode(Buffer) : BufferListTreeNode
+	// {{{ -getFlatInsertIndex(BufferListTreeNode, Buffer) : int
 	/**
-	 * @return the tree node for the jEdit buffer, or null if the buffer cannot
-	 *         be found in the current tree model.
+	 * @return the index at which a buffer is inserted into a group in
+	 *         SORT_MRU or SORT_MEMORY; found by binary search, as the buffers
+	 *         of the group are sorted. Buffers that have never been activated
+	 *         come last in SORT_MRU.
 	 */
-	private BufferListTreeNode getNode(Buffer buffer)
+	private int getFlatInsertIndex(BufferListTreeNode groupNode, Buffer buffer)
 	{
-		Enumeration<BufferListTreeNode> e = rootNode.depthFirstEnumeration();
-		while (e.hasMoreElements())
+		int low = 0;
+		int high = groupNode.getChildCount();
+		while (low < high)
 		{
-			BufferListTreeNode node = e.nextElement();
-			if (node.getUserObject() == buffer)
+			int mid = (low + high) >>> 1;
+			Buffer other = ((BufferListTreeNode) groupNode.getChildAt(mid)).getBuffer();
+			if (compareFlat(other, buffer) <= 0)
+			{
+				low = mid + 1;
+			}
+			else
 			{
-				return node;
+				high = mid;
 			}
 		}
-		return null;
+		return low;
 	} // }}}
 
-	// {{{ -updateNode(Buffer) : void
-	private void updateNode(Buffer buffer)
+	// {{{ -footprintChanged(Buffer) : void
+	/**
+	 * Called after the footprint of a buffer has been invalidated; moves its
+	 * nodes to their new places in SORT_MEMORY.
+	 */
+	private void footprintChanged(Buffer buffer)
 	{
-		BufferListTreeNode node = getNode(buffer);
-		if (node == null)
+		if (!SORT_MEMORY.equals(sortMode) || reconcilePending)
 		{
 			return;
 		}
-		model.nodeChanged(node);
+		for (BufferGroup group : groups)
+		{
+			BufferListTreeNode node = group.bufferNodes.get(buffer);
+			if (node != null && node.getParent() == group.node)
+			{
+				model.removeNodeFromParent(node);
+				model.insertNodeInto(node, group.node, getFlatInsertIndex(group.node, buffer));
+				BufferListMetrics.incrementalUpdate();
+			}
+		}
 	} // }}}
 
-	// {{{ -currentBufferChanged() : void
+	// {{{ -getFootprintToolTip(BufferListTreeNode, String) : String
 	/**
-	 * Called after the current buffer has changed; notifies the cell renderer
-	 * and makes sure the current buffer is visible.
+	 * @return the tool tip of a node with the footprint of its buffer, or the
+	 *         total footprint of the buffers below it.
 	 */
-	private void currentBufferChanged()
+	private String getFootprintToolTip(BufferListTreeNode node, String text)
 	{
-		expandCurrentPath();
-		// Set new cell renderer to draw to current buffer bold
-		tree.setCellRenderer(new BufferListRenderer(view));
+		if (node.isBuffer())
+		{
+			BufferFootprint footprint = BufferFootprint.get(node.getBuffer());
+			return jEdit.getProperty("bufferlist.footprint.buffer.tooltip", new Object[] { text,
+				BufferFootprint.format(footprint.getBytes()),
+				Integer.valueOf(footprint.getLength()),
+				Integer.valueOf(footprint.getLineCount()) });
+		}
+		long total = 0;
+		int count = 0;
+		Enumeration<BufferListTreeNode> e = node.depthFirstEnumeration();
+		while (e.hasMoreElements())
+		{
+			BufferListTreeNode child = e.nextElement();
+			if (child.isBuffer())
+			{
+				total += BufferFootprint.getBytes(child.getBuffer());
+				count++;
+			}
+		}
+		return jEdit.getProperty("bufferlist.footprint.total.tooltip", new Object[] { text,
+			BufferFootprint.format(total), Integer.valueOf(count) });
 	} // }}}
 
 	// {{{ -focusEditPane() : void
@@ -844,12 +3201,11 @@ public class BufferList extends JPanel implements EBComponent
 				return;
 			}
 			BufferListTreeNode node = (BufferListTreeNode) path.getLastPathComponent();
-			Object obj = node.getUserObject();
-			if (obj instanceof String)
+			if (!node.isBuffer())
 			{
 				return;
 			}
-			Buffer buffer = (Buffer) obj;
+			Buffer buffer = node.getBuffer();
 			if (e.getClickCount() >= 2
 				&& jEdit.getBooleanProperty("bufferlist.closeFilesOnDoubleClick", true))
 			{
@@ -914,7 +3270,7 @@ public class BufferList extends JPanel implements EBComponent
 					{
 						BufferListTreeNode node = (BufferListTreeNode) paths[i].getLastPathComponent();
 						System.out.println(i+": node="+node);
-						if (node.isDirNode())
+						if (node.isDirNode() || node.isGroupNode())
 						{
 							// user selected directory node; select all entries
 							// below it:
@@ -922,7 +3278,7 @@ public class BufferList extends JPanel implements EBComponent
 							while (children.hasMoreElements())
 							{
 								BufferListTreeNode childNode = children.nextElement();
-								tree.addSelectionPath(new TreePath(childNode.getPath()));
+								tree.addSelectionPath(childNode.getTreePath());
 							}
 						}
 					}
@@ -938,6 +3294,143 @@ public class BufferList extends JPanel implements EBComponent
 		} // }}}
 	} // }}}
 
+	// {{{ -class Projection
+	/**
+	 * The tree of one display mode: its nodes, groups and model.
+	 */
+	private static class Projection
+	{
+		final BufferListTreeNode rootNode;
+
+		final BufferGroup rootGroup;
+
+		final List<BufferGroup> groups;
+
+		final HashMap<String, BufferGroup> strategyGroups;
+
+		final HashMap<String, BufferListTreeNode> distinctDirs;
+
+		final DefaultTreeModel model;
+
+		/**
+		 * The expanded paths when the projection was hidden.
+		 */
+		List<TreePath> expanded;
+
+		/**
+		 * Creates an empty projection.
+		 */
+		Projection(Object rootObject)
+		{
+			rootNode = new BufferListTreeNode(rootObject);
+			rootGroup = new BufferGroup(ROOT, ROOT);
+			rootGroup.node = rootNode;
+			groups = new ArrayList<BufferGroup>();
+			strategyGroups = new HashMap<String, BufferGroup>();
+			distinctDirs = new HashMap<String, BufferListTreeNode>();
+			distinctDirs.put(ROOT, rootNode);
+			model = null;
+		}
+
+		Projection(BufferListTreeNode rootNode, BufferGroup rootGroup, List<BufferGroup> groups,
+			HashMap<String, BufferGroup> strategyGroups,
+			HashMap<String, BufferListTreeNode> distinctDirs, DefaultTreeModel model)
+		{
+			this.rootNode = rootNode;
+			this.rootGroup = rootGroup;
+			this.groups = groups;
+			this.strategyGroups = strategyGroups;
+			this.distinctDirs = distinctDirs;
+			this.model = model;
+		}
+	} // }}}
+
+	// {{{ -class TrackerHandler
+	/**
+	 * Applies changes of the buffer sets to the tree.
+	 */
+	private class TrackerHandler implements BufferSetTracker.Listener
+	{
+		public void bufferAdded(BufferEntry entry, BufferSet bufferSet)
+		{
+			if (reconcilePending)
+			{
+				// the model is built from scratch anyway
+				updateBufferCounts();
+				return;
+			}
+			if (deferToBulkUpdate())
+			{
+				return;
+			}
+			resolveCanonicalDirs(Collections.singletonList(entry));
+			if (isGrouped())
+			{
+				BufferGroup group = getGroup(bufferSet);
+				if (group == null)
+				{
+					updateModel();
+				}
+				else
+				{
+					addBufferNode(entry, group);
+				}
+			}
+			else if (entry.getRefCount() == 1)
+			{
+				addBufferNode(entry, getEntryGroup(entry));
+			}
+			filterChanged(entry, false);
+			updateBufferCounts();
+		}
+
+		public void bufferRemoved(BufferEntry entry, BufferSet bufferSet)
+		{
+			if (reconcilePending)
+			{
+				updateBufferCounts();
+				return;
+			}
+			if (deferToBulkUpdate())
+			{
+				return;
+			}
+			if (isGrouped())
+			{
+				BufferGroup group = getGroup(bufferSet);
+				if (group != null)
+				{
+					removeBufferNode(entry, group);
+				}
+			}
+			else if (entry.getRefCount() == 0)
+			{
+				for (BufferGroup group : groups)
+				{
+					if (group.bufferNodes.containsKey(entry.getBuffer()))
+					{
+						removeBufferNode(entry, group);
+						if (group != rootGroup && group.bufferNodes.isEmpty())
+						{
+							removeGroup(group);
+						}
+						break;
+					}
+				}
+			}
+			if (entry.getRefCount() == 0)
+			{
+				filters.removed(entry);
+				removeFilterNode(entry.getBuffer());
+			}
+			else
+			{
+				filterChanged(entry, false);
+			}
+			updateBufferCounts();
+		}
+	} // }}}
+
 	// {{{ -class KeyHandler
 	/**
 	 * A key handler for the buffer list.
@@ -0,0 +1,239 @@
+/*{{{ header
+ * BufferListChanged.java - EditBus message sent after BufferList has changed
+ *
+ * :tabSize=4:indentSize=4:noTabs=false:maxLineLen=0:folding=explicit:collapseFolds=1:
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA 02111-1307, USA.
+ *}}}
+ */
+package bufferlist;
+
+// {{{ imports
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.gjt.sp.jedit.EBMessage;
+import org.gjt.sp.jedit.View;
+
+import bufferlist.BufferListSnapshot.Entry;
+import bufferlist.BufferListSnapshot.Group;
+
+// }}}
+
+/**
+ * Sent on the EditBus each time a BufferList has published a new
+ * {@link BufferListSnapshot}, i.e. after it has applied a change. It carries
+ * the difference to the previous snapshot, so that plugins mirroring the
+ * buffer list can update incrementally:
+ * <ul>
+ * <li>{@link #getAdded()}, {@link #getRemoved()}: buffers that have
+ * appeared in or disappeared from the list,</li>
+ * <li>{@link #getMoved()}: buffers whose path, directory or group has
+ * changed,</li>
+ * <li>{@link #getReflagged()}: buffers whose dirty flag has changed,</li>
+ * <li>{@link #getChangedGroups()}: groups that have been added, removed,
+ * relabelled or whose buffers have changed,</li>
+ * <li>{@link #isReordered()}: whether buffers that are in both snapshots
+ * have changed their order.</li>
+ * </ul>
+ * The sequence numbers of the messages of one BufferList increase by one, so
+ * a gap tells a consumer that it has missed a message and should read
+ * {@link #getSnapshot()} in full.
+ */
+public class BufferListChanged extends EBMessage
+{
+	// {{{ instance variables
+	private final View view;
+
+	private final BufferListSnapshot previous;
+
+	private final BufferListSnapshot snapshot;
+
+	private final List<Entry> added, removed, moved, reflagged;
+
+	private final List<String> changedGroups;
+
+	private final boolean reordered; // }}}
+
+	// {{{ +BufferListChanged(BufferList, View, BufferListSnapshot, BufferListSnapshot) : <init>
+	/**
+	 * Computes the difference of two snapshots; O(n) in the number of
+	 * buffers.
+	 */
+	public BufferListChanged(BufferList source, View view, BufferListSnapshot previous,
+		BufferListSnapshot snapshot)
+	{
+		super(source);
+		if (snapshot.getSequence() != previous.getSequence() + 1)
+		{
+			// consumers take a gap in the sequence for a missed message
+			throw new IllegalArgumentException("snapshot " + snapshot.getSequence()
+				+ " does not follow " + previous.getSequence());
+		}
+		this.view = view;
+		this.previous = previous;
+		this.snapshot = snapshot;
+
+		List<Entry> added = new ArrayList<Entry>();
+		List<Entry> moved = new ArrayList<Entry>();
+		List<Entry> reflagged = new ArrayList<Entry>();
+		int common = 0;
+		int lastIndex = -1;
+		boolean reordered = false;
+		for (Entry entry : snapshot.getEntries())
+		{
+			Entry old = previous.getEntry(entry.getBuffer());
+			if (old == null)
+			{
+				added.add(entry);
+				continue;
+			}
+			common++;
+			// by buffer: the path of a moved entry has changed
+			int index = previous.indexOf(old.getBuffer());
+			if (index < lastIndex)
+			{
+				reordered = true;
+			}
+			lastIndex = index;
+			if (old == entry)
+			{
+				continue;
+			}
+			if (!old.getPath().equals(entry.getPath()) || !old.getDir().equals(entry.getDir())
+				|| !old.getGroupKey().equals(entry.getGroupKey()))
+			{
+				moved.add(entry);
+			}
+			if (old.isDirty() != entry.isDirty())
+			{
+				reflagged.add(entry);
+			}
+		}
+		List<Entry> removed = new ArrayList<Entry>();
+		if (common < previous.size())
+		{
+			for (Entry old : previous.getEntries())
+			{
+				if (snapshot.getEntry(old.getBuffer()) == null)
+				{
+					removed.add(old);
+				}
+			}
+		}
+		List<String> changedGroups = new ArrayList<String>();
+		for (Group group : snapshot.getGroups())
+		{
+			if (previous.getGroup(group.getKey()) != group)
+			{
+				changedGroups.add(group.getKey());
+			}
+		}
+		for (Group old : previous.getGroups())
+		{
+			if (snapshot.getGroup(old.getKey()) == null)
+			{
+				changedGroups.add(old.getKey());
+			}
+		}
+		this.added = Collections.unmodifiableList(added);
+		this.removed = Collections.unmodifiableList(removed);
+		this.moved = Collections.unmodifiableList(moved);
+		this.reflagged = Collections.unmodifiableList(reflagged);
+		this.changedGroups = Collections.unmodifiableList(changedGroups);
+		this.reordered = reordered;
+	} // }}}
+
+	// {{{ +getView() : View
+	public View getView()
+	{
+		return view;
+	} // }}}
+
+	// {{{ +getSequence() : long
+	/**
+	 * @return the sequence number of the new snapshot; one more than that of
+	 *         the previous message of the same BufferList.
+	 */
+	public long getSequence()
+	{
+		return snapshot.getSequence();
+	} // }}}
+
+	// {{{ +getSnapshot() : BufferListSnapshot
+	public BufferListSnapshot getSnapshot()
+	{
+		return snapshot;
+	} // }}}
+
+	// {{{ +getPrevious() : BufferListSnapshot
+	public BufferListSnapshot getPrevious()
+	{
+		return previous;
+	} // }}}
+
+	// {{{ +getAdded() : List<Entry>
+	public List<Entry> getAdded()
+	{
+		return added;
+	} // }}}
+
+	// {{{ +getRemoved() : List<Entry>
+	/**
+	 * @return the entries of the previous snapshot that are gone.
+	 */
+	public List<Entry> getRemoved()
+	{
+		return removed;
+	} // }}}
+
+	// {{{ +getMoved() : List<Entry>
+	public List<Entry> getMoved()
+	{
+		return moved;
+	} // }}}
+
+	// {{{ +getReflagged() : List<Entry>
+	public List<Entry> getReflagged()
+	{
+		return reflagged;
+	} // }}}
+
+	// {{{ +getChangedGroups() : List<String>
+	/**
+	 * @return the keys of the changed groups.
+	 */
+	public List<String> getChangedGroups()
+	{
+		return changedGroups;
+	} // }}}
+
+	// {{{ +isReordered() : boolean
+	public boolean isReordered()
+	{
+		return reordered;
+	} // }}}
+
+	// {{{ +paramString() : String
+	@Override
+	public String paramString()
+	{
+		return "sequence=" + getSequence() + ",added=" + added.size() + ",removed="
+			+ removed.size() + ",moved=" + moved.size() + ",reflagged=" + reflagged.size()
+			+ ",changedGroups=" + changedGroups + ",reordered=" + reordered + ","
+			+ super.paramString();
+	} // }}}
+}
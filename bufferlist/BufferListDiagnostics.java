@@ -0,0 +1,137 @@
+/*{{{ header
+ * BufferListDiagnostics.java - dockable showing BufferList runtime metrics
+ *
+ * :tabSize=4:indentSize=4:noTabs=false:maxLineLen=0:folding=explicit:collapseFolds=1:
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA 02111-1307, USA.
+ *}}}
+ */
+package bufferlist;
+
+// {{{ imports
+import java.awt.BorderLayout;
+import java.awt.Font;
+import java.awt.event.ActionEvent;
+import java.awt.event.ActionListener;
+
+import javax.swing.JButton;
+import javax.swing.JPanel;
+import javax.swing.JScrollPane;
+import javax.swing.JTextArea;
+import javax.swing.Timer;
+import javax.swing.text.DefaultCaret;
+
+import org.gjt.sp.jedit.View;
+import org.gjt.sp.jedit.jEdit;
+
+// }}}
+
+/**
+ * A small dockable panel that periodically shows the contents of
+ * {@link BufferListMetrics}.
+ */
+public class BufferListDiagnostics extends JPanel
+{
+	private static final long serialVersionUID = 1L;
+
+	private static final int REFRESH_INTERVAL = 1000;
+
+	// {{{ instance variables
+	private final JTextArea text;
+
+	private final Timer timer; // }}}
+
+	// {{{ +BufferListDiagnostics(View, String) : <init>
+	public BufferListDiagnostics(View view, String position)
+	{
+		super(new BorderLayout());
+		text = new JTextArea();
+		text.setEditable(false);
+		// keep the scroll position when the text is refreshed
+		((DefaultCaret) text.getCaret()).setUpdatePolicy(DefaultCaret.NEVER_UPDATE);
+		text.setFont(new Font("Monospaced", Font.PLAIN, text.getFont().getSize()));
+		JButton reset = new JButton(jEdit.getProperty("bufferlist.diagnostics.reset.label"));
+		reset.addActionListener(new ActionListener()
+		{
+			public void actionPerformed(ActionEvent e)
+			{
+				BufferListMetrics.getInstance().reset();
+				refresh();
+			}
+		});
+		timer = new Timer(REFRESH_INTERVAL, new ActionListener()
+		{
+			public void actionPerformed(ActionEvent e)
+			{
+				refresh();
+			}
+		});
+		add(BorderLayout.CENTER, new JScrollPane(text));
+		add(BorderLayout.SOUTH, reset);
+		refresh();
+	} // }}}
+
+	// {{{ +addNotify() : void
+	@Override
+	public void addNotify()
+	{
+		super.addNotify();
+		timer.start();
+	} // }}}
+
+	// {{{ +removeNotify() : void
+	@Override
+	public void removeNotify()
+	{
+		super.removeNotify();
+		timer.stop();
+	} // }}}
+
+	// {{{ -refresh() : void
+	private void refresh()
+	{
+		BufferListMetrics metrics = BufferListMetrics.getInstance();
+		StringBuilder sb = new StringBuilder();
+		appendLine(sb, "fullUpdates", Long.valueOf(metrics.getFullModelUpdates()));
+		appendLine(sb, "incrementalUpdates", Long.valueOf(metrics.getIncrementalModelUpdates()));
+		appendLine(sb, "colorCache", Double.valueOf(metrics.getColorCacheHitRatio()));
+		appendLine(sb, "clipCache", Double.valueOf(metrics.getClipCacheHitRatio()));
+		appendLine(sb, "widthCache", Double.valueOf(metrics.getWidthCacheHitRatio()));
+		sb.append('\n');
+		appendLine(sb, "messages", null);
+		for (String line : metrics.getMessageCounts())
+		{
+			sb.append("  ").append(line).append('\n');
+		}
+		sb.append('\n');
+		appendLine(sb, "latencies", null);
+		for (String line : metrics.getLatencies())
+		{
+			sb.append("  ").append(line).append('\n');
+		}
+		text.setText(sb.toString());
+	} // }}}
+
+	// {{{ -appendLine(StringBuilder, String, Object) : void
+	/**
+	 * Appends property <code>bufferlist.diagnostics.</code><i>name</i> with
+	 * the given value as {0}.
+	 */
+	private static void appendLine(StringBuilder sb, String name, Object value)
+	{
+		sb.append(jEdit.getProperty("bufferlist.diagnostics." + name, new Object[] { value }))
+			.append('\n');
+	} // }}}
+}
@@ -0,0 +1,322 @@
+/*{{{ header
+ * BufferListMetrics.java - runtime metrics for BufferList
+ *
+ * :tabSize=4:indentSize=4:noTabs=false:maxLineLen=0:folding=explicit:collapseFolds=1:
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA 02111-1307, USA.
+ *}}}
+ */
+package bufferlist;
+
+// {{{ imports
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import org.gjt.sp.jedit.EBMessage;
+import org.gjt.sp.util.Log;
+
+// }}}
+
+/**
+ * Counters and latency histograms describing how much work BufferList does on
+ * the event dispatch thread. All recording methods are cheap (a few atomic
+ * increments) and may be called from any thread.
+ */
+public class BufferListMetrics implements BufferListMetricsMBean
+{
+	// {{{ timer constants
+	public static final int CREATE_MODEL = 0;
+
+	public static final int UPDATE_MODEL = 1;
+
+	public static final int RESTORE_EXPANSION = 2;
+
+	public static final int RENDERER_PAINT = 3;
+
+	private static final String[] TIMER_NAMES = { "createModel", "updateModel",
+		"restoreExpansionState", "rendererPaint" };
+
+	static final int TIMER_COUNT = TIMER_NAMES.length; // }}}
+
+	// {{{ cache constants
+	public static final int COLOR_CACHE = 0;
+
+	public static final int CLIP_CACHE = 1;
+
+	public static final int WIDTH_CACHE = 2; // }}}
+
+	private static final String OBJECT_NAME = "bufferlist:type=Metrics";
+
+	private static final BufferListMetrics instance = new BufferListMetrics();
+
+	// {{{ instance variables
+	private final ConcurrentHashMap<Class<?>, AtomicLong> messageCounts = new ConcurrentHashMap<Class<?>, AtomicLong>();
+
+	private final AtomicLong fullUpdates = new AtomicLong();
+
+	private final AtomicLong incrementalUpdates = new AtomicLong();
+
+	private final Histogram[] timers = new Histogram[TIMER_NAMES.length];
+
+	private final AtomicLongArray cacheHits = new AtomicLongArray(3);
+
+	private final AtomicLongArray cacheMisses = new AtomicLongArray(3); // }}}
+
+	// {{{ -BufferListMetrics() : <init>
+	private BufferListMetrics()
+	{
+		for (int i = 0; i < timers.length; i++)
+		{
+			timers[i] = new Histogram();
+		}
+	} // }}}
+
+	// {{{ +getInstance() : BufferListMetrics
+	public static BufferListMetrics getInstance()
+	{
+		return instance;
+	} // }}}
+
+	// {{{ register()/unregister() : void
+	/**
+	 * Registers the metrics with the platform MBean server; called by
+	 * {@link BufferListPlugin#start()}.
+	 */
+	static void register()
+	{
+		try
+		{
+			MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+			ObjectName name = new ObjectName(OBJECT_NAME);
+			if (!server.isRegistered(name))
+			{
+				server.registerMBean(instance, name);
+			}
+		}
+		catch (JMException e)
+		{
+			Log.log(Log.WARNING, BufferListMetrics.class, "Cannot register metrics MBean:");
+			Log.log(Log.WARNING, BufferListMetrics.class, e);
+		}
+	}
+
+	static void unregister()
+	{
+		try
+		{
+			MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+			ObjectName name = new ObjectName(OBJECT_NAME);
+			if (server.isRegistered(name))
+			{
+				server.unregisterMBean(name);
+			}
+		}
+		catch (JMException e)
+		{
+			Log.log(Log.WARNING, BufferListMetrics.class, e);
+		}
+	} // }}}
+
+	// {{{ recording methods
+	/**
+	 * Counts an EditBus message handled by a BufferList instance.
+	 */
+	public static void messageHandled(EBMessage message)
+	{
+		Class<?> type = message.getClass();
+		AtomicLong count = instance.messageCounts.get(type);
+		if (count == null)
+		{
+			AtomicLong newCount = new AtomicLong();
+			count = instance.messageCounts.putIfAbsent(type, newCount);
+			if (count == null)
+			{
+				count = newCount;
+			}
+		}
+		count.incrementAndGet();
+	}
+
+	public static void fullUpdate()
+	{
+		instance.fullUpdates.incrementAndGet();
+	}
+
+	public static void incrementalUpdate()
+	{
+		instance.incrementalUpdates.incrementAndGet();
+	}
+
+	/**
+	 * Records the time elapsed since <code>startNanos</code> (a value
+	 * returned by <code>System.nanoTime()</code>) for the given timer.
+	 */
+	public static void recordTime(int timer, long startNanos)
+	{
+		long nanos = System.nanoTime() - startNanos;
+		instance.timers[timer].record(nanos);
+		EdtWatchdog.phase(timer, nanos);
+	}
+
+	public static void cacheLookup(int cache, boolean hit)
+	{
+		if (hit)
+		{
+			instance.cacheHits.incrementAndGet(cache);
+		}
+		else
+		{
+			instance.cacheMisses.incrementAndGet(cache);
+		}
+	} // }}}
+
+	// {{{ BufferListMetricsMBean implementation
+	public String[] getMessageCounts()
+	{
+		List<String> lines = new ArrayList<String>();
+		for (Map.Entry<Class<?>, AtomicLong> entry : messageCounts.entrySet())
+		{
+			lines.add(entry.getKey().getSimpleName() + "=" + entry.getValue().get());
+		}
+		return lines.toArray(new String[lines.size()]);
+	}
+
+	public long getFullModelUpdates()
+	{
+		return fullUpdates.get();
+	}
+
+	public long getIncrementalModelUpdates()
+	{
+		return incrementalUpdates.get();
+	}
+
+	public String[] getLatencies()
+	{
+		String[] lines = new String[timers.length];
+		for (int i = 0; i < timers.length; i++)
+		{
+			lines[i] = TIMER_NAMES[i] + ": " + timers[i];
+		}
+		return lines;
+	}
+
+	public double getColorCacheHitRatio()
+	{
+		return getHitRatio(COLOR_CACHE);
+	}
+
+	public double getClipCacheHitRatio()
+	{
+		return getHitRatio(CLIP_CACHE);
+	}
+
+	public double getWidthCacheHitRatio()
+	{
+		return getHitRatio(WIDTH_CACHE);
+	}
+
+	public void reset()
+	{
+		messageCounts.clear();
+		fullUpdates.set(0);
+		incrementalUpdates.set(0);
+		for (int i = 0; i < timers.length; i++)
+		{
+			timers[i] = new Histogram();
+		}
+		for (int i = 0; i < cacheHits.length(); i++)
+		{
+			cacheHits.set(i, 0);
+			cacheMisses.set(i, 0);
+		}
+	} // }}}
+
+	// {{{ getTimerName(int) : String
+	static String getTimerName(int timer)
+	{
+		return TIMER_NAMES[timer];
+	} // }}}
+
+	// {{{ -getHitRatio(int) : double
+	private double getHitRatio(int cache)
+	{
+		long hits = cacheHits.get(cache);
+		long total = hits + cacheMisses.get(cache);
+		return total == 0 ? 0.0 : (double) hits / total;
+	} // }}}
+
+	// {{{ +class Histogram
+	/**
+	 * Latency histogram with power-of-two microsecond buckets; bucket
+	 * <i>i</i> counts samples below 2<sup>i</sup> microseconds, the last
+	 * bucket everything above.
+	 */
+	static class Histogram
+	{
+		private static final int BUCKETS = 21;
+
+		private final AtomicLongArray buckets = new AtomicLongArray(BUCKETS);
+
+		private final AtomicLong count = new AtomicLong();
+
+		private final AtomicLong totalNanos = new AtomicLong();
+
+		private final AtomicLong maxNanos = new AtomicLong();
+
+		void record(long nanos)
+		{
+			long micros = nanos / 1000;
+			int bucket = 64 - Long.numberOfLeadingZeros(micros);
+			buckets.incrementAndGet(Math.min(bucket, BUCKETS - 1));
+			count.incrementAndGet();
+			totalNanos.addAndGet(nanos);
+			long max = maxNanos.get();
+			while (nanos > max && !maxNanos.compareAndSet(max, nanos))
+			{
+				max = maxNanos.get();
+			}
+		}
+
+		@Override
+		public String toString()
+		{
+			long n = count.get();
+			StringBuilder sb = new StringBuilder();
+			sb.append("count=").append(n);
+			sb.append(" mean=").append(n == 0 ? 0 : totalNanos.get() / n / 1000).append("us");
+			sb.append(" max=").append(maxNanos.get() / 1000).append("us");
+			for (int i = 0; i < BUCKETS; i++)
+			{
+				long c = buckets.get(i);
+				if (c != 0)
+				{
+					sb.append(i == BUCKETS - 1 ? " >=" : " <").append(1L << Math.min(i,
+						BUCKETS - 2)).append("us:").append(c);
+				}
+			}
+			return sb.toString();
+		}
+	} // }}}
+}
@@ -0,0 +1,71 @@
+/*{{{ header
+ * BufferListMetricsMBean.java - JMX interface for BufferList runtime metrics
+ *
+ * :tabSize=4:indentSize=4:noTabs=false:maxLineLen=0:folding=explicit:collapseFolds=1:
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA 02111-1307, USA.
+ *}}}
+ */
+package bufferlist;
+
+/**
+ * Management interface of {@link BufferListMetrics}, registered with the
+ * platform MBean server as <code>bufferlist:type=Metrics</code>.
+ */
+public interface BufferListMetricsMBean
+{
+	/**
+	 * @return one line per EditBus message class, in the form
+	 *         <code>ClassName=count</code>.
+	 */
+	public String[] getMessageCounts();
+
+	/**
+	 * @return the number of times the whole tree model was rebuilt.
+	 */
+	public long getFullModelUpdates();
+
+	/**
+	 * @return the number of single node updates applied to the tree model.
+	 */
+	public long getIncrementalModelUpdates();
+
+	/**
+	 * @return one line per timed phase, with count, mean, max and a
+	 *         histogram of latencies in microseconds.
+	 */
+	public String[] getLatencies();
+
+	/**
+	 * @return hit ratio (0..1) of the renderer's file name color cache.
+	 */
+	public double getColorCacheHitRatio();
+
+	/**
+	 * @return hit ratio (0..1) of the renderer's clipped label cache.
+	 */
+	public double getClipCacheHitRatio();
+
+	/**
+	 * @return hit ratio (0..1) of the renderer's label width cache, which is
+	 *         only used in large model mode.
+	 */
+	public double getWidthCacheHitRatio();
+
+	/**
+	 * Resets all counters and histograms.
+	 */
+	public void reset();
+}
@@ -25,8 +25,10 @@ package bufferlist;
 // {{{ imports
 import javax.swing.ButtonGroup;
 import javax.swing.JCheckBox;
+import javax.swing.JComboBox;
 import javax.swing.JLabel;
 import javax.swing.JRadioButton;
+import javax.swing.JTextField;
 import javax.swing.UIManager;
 
 import org.gjt.sp.jedit.AbstractOptionPane;
@@ -51,15 +53,53 @@ public class BufferListOptionPane extends AbstractOptionPane
 
 	private JCheckBox bStartExpanded;
 
+	private String[] groupings;
+
+	private JComboBox cbGrouping;
+
+	private JTextField tfProjectMarkers;
+
+	private JTextField tfGroupingRegex;
+
 	private JCheckBox bFlatTree;
 
+	private JComboBox cbSortMode;
+
+	private String[] sortModes;
+
+	private JCheckBox bFootprintTooltip;
+
+	private JCheckBox bDirCounts;
+
 	private JCheckBox bShortenHome;
 
+	private JCheckBox bResolveSymlinks;
+
 	private JRadioButton rbTextClipStart;
 
 	private JRadioButton rbTextClipEnd;
 
-	private JRadioButton rbTextClipNone; // }}}
+	private JRadioButton rbTextClipNone;
+
+	private JCheckBox bSnapshot;
+
+	private JTextField tfLargeModelThreshold;
+
+	private JCheckBox bWatch;
+
+	private JCheckBox bReaper;
+
+	private JTextField tfReaperMinutes;
+
+	private JCheckBox bMemoryGuard;
+
+	private JTextField tfMemoryHighWater;
+
+	private JTextField tfMemoryLowWater;
+
+	private JCheckBox bWatchdog;
+
+	private JTextField tfWatchdogBudget; // }}}
 
 	// {{{ +BufferListOptionPane() : <init>
 	public BufferListOptionPane()
@@ -87,9 +127,52 @@ public class BufferListOptionPane extends AbstractOptionPane
 			jEdit.getProperty("options.bufferlist.displayMode"),
 			jEdit.getIntegerProperty("bufferlist.displayMode", BufferList.DISPLAY_MODE_FLAT_TREE) == BufferList.DISPLAY_MODE_FLAT_TREE);
 
+		sortModes = BufferList.getSortModes();
+		String[] sortModeLabels = new String[sortModes.length];
+		String sortMode = jEdit.getProperty("bufferlist.sortMode", BufferList.SORT_NAME);
+		int selectedSortMode = 0;
+		for (int i = 0; i < sortModes.length; i++)
+		{
+			sortModeLabels[i] = BufferList.getSortModeLabel(sortModes[i]);
+			if (sortModes[i].equals(sortMode))
+			{
+				selectedSortMode = i;
+			}
+		}
+		cbSortMode = new JComboBox(sortModeLabels);
+		cbSortMode.setSelectedIndex(selectedSortMode);
+
+		bFootprintTooltip = new JCheckBox(jEdit.getProperty("options.bufferlist.footprint.tooltip"),
+			jEdit.getBooleanProperty("bufferlist.footprint.tooltip", false));
+
+		bDirCounts = new JCheckBox(jEdit.getProperty("options.bufferlist.dirCounts"), jEdit
+			.getBooleanProperty("bufferlist.dirCounts", true));
+
+		groupings = BufferList.getGroupings();
+		String[] groupingLabels = new String[groupings.length];
+		String grouping = jEdit.getProperty("bufferlist.grouping", BufferList.GROUPING_NONE);
+		int selected = 0;
+		for (int i = 0; i < groupings.length; i++)
+		{
+			groupingLabels[i] = BufferList.getGroupingLabel(groupings[i]);
+			if (groupings[i].equals(grouping))
+			{
+				selected = i;
+			}
+		}
+		cbGrouping = new JComboBox(groupingLabels);
+		cbGrouping.setSelectedIndex(selected);
+
+		tfProjectMarkers = new JTextField(jEdit.getProperty("bufferlist.project.markers"));
+
+		tfGroupingRegex = new JTextField(jEdit.getProperty("bufferlist.grouping.regex.pattern"));
+
 		bShortenHome = new JCheckBox(jEdit.getProperty("options.bufferlist.shortenHome"), jEdit
 			.getBooleanProperty("bufferlist.shortenHome", true));
 
+		bResolveSymlinks = new JCheckBox(jEdit.getProperty("options.bufferlist.resolveSymlinks"),
+			jEdit.getBooleanProperty("bufferlist.resolveSymlinks", true));
+
 		rbTextClipStart = new JRadioButton(jEdit
 			.getProperty("options.bufferlist.textClipping.start"));
 		rbTextClipEnd = new JRadioButton(jEdit.getProperty("options.bufferlist.textClipping.end"));
@@ -118,11 +201,56 @@ public class BufferListOptionPane extends AbstractOptionPane
 		addComponent(bCloseFilesOnDoubleClick);
 		addComponent(bStartExpanded);
 		addComponent(bFlatTree);
+		addComponent(jEdit.getProperty("options.bufferlist.sortMode"), cbSortMode);
+		addComponent(jEdit.getProperty("options.bufferlist.grouping"), cbGrouping);
+		addComponent(jEdit.getProperty("options.bufferlist.project.markers"), tfProjectMarkers);
+		addComponent(jEdit.getProperty("options.bufferlist.grouping.regex.pattern"),
+			tfGroupingRegex);
 		addComponent(bShortenHome);
+		addComponent(bResolveSymlinks);
+		addComponent(bDirCounts);
+		addComponent(bFootprintTooltip);
 		addComponent(new JLabel(jEdit.getProperty("options.bufferlist.textClipping.label")));
 		addComponent("  ", rbTextClipStart);
 		addComponent("  ", rbTextClipEnd);
 		addComponent("  ", rbTextClipNone);
+
+		bSnapshot = new JCheckBox(jEdit.getProperty("options.bufferlist.snapshot"), jEdit
+			.getBooleanProperty("bufferlist.snapshot", true));
+		addComponent(bSnapshot);
+
+		tfLargeModelThreshold = new JTextField(String.valueOf(jEdit.getIntegerProperty(
+			"bufferlist.largeModel.threshold", 1000)), 5);
+		addComponent(jEdit.getProperty("options.bufferlist.largeModel.threshold"),
+			tfLargeModelThreshold);
+
+		bWatch = new JCheckBox(jEdit.getProperty("options.bufferlist.watch.enabled"), jEdit
+			.getBooleanProperty("bufferlist.watch.enabled", true));
+		addComponent(bWatch);
+
+		bReaper = new JCheckBox(jEdit.getProperty("options.bufferlist.reaper.enabled"), jEdit
+			.getBooleanProperty("bufferlist.reaper.enabled", false));
+		tfReaperMinutes = new JTextField(String.valueOf(jEdit.getIntegerProperty(
+			"bufferlist.reaper.idleMinutes", 60)), 5);
+		addComponent(bReaper);
+		addComponent(jEdit.getProperty("options.bufferlist.reaper.idleMinutes"), tfReaperMinutes);
+
+		bMemoryGuard = new JCheckBox(jEdit.getProperty("options.bufferlist.memory.enabled"), jEdit
+			.getBooleanProperty("bufferlist.memory.enabled", false));
+		tfMemoryHighWater = new JTextField(String.valueOf(jEdit.getIntegerProperty(
+			"bufferlist.memory.highWater", 85)), 5);
+		tfMemoryLowWater = new JTextField(String.valueOf(jEdit.getIntegerProperty(
+			"bufferlist.memory.lowWater", 70)), 5);
+		addComponent(bMemoryGuard);
+		addComponent(jEdit.getProperty("options.bufferlist.memory.highWater"), tfMemoryHighWater);
+		addComponent(jEdit.getProperty("options.bufferlist.memory.lowWater"), tfMemoryLowWater);
+
+		bWatchdog = new JCheckBox(jEdit.getProperty("options.bufferlist.watchdog.enabled"), jEdit
+			.getBooleanProperty("bufferlist.watchdog.enabled", false));
+		tfWatchdogBudget = new JTextField(String.valueOf(jEdit.getIntegerProperty(
+			"bufferlist.watchdog.budget", 50)), 5);
+		addComponent(bWatchdog);
+		addComponent(jEdit.getProperty("options.bufferlist.watchdog.budget"), tfWatchdogBudget);
 	} // }}}
 
 	// {{{ +_save() : void
@@ -136,8 +264,61 @@ public class BufferListOptionPane extends AbstractOptionPane
 		jEdit.setIntegerProperty("bufferlist.displayMode",
 			bFlatTree.isSelected() ? BufferList.DISPLAY_MODE_FLAT_TREE
 				: BufferList.DISPLAY_MODE_HIERARCHICAL);
+		jEdit.setProperty("bufferlist.sortMode", sortModes[cbSortMode.getSelectedIndex()]);
+		jEdit.setProperty("bufferlist.grouping", groupings[cbGrouping.getSelectedIndex()]);
+		jEdit.setProperty("bufferlist.project.markers", tfProjectMarkers.getText().trim());
+		jEdit.setProperty("bufferlist.grouping.regex.pattern", tfGroupingRegex.getText());
 		jEdit.setBooleanProperty("bufferlist.shortenHome", bShortenHome.isSelected());
+		jEdit.setBooleanProperty("bufferlist.resolveSymlinks", bResolveSymlinks.isSelected());
+		jEdit.setBooleanProperty("bufferlist.dirCounts", bDirCounts.isSelected());
+		jEdit.setBooleanProperty("bufferlist.footprint.tooltip", bFootprintTooltip.isSelected());
 		jEdit.setIntegerProperty("bufferlist.textClipping", rbTextClipNone.isSelected() ? 0
 			: rbTextClipStart.isSelected() ? 1 : 2);
+		jEdit.setBooleanProperty("bufferlist.snapshot", bSnapshot.isSelected());
+		try
+		{
+			jEdit.setIntegerProperty("bufferlist.largeModel.threshold", Math.max(0, Integer
+				.parseInt(tfLargeModelThreshold.getText().trim())));
+		}
+		catch (NumberFormatException e)
+		{
+			// keep the previous threshold
+		}
+		jEdit.setBooleanProperty("bufferlist.watch.enabled", bWatch.isSelected());
+		jEdit.setBooleanProperty("bufferlist.reaper.enabled", bReaper.isSelected());
+		try
+		{
+			jEdit.setIntegerProperty("bufferlist.reaper.idleMinutes", Math.max(1, Integer
+				.parseInt(tfReaperMinutes.getText().trim())));
+		}
+		catch (NumberFormatException e)
+		{
+			// keep the previous limit
+		}
+		jEdit.setBooleanProperty("bufferlist.memory.enabled", bMemoryGuard.isSelected());
+		try
+		{
+			int highWater = Integer.parseInt(tfMemoryHighWater.getText().trim());
+			int lowWater = Integer.parseInt(tfMemoryLowWater.getText().trim());
+			if (lowWater > 0 && lowWater < highWater && highWater < 100)
+			{
+				jEdit.setIntegerProperty("bufferlist.memory.highWater", highWater);
+				jEdit.setIntegerProperty("bufferlist.memory.lowWater", lowWater);
+			}
+		}
+		catch (NumberFormatException e)
+		{
+			// keep the previous marks
+		}
+		jEdit.setBooleanProperty("bufferlist.watchdog.enabled", bWatchdog.isSelected());
+		try
+		{
+			jEdit.setIntegerProperty("bufferlist.watchdog.budget", Integer
+				.parseInt(tfWatchdogBudget.getText().trim()));
+		}
+		catch (NumberFormatException e)
+		{
+			// keep the previous budget
+		}
 	} // }}}
 }
@@ -33,6 +33,8 @@ import org.gjt.sp.jedit.View;
 import org.gjt.sp.jedit.jEdit;
 import org.gjt.sp.jedit.msg.BufferUpdate;
 import org.gjt.sp.jedit.msg.EditPaneUpdate;
+import org.gjt.sp.jedit.msg.EditorStarted;
+import org.gjt.sp.jedit.msg.PropertiesChanged;
 import org.gjt.sp.util.Log;
 // }}}
 
@@ -46,36 +48,105 @@ public class BufferListPlugin extends EBPlugin
 
 	public static final String MENU_SERVICE_TYPE = "bufferlist.MenuEntries";
 
+	public static final String GROUPING_SERVICE_TYPE = "bufferlist.GroupingStrategy";
+
 	private static List<MenuEntries> menuExtensions;
 
+	/**
+	 * True if the Buffer List should be auto-shown after a bulk update.
+	 */
+	private static boolean autoshowPending;
+
 	// {{{ +start() : void
 	public void start()
 	{
 		menuExtensions = new ArrayList<MenuEntries>();
 		loadPopupMenuExtensions();
+		BufferListMetrics.register();
+		EdtWatchdog.configure();
+		BufferReaper.start();
+		MemoryGuard.configure();
+		ExternalChanges.configure();
+		CanonicalPaths.configure();
+		if (!jEdit.isStartupDone())
+		{
+			BulkUpdate.beginStartup();
+		}
 	} // }}}
 
 	// {{{ +stop() : void
 	public void stop()
 	{
 		menuExtensions = null;
+		BufferListMetrics.unregister();
+		EdtWatchdog.shutdown();
+		BulkUpdate.reset();
+		ProjectRoots.shutdown();
+		CanonicalPaths.shutdown();
+		BufferFootprint.clear();
+		BufferReaper.shutdown();
+		MemoryGuard.shutdown();
+		ExternalChanges.shutdown();
+		BufferSearch.shutdown();
+		EventTrace.stop();
+		autoshowPending = false;
 	} // }}}
 
 	// {{{ +handleMessage(EBMessage) : void
 	public void handleMessage(EBMessage message)
 	{
+		EventTrace.record(message);
 		if (message instanceof BufferUpdate)
 		{
 			BufferUpdate bu = (BufferUpdate) message;
+			if (bu.getWhat() == BufferUpdate.CREATED)
+			{
+				BulkUpdate.bufferCreated();
+				BufferReaper.bufferActivated(bu.getBuffer());
+				ExternalChanges.watch(bu.getBuffer());
+				CanonicalPaths.buffersChanged();
+			}
+			else if (bu.getWhat() == BufferUpdate.CLOSED)
+			{
+				BufferReaper.bufferClosed(bu.getBuffer());
+				ExternalChanges.reloadFinished(bu.getBuffer());
+				ExternalChanges.unwatch(bu.getBuffer());
+				BufferSearch.clear(bu.getBuffer());
+				CanonicalPaths.bufferClosed(bu.getBuffer());
+			}
+			else if (bu.getWhat() == BufferUpdate.SAVED)
+			{
+				// "save as" changes the path
+				ExternalChanges.watch(bu.getBuffer());
+				CanonicalPaths.buffersChanged();
+				ExternalChanges.clear(bu.getBuffer());
+			}
+			else if (bu.getWhat() == BufferUpdate.LOADED)
+			{
+				ExternalChanges.clear(bu.getBuffer());
+				ExternalChanges.reloadFinished(bu.getBuffer());
+				BufferSearch.clear(bu.getBuffer());
+			}
 			if (jEdit.getBooleanProperty("bufferlist.autoshow", false) && bu.getView() != null
 				&& (bu.getWhat() == BufferUpdate.CREATED || bu.getWhat() == BufferUpdate.CLOSED))
 			{
-				bu.getView().getDockableWindowManager().addDockableWindow("bufferlist");
+				if (BulkUpdate.isActive())
+				{
+					autoshowPending = true;
+				}
+				else
+				{
+					bu.getView().getDockableWindowManager().addDockableWindow("bufferlist");
+				}
 			}
 		}
 		else if (message instanceof EditPaneUpdate)
 		{
 			EditPaneUpdate epu = (EditPaneUpdate) message;
+			if (epu.getWhat() == EditPaneUpdate.BUFFER_CHANGED)
+			{
+				BufferReaper.bufferActivated(epu.getEditPane().getBuffer());
+			}
 			if (jEdit.getBooleanProperty("bufferlist.autoshow", false)
 				&& epu.getWhat() == EditPaneUpdate.BUFFER_CHANGED)
 			{
@@ -86,6 +157,40 @@ public class BufferListPlugin extends EBPlugin
 				}
 			}
 		}
+		else if (message instanceof PropertiesChanged)
+		{
+			EdtWatchdog.configure();
+			ProjectRoots.configure();
+			BufferReaper.configure();
+			MemoryGuard.configure();
+			ExternalChanges.configure();
+			CanonicalPaths.configure();
+		}
+		else if (message instanceof EditorStarted)
+		{
+			BulkUpdate.endStartup();
+		}
+	} // }}}
+
+	// {{{ bulkUpdateFinished() : void
+	/**
+	 * Called by {@link BulkUpdate} when the last bulk phase has ended; shows
+	 * the Buffer List if that was skipped during the bulk update.
+	 */
+	static void bulkUpdateFinished()
+	{
+		// duplicates are not looked for during bulk updates
+		CanonicalPaths.buffersChanged();
+		if (!autoshowPending)
+		{
+			return;
+		}
+		autoshowPending = false;
+		View view = jEdit.getActiveView();
+		if (view != null && jEdit.getBooleanProperty("bufferlist.autoshow", false))
+		{
+			view.getDockableWindowManager().addDockableWindow("bufferlist");
+		}
 	} // }}}
 
 	// {{{ -loadPopupMenuExtensions() : void
@@ -26,10 +26,15 @@ import java.awt.Toolkit;
 import java.awt.datatransfer.StringSelection;
 import java.awt.event.ActionEvent;
 import java.awt.event.ActionListener;
+import java.util.Collections;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Set;
 
+import javax.swing.JMenu;
 import javax.swing.JMenuItem;
 import javax.swing.JPopupMenu;
+import javax.swing.JRadioButtonMenuItem;
 import javax.swing.JTree;
 import javax.swing.tree.TreePath;
 
@@ -163,26 +168,56 @@ public class BufferListPopup extends JPopupMenu
 		if (sel != null)
 		{
 			add(createMenuItem("reload"));
+			add(createMenuItem(selectedBuffer != null && BufferReaper.isPinned(selectedBuffer)
+				? "unpin" : "pin"));
+		}
+
+		if (!ExternalChanges.getChangedBuffers().isEmpty())
+		{
+			add(createMenuItem("reload-changed"));
 		}
 
 		addSeparator();
 		add(createMenuItem("toggle-display-mode"));
+		add(createSortMenu());
+		add(createGroupingMenu());
 		add(createMenuItem("expand-all"));
 		add(createMenuItem("collapse-all"));
 
-		if (dir != null)
+		if (dir != null || sel != null || BufferSearch.hasResults())
 		{
 			addSeparator();
+		}
+
+		if (dir != null)
+		{
 			add(createMenuItem("browse"));
 			add(createMenuItem("search"));
 		}
 
+		if (sel != null)
+		{
+			add(createMenuItem("search-buffers"));
+		}
+
+		if (BufferSearch.hasResults())
+		{
+			add(createMenuItem("clear-search"));
+		}
+
 		if (sel != null)
 		{
 			addSeparator();
 			add(createMenuItem("copy-paths"));
 		}
 
+		List<String> closedPaths = BufferReaper.getClosedPaths();
+		if (!closedPaths.isEmpty())
+		{
+			addSeparator();
+			add(createReopenMenu(closedPaths));
+		}
+
 		// process any menu extensions
 		for (MenuEntries me : extensions)
 		{
@@ -204,6 +239,60 @@ public class BufferListPopup extends JPopupMenu
 		return mi;
 	} // }}}
 
+	// {{{ -createGroupingMenu() : JMenu
+	private JMenu createGroupingMenu()
+	{
+		JMenu menu = new JMenu(jEdit.getProperty("bufferlist.popup.group-by.label"));
+		String current = BufferList.getGrouping(view);
+		for (String grouping : BufferList.getGroupings())
+		{
+			JRadioButtonMenuItem mi = new JRadioButtonMenuItem(BufferList.getGroupingLabel(grouping));
+			mi.setSelected(grouping.equals(current));
+			mi.setActionCommand("group-by:" + grouping);
+			mi.addActionListener(new ActionHandler());
+			menu.add(mi);
+		}
+		return menu;
+	} // }}}
+
+	// {{{ -createSortMenu() : JMenu
+	private JMenu createSortMenu()
+	{
+		JMenu menu = new JMenu(jEdit.getProperty("bufferlist.popup.sort-by.label"));
+		String current = BufferList.getSortMode(view);
+		for (String sortMode : BufferList.getSortModes())
+		{
+			JRadioButtonMenuItem mi = new JRadioButtonMenuItem(BufferList.getSortModeLabel(sortMode));
+			mi.setSelected(sortMode.equals(current));
+			mi.setActionCommand("sort-by:" + sortMode);
+			mi.addActionListener(new ActionHandler());
+			menu.add(mi);
+		}
+		return menu;
+	} // }}}
+
+	// {{{ -createReopenMenu(List<String>) : JMenu
+	/**
+	 * @return a menu with the buffers closed by the {@link BufferReaper}.
+	 */
+	private JMenu createReopenMenu(List<String> closedPaths)
+	{
+		JMenu menu = new JMenu(jEdit.getProperty("bufferlist.popup.reopen-closed.label"));
+		JMenuItem all = new JMenuItem(jEdit.getProperty("bufferlist.popup.reopen-all.label"));
+		all.setActionCommand("reopen-all");
+		all.addActionListener(new ActionHandler());
+		menu.add(all);
+		menu.addSeparator();
+		for (String path : closedPaths)
+		{
+			JMenuItem mi = new JMenuItem(MiscUtilities.abbreviate(path));
+			mi.setActionCommand("reopen:" + path);
+			mi.addActionListener(new ActionHandler());
+			menu.add(mi);
+		}
+		return menu;
+	} // }}}
+
 	// {{{ -class ActionHandler
 	private class ActionHandler implements ActionListener
 	{
@@ -224,6 +313,26 @@ public class BufferListPopup extends JPopupMenu
 			{
 				((BufferList)view.getDockableWindowManager().getDockable("bufferlist")).toggleDisplayMode();
 			}
+			else if (actionCommand.startsWith("sort-by:"))
+			{
+				((BufferList)view.getDockableWindowManager().getDockable("bufferlist")).setSortMode(actionCommand.substring(8));
+			}
+			else if (actionCommand.startsWith("group-by:"))
+			{
+				((BufferList)view.getDockableWindowManager().getDockable("bufferlist")).setGrouping(actionCommand.substring(9));
+			}
+			else if (actionCommand.equals("reload-changed"))
+			{
+				ExternalChanges.reloadChanged(view);
+			}
+			else if (actionCommand.equals("reopen-all"))
+			{
+				BufferReaper.reopen(view, BufferReaper.getClosedPaths());
+			}
+			else if (actionCommand.startsWith("reopen:"))
+			{
+				BufferReaper.reopen(view, Collections.singletonList(actionCommand.substring(7)));
+			}
 			else if (actionCommand.equals("browse"))
 			{
 				GUIUtilities.showVFSFileDialog(view, dir, VFSBrowser.BROWSER, true);
@@ -233,9 +342,27 @@ public class BufferListPopup extends JPopupMenu
 				SearchAndReplace.setSearchFileSet(new DirectoryListSet(dir, "*[^~#]", true));
 				SearchDialog.showSearchDialog(view, "", SearchDialog.DIRECTORY);
 			}
+			else if (actionCommand.equals("clear-search"))
+			{
+				BufferSearch.clear();
+			}
 			else if (sel != null)
 			{
-				if (actionCommand.equals("copy-paths"))
+				if (actionCommand.equals("search-buffers"))
+				{
+					// a buffer may be shown in more than one group
+					Set<Buffer> buffers = new LinkedHashSet<Buffer>();
+					for (TreePath path : sel)
+					{
+						BufferListTreeNode node = (BufferListTreeNode) path.getLastPathComponent();
+						if (node.isBuffer())
+						{
+							buffers.add(node.getBuffer());
+						}
+					}
+					BufferSearch.search(view, buffers);
+				}
+				else if (actionCommand.equals("copy-paths"))
 				{
 					StringBuilder pathStrings = new StringBuilder();
 					for (TreePath path : sel)
@@ -279,6 +406,14 @@ public class BufferListPopup extends JPopupMenu
 							{
 								buffer.reload(view);
 							}
+							else if (actionCommand.equals("pin"))
+							{
+								BufferReaper.setPinned(buffer, true);
+							}
+							else if (actionCommand.equals("unpin"))
+							{
+								BufferReaper.setPinned(buffer, false);
+							}
 						}
 					}
 				}
@@ -28,19 +28,22 @@ import gnu.regexp.REException;
 
 import java.awt.Color;
 import java.awt.Component;
+import java.awt.Dimension;
 import java.awt.Font;
 import java.awt.FontMetrics;
 import java.awt.Graphics;
+import java.awt.Insets;
 import java.awt.Rectangle;
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.WeakHashMap;
 
+import javax.swing.Icon;
 import javax.swing.JTree;
 import javax.swing.UIManager;
 import javax.swing.tree.DefaultTreeCellRenderer;
 
 import org.gjt.sp.jedit.Buffer;
-import org.gjt.sp.jedit.MiscUtilities;
 import org.gjt.sp.jedit.View;
 import org.gjt.sp.jedit.jEdit;
 import org.gjt.sp.util.Log;
@@ -55,7 +58,28 @@ public class BufferListRenderer extends DefaultTreeCellRenderer
 	// {{{ constants
 	private static final String USER_HOME = System.getProperty("user.home");
 
-	private static final String USER_HOME_SEP = USER_HOME + java.io.File.separator;// }}}
+	private static final String USER_HOME_SEP = USER_HOME + java.io.File.separator;
+
+	private static final Color COLOR_CHANGED = new Color(0xe0, 0x80, 0x00);
+
+	private static final Color COLOR_DELETED = new Color(0xd0, 0x00, 0x00);
+
+	/**
+	 * Badge of buffers whose file is open in another buffer, too.
+	 */
+	private static final Color COLOR_DUPLICATE = new Color(0x80, 0x40, 0xc0);
+
+	/**
+	 * Badge of directories containing changed or deleted files.
+	 */
+	private static final Icon DIR_BADGE = new BadgeIcon(null, COLOR_CHANGED);
+
+	private static final Color COLOR_UNSAVED = new Color(0x20, 0x60, 0xd0);
+
+	/**
+	 * Badge of collapsed directories containing unsaved buffers.
+	 */
+	private static final Icon UNSAVED_DIR_BADGE = new BadgeIcon(null, COLOR_UNSAVED);// }}}
 
 	// {{{ instance variables
 	private View view;
@@ -70,6 +94,28 @@ public class BufferListRenderer extends DefaultTreeCellRenderer
 	 */
 	private WeakHashMap<String, Color> name2color;
 
+	/**
+	 * Cache of clipped labels, keyed by the unclipped label.
+	 */
+	private WeakHashMap<String, ClipEntry> clipCache;
+
+	/**
+	 * Cache of label widths in the normal and in the bold font; only used in
+	 * large model mode.
+	 */
+	private WeakHashMap<String, Integer> widthsNormal, widthsSelected;
+
+	/**
+	 * Whether the tree has a fixed row height, see {@link #setLargeModel(boolean)}.
+	 */
+	private boolean largeModel;
+
+	/**
+	 * Buffer icons with the badges of changed, deleted and duplicate files,
+	 * by icon.
+	 */
+	private HashMap<Icon, Icon> changedIcons, deletedIcons, duplicateIcons;
+
 	private Color colNormal = UIManager.getColor("Tree.foreground");
 
 	private Color colSelected = UIManager.getColor("Tree.selectionForeground");
@@ -89,6 +135,11 @@ public class BufferListRenderer extends DefaultTreeCellRenderer
 	 */
 	private int textClipping;
 
+	/**
+	 * Whether directory rows show the numbers of files and unsaved files.
+	 */
+	private boolean showDirCounts;
+
 	/**
 	 * Tree control.
 	 */
@@ -104,7 +155,14 @@ public class BufferListRenderer extends DefaultTreeCellRenderer
 	{
 		this.view = view;
 		name2color = new WeakHashMap<String, Color>();
+		clipCache = new WeakHashMap<String, ClipEntry>();
+		widthsNormal = new WeakHashMap<String, Integer>();
+		widthsSelected = new WeakHashMap<String, Integer>();
+		changedIcons = new HashMap<Icon, Icon>();
+		deletedIcons = new HashMap<Icon, Icon>();
+		duplicateIcons = new HashMap<Icon, Icon>();
 		textClipping = jEdit.getIntegerProperty("bufferlist.textClipping", 1);
+		showDirCounts = jEdit.getBooleanProperty("bufferlist.dirCounts", true);
 
 		Font font = jEdit.getFontProperty("bufferlist.font", UIManager.getFont("Tree.font"));
 		fontNormal = font.deriveFont(font.isItalic() ? Font.ITALIC : Font.PLAIN);
@@ -114,7 +172,9 @@ public class BufferListRenderer extends DefaultTreeCellRenderer
 	// {{{ +getTreeCellRendererComponent(JTree, Object, boolean, boolean,
 	// boolean, int, boolean) : Component
 	/**
-	 * Configures the renderer.
+	 * Configures the renderer. This is called for every visible row on every
+	 * repaint, so it must not allocate or look up properties; tooltips are
+	 * provided by the tree itself.
 	 *
 	 * @return this
 	 */
@@ -134,41 +194,110 @@ public class BufferListRenderer extends DefaultTreeCellRenderer
 			// Buffer entry
 			Buffer buffer = node.getBuffer();
 			String name = buffer.getName();
-			setText(name);
-			setToolTipText(node.getUserPath());
-			setIcon(buffer.getIcon());
+			String label = BufferSearch.getLabel(buffer);
+			setText(label == null ? name : label);
+			setIcon(getIcon(buffer));
 			setFont(buffer == view.getBuffer() ? fontSelected : fontNormal);
 			setForeground(isSelected ? colSelected : getColor(name));
 		}
 		else if (node.isDirNode())
 		{
-			// Directory entry
-			String path = (String) node.getUserObject();
-			if (jEdit.getBooleanProperty("bufferlist.shortenHome", true))
+			// Directory entry; the label has been abbreviated by BufferList
+			// when the model was built
+			setText(showDirCounts ? node.getLabelWithCounts() : node.getLabel());
+			if (ExternalChanges.hasChangesBelow(node.getUserPath()))
 			{
-				path = MiscUtilities.abbreviate(path);
+				setIcon(DIR_BADGE);
+			}
+			else
+			{
+				setIcon(!isExpanded && node.getDirtyCount() > 0 ? UNSAVED_DIR_BADGE : null);
 			}
-			// setText((node.isExpanded()?"+":"-")+node.getReused()+":"+obj.toString());
-			// // NOTE: debug only
-			setText(path);
-			setToolTipText(node.getUserPath());
-			setIcon(null);
 			setFont(fontNormal);
 			setForeground(isSelected ? colSelected : colNormal);
 		}
+		else if (node.isGroupNode())
+		{
+			setText(node.getLabel());
+			setIcon(null);
+			setFont(fontSelected);
+			setForeground(isSelected ? colSelected : colNormal);
+		}
 
 		return this;
 	} // }}}
 
+	// {{{ +setLargeModel(boolean) : void
+	/**
+	 * In large model mode, the tree has a fixed row height and the preferred
+	 * size of a row is computed from cached label widths instead of by
+	 * laying out the label.
+	 */
+	public void setLargeModel(boolean largeModel)
+	{
+		this.largeModel = largeModel;
+	} // }}}
+
+	// {{{ +getFixedRowHeight() : int
+	/**
+	 * @return the height of a row that fits a 16 pixel icon and a label in
+	 *         the normal or the bold font.
+	 */
+	public int getFixedRowHeight()
+	{
+		int height = Math.max(16, Math.max(getFontMetrics(fontNormal).getHeight(),
+			getFontMetrics(fontSelected).getHeight()));
+		Insets insets = getInsets();
+		return height + insets.top + insets.bottom;
+	} // }}}
+
+	// {{{ +getPreferredSize() : Dimension
+	/**
+	 * In large model mode, this is called for every row laid out, so the
+	 * width of the label is measured once and cached.
+	 */
+	@Override
+	public Dimension getPreferredSize()
+	{
+		if (!largeModel)
+		{
+			return super.getPreferredSize();
+		}
+		String text = getText();
+		int width = 0;
+		if (text != null)
+		{
+			WeakHashMap<String, Integer> widths = getFont() == fontSelected ? widthsSelected
+				: widthsNormal;
+			Integer cached = widths.get(text);
+			BufferListMetrics.cacheLookup(BufferListMetrics.WIDTH_CACHE, cached != null);
+			if (cached == null)
+			{
+				cached = Integer.valueOf(getFontMetrics(getFont()).stringWidth(text));
+				widths.put(text, cached);
+			}
+			width = cached.intValue();
+		}
+		Icon icon = getIcon();
+		if (icon != null)
+		{
+			width += icon.getIconWidth() + getIconTextGap();
+		}
+		Insets insets = getInsets();
+		// DefaultTreeCellRenderer adds 3 pixels, too
+		return new Dimension(width + insets.left + insets.right + 3, tree == null ? 0 : tree
+			.getRowHeight());
+	} // }}}
+
 	// {{{ +paintComponent(Graphics g) : void
 	public void paintComponent(Graphics g)
 	{
+		long start = System.nanoTime();
 		if (textClipping != 0)
 		{
 			String toShow = getText();
 			Rectangle bounds = tree.getRowBounds(row);
 			FontMetrics fm = getFontMetrics(getFont());
-			int width = fm.stringWidth(toShow);
 			int textStart = (int) bounds.getX();
 
 			if (getIcon() != null)
@@ -176,48 +305,114 @@ public class BufferListRenderer extends DefaultTreeCellRenderer
 				textStart += getIcon().getIconWidth() + getIconTextGap();
 			}
 
-			if (textStart < tree.getParent().getWidth()
-				&& textStart + width > tree.getParent().getWidth())
+			int parentWidth = tree.getParent().getWidth();
+			if (textStart < parentWidth)
 			{
-				// figure out how much to clip
-				int availableWidth = tree.getParent().getWidth() - textStart
-					- fm.stringWidth("...");
-				int shownChars = 0;
-				for (int i = 1; i < toShow.length(); i++)
+				int availableWidth = parentWidth - textStart;
+				ClipEntry clipped = clipCache.get(toShow);
+				boolean hit = clipped != null && clipped.availableWidth == availableWidth
+					&& clipped.font == fm.getFont();
+				BufferListMetrics.cacheLookup(BufferListMetrics.CLIP_CACHE, hit);
+				if (!hit)
 				{
-					width = (textClipping == 1) // clip at start
-					? fm.stringWidth(toShow.substring(toShow.length() - i, toShow.length()))
-						: fm.stringWidth(toShow.substring(0, i));
-					if (width < availableWidth)
-					{
-						shownChars++;
-					}
-					else
-					{
-						break;
-					}
+					String text = clip(toShow, fm, availableWidth);
+					// the entry must not refer to its key, or it is never
+					// collected
+					clipped = new ClipEntry(availableWidth, fm.getFont(), text == toShow ? null
+						: text);
+					clipCache.put(toShow, clipped);
 				}
-
-				if (shownChars > 0)
+				if (clipped.text != null)
 				{
-					// ask the node whether it wants to be clipped at the start
-					// or
-					// at the end of the string
-					if (textClipping == 1)
-					{
-						toShow = "..."
-							+ toShow.substring(toShow.length() - shownChars, toShow.length());
-					}
-					else
-					{
-						toShow = toShow.substring(0, shownChars) + "...";
-					}
-					setText(toShow);
+					setText(clipped.text);
 				}
 			}
 		}
 
 		super.paintComponent(g);
+		BufferListMetrics.recordTime(BufferListMetrics.RENDERER_PAINT, start);
+	} // }}}
+
+	// {{{ -clip(String, FontMetrics, int) : String
+	/**
+	 * @return the text clipped with "..." so that it fits into
+	 *         <code>availableWidth</code>, or <code>toShow</code> itself if
+	 *         it fits or cannot be clipped.
+	 */
+	private String clip(String toShow, FontMetrics fm, int availableWidth)
+	{
+		if (fm.stringWidth(toShow) <= availableWidth)
+		{
+			return toShow;
+		}
+		// figure out how much to clip
+		availableWidth -= fm.stringWidth("...");
+		int shownChars = 0;
+		for (int i = 1; i < toShow.length(); i++)
+		{
+			int width = (textClipping == 1) // clip at start
+			? fm.stringWidth(toShow.substring(toShow.length() - i, toShow.length()))
+				: fm.stringWidth(toShow.substring(0, i));
+			if (width < availableWidth)
+			{
+				shownChars++;
+			}
+			else
+			{
+				break;
+			}
+		}
+
+		if (shownChars == 0)
+		{
+			return toShow;
+		}
+		// ask the node whether it wants to be clipped at the start or
+		// at the end of the string
+		if (textClipping == 1)
+		{
+			return "..." + toShow.substring(toShow.length() - shownChars, toShow.length());
+		}
+		else
+		{
+			return toShow.substring(0, shownChars) + "...";
+		}
+	} // }}}
+
+	// {{{ -getIcon(Buffer) : Icon
+	/**
+	 * @return the icon of a buffer, with a badge if its file has been changed
+	 *         or deleted on disk, or if it is open in another buffer, too.
+	 */
+	private Icon getIcon(Buffer buffer)
+	{
+		Icon icon = buffer.getIcon();
+		int state = ExternalChanges.getState(buffer);
+		if (state == ExternalChanges.DELETED)
+		{
+			return getBadge(icon, deletedIcons, COLOR_DELETED);
+		}
+		if (state == ExternalChanges.CHANGED)
+		{
+			return getBadge(icon, changedIcons, COLOR_CHANGED);
+		}
+		if (CanonicalPaths.getDuplicateOf(buffer) != null)
+		{
+			return getBadge(icon, duplicateIcons, COLOR_DUPLICATE);
+		}
+		return icon;
+	} // }}}
+
+	// {{{ -getBadge(Icon, HashMap<Icon, Icon>, Color) : Icon
+	private static Icon getBadge(Icon icon, HashMap<Icon, Icon> badged, Color color)
+	{
+		Icon badge = badged.get(icon);
+		if (badge == null)
+		{
+			badge = new BadgeIcon(icon, color);
+			badged.put(icon, badge);
+		}
+		return badge;
 	} // }}}
 
 	// {{{ -getColor(String) : Color
@@ -229,20 +424,23 @@ public class BufferListRenderer extends DefaultTreeCellRenderer
 	private Color getColor(String name)
 	{
 		Color col = name2color.get(name);
+		BufferListMetrics.cacheLookup(BufferListMetrics.COLOR_CACHE, col != null);
 		if (col != null)
 		{
 			return col;
 		}
 		loadColors();
+		col = colNormal;
 		for (ColorEntry entry : colors)
 		{
 			if (entry.re.isMatch(name))
 			{
-				name2color.put(name, entry.color);
-				return entry.color;
+				col = entry.color;
+				break;
 			}
 		}
-		return colNormal;
+		name2color.put(name, col);
+		return col;
 	} // }}}
 
 	// {{{ -loadColors() : void
@@ -297,4 +495,71 @@ public class BufferListRenderer extends DefaultTreeCellRenderer
 			this.color = color;
 		}
 	} // }}}
+
+	// {{{ -class BadgeIcon
+	/**
+	 * An icon with a dot in its lower right corner.
+	 */
+	private static class BadgeIcon implements Icon
+	{
+		private static final int SIZE = 6;
+
+		private final Icon base;
+
+		private final Color color;
+
+		BadgeIcon(Icon base, Color color)
+		{
+			this.base = base;
+			this.color = color;
+		}
+
+		public int getIconWidth()
+		{
+			return base == null ? SIZE + 2 : base.getIconWidth();
+		}
+
+		public int getIconHeight()
+		{
+			return base == null ? SIZE + 2 : base.getIconHeight();
+		}
+
+		public void paintIcon(Component c, Graphics g, int x, int y)
+		{
+			if (base != null)
+			{
+				base.paintIcon(c, g, x, y);
+			}
+			Color old = g.getColor();
+			g.setColor(color);
+			g.fillOval(x + getIconWidth() - SIZE, y + getIconHeight() - SIZE, SIZE, SIZE);
+			g.setColor(old);
+		}
+	} // }}}
+
+	// {{{ -class ClipEntry
+	private static class ClipEntry
+	{
+		/**
+		 * Width the label was clipped to.
+		 */
+		final int availableWidth;
+
+		/**
+		 * Font the label was measured with.
+		 */
+		final Font font;
+
+		/**
+		 * Clipped label, or null if the label fits.
+		 */
+		final String text;
+
+		ClipEntry(int availableWidth, Font font, String text)
+		{
+			this.availableWidth = availableWidth;
+			this.font = font;
+			this.text = text;
+		}
+	} // }}}
 }
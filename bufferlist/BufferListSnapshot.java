@@ -0,0 +1,438 @@
+/*{{{ header
+ * BufferListSnapshot.java - immutable view of the buffers shown by a BufferList
+ *
+ * :tabSize=4:indentSize=4:noTabs=false:maxLineLen=0:folding=explicit:collapseFolds=1:
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA 02111-1307, USA.
+ *}}}
+ */
+package bufferlist;
+
+// {{{ imports
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.gjt.sp.jedit.Buffer;
+import org.gjt.sp.jedit.View;
+
+// }}}
+
+/**
+ * The buffers shown by a BufferList at one point in time: in the order of
+ * the tree, with their groups, paths and dirty flags. Snapshots are
+ * immutable, so they can be queried from any thread without locking; get the
+ * current one with {@link BufferList#getSnapshot(View)} or
+ * {@link BufferList#getSnapshot()}, e.g. from a macro:
+ *
+ * <pre>
+ * snapshot = bufferlist.BufferList.getSnapshot(view);
+ * next = snapshot.getNext(buffer.getPath());
+ * </pre>
+ *
+ * A new snapshot is published after the tree has changed. It shares the
+ * {@link Entry} and {@link Group} objects of the previous one that have not
+ * changed, so consumers can compare them by identity. Only those are
+ * shared: the list of entries and the lookup maps are built anew for every
+ * snapshot. Publishing therefore costs O(n) time and allocation on the event
+ * dispatch thread per change of the tree, n being the number of buffers; a
+ * burst of changes handled in one event costs one snapshot.
+ * <p>
+ * Lookups by path, by buffer and by directory are O(1), as are
+ * {@link #getNext(String)} and {@link #getPrevious(String)}.
+ */
+public final class BufferListSnapshot
+{
+	/**
+	 * The snapshot of a BufferList that has not been shown yet.
+	 */
+	public static final BufferListSnapshot EMPTY = new BufferListSnapshot(0,
+		new ArrayList<Group>(), new ArrayList<Entry>());
+
+	// {{{ instance variables
+	private final long sequence;
+
+	private final List<Group> groups;
+
+	/**
+	 * Each buffer once, in the order of the tree.
+	 */
+	private final List<Entry> entries;
+
+	private final Map<String, Group> groupsByKey;
+
+	private final Map<String, Integer> indexByPath;
+
+	private final Map<Buffer, Integer> indexByBuffer;
+
+	private final Map<String, List<Entry>> entriesByDir;
+
+	private final int dirtyCount; // }}}
+
+	// {{{ -BufferListSnapshot(long, List<Group>, List<Entry>) : <init>
+	private BufferListSnapshot(long sequence, List<Group> groups, List<Entry> entries)
+	{
+		this.sequence = sequence;
+		this.groups = Collections.unmodifiableList(groups);
+		this.entries = Collections.unmodifiableList(entries);
+		groupsByKey = new HashMap<String, Group>();
+		for (Group group : groups)
+		{
+			groupsByKey.put(group.key, group);
+		}
+		indexByPath = new HashMap<String, Integer>();
+		indexByBuffer = new IdentityHashMap<Buffer, Integer>();
+		Map<String, List<Entry>> byDir = new HashMap<String, List<Entry>>();
+		int dirty = 0;
+		for (int i = 0; i < entries.size(); i++)
+		{
+			Entry entry = entries.get(i);
+			Integer index = Integer.valueOf(i);
+			indexByPath.put(entry.path, index);
+			indexByBuffer.put(entry.buffer, index);
+			List<Entry> inDir = byDir.get(entry.dir);
+			if (inDir == null)
+			{
+				inDir = new ArrayList<Entry>();
+				byDir.put(entry.dir, inDir);
+			}
+			inDir.add(entry);
+			if (entry.dirty)
+			{
+				dirty++;
+			}
+		}
+		for (Map.Entry<String, List<Entry>> e : byDir.entrySet())
+		{
+			e.setValue(Collections.unmodifiableList(e.getValue()));
+		}
+		entriesByDir = byDir;
+		dirtyCount = dirty;
+	} // }}}
+
+	// {{{ create(BufferListSnapshot, List<BufferGroup>, List<List<BufferEntry>>) : BufferListSnapshot
+	/**
+	 * Creates the snapshot following <code>previous</code>, reusing its
+	 * entries and groups where they have not changed. Called on the event
+	 * dispatch thread; O(n), see the class comment.
+	 *
+	 * @param members
+	 *            the buffers of each group, in the order of the tree
+	 * @return <code>previous</code> itself if nothing has changed, otherwise
+	 *         a snapshot whose sequence number is one higher. BufferList
+	 *         sends a {@link BufferListChanged} for every snapshot returned
+	 *         that is not <code>previous</code>, which the message relies on
+	 *         for its gap-free sequence numbers.
+	 */
+	static BufferListSnapshot create(BufferListSnapshot previous, List<BufferGroup> bufferGroups,
+		List<List<BufferEntry>> members)
+	{
+		boolean changed = bufferGroups.size() != previous.groups.size();
+		List<Group> groups = new ArrayList<Group>(bufferGroups.size());
+		List<Entry> entries = new ArrayList<Entry>();
+		Map<Buffer, Entry> seen = new IdentityHashMap<Buffer, Entry>();
+		for (int i = 0; i < bufferGroups.size(); i++)
+		{
+			BufferGroup bufferGroup = bufferGroups.get(i);
+			List<BufferEntry> groupMembers = members.get(i);
+			Group oldGroup = previous.groupsByKey.get(bufferGroup.getKey());
+			boolean groupChanged = oldGroup == null
+				|| !oldGroup.label.equals(bufferGroup.getLabel())
+				|| oldGroup.entries.size() != groupMembers.size();
+			List<Entry> groupEntries = new ArrayList<Entry>(groupMembers.size());
+			for (int j = 0; j < groupMembers.size(); j++)
+			{
+				BufferEntry member = groupMembers.get(j);
+				Entry entry = seen.get(member.getBuffer());
+				if (entry == null)
+				{
+					entry = previous.getEntry(member.getBuffer());
+					if (entry == null || !entry.matches(member, bufferGroup.getKey()))
+					{
+						entry = new Entry(member, bufferGroup.getKey());
+					}
+					seen.put(member.getBuffer(), entry);
+					if (!changed
+						&& (entries.size() >= previous.entries.size() || previous.entries
+							.get(entries.size()) != entry))
+					{
+						changed = true;
+					}
+					entries.add(entry);
+				}
+				if (!groupChanged && oldGroup.entries.get(j) != entry)
+				{
+					groupChanged = true;
+				}
+				groupEntries.add(entry);
+			}
+			Group group = groupChanged ? new Group(bufferGroup, groupEntries) : oldGroup;
+			if (!changed && previous.groups.get(i) != group)
+			{
+				changed = true;
+			}
+			groups.add(group);
+		}
+		if (!changed && entries.size() == previous.entries.size())
+		{
+			return previous;
+		}
+		return new BufferListSnapshot(previous.sequence + 1, groups, entries);
+	} // }}}
+
+	// {{{ +getSequence() : long
+	/**
+	 * @return the number of this snapshot; it is incremented with every
+	 *         change of the BufferList.
+	 */
+	public long getSequence()
+	{
+		return sequence;
+	} // }}}
+
+	// {{{ +size() : int
+	/**
+	 * @return the number of distinct buffers.
+	 */
+	public int size()
+	{
+		return entries.size();
+	} // }}}
+
+	// {{{ +getDirtyCount() : int
+	public int getDirtyCount()
+	{
+		return dirtyCount;
+	} // }}}
+
+	// {{{ +getEntries() : List<Entry>
+	/**
+	 * @return each buffer once, in the order of the tree; a buffer shown in
+	 *         several groups is listed at its first occurrence.
+	 */
+	public List<Entry> getEntries()
+	{
+		return entries;
+	} // }}}
+
+	// {{{ +getGroups() : List<Group>
+	/**
+	 * @return the groups in the order of the tree; a single group with key
+	 *         "ROOT" if the buffers are not grouped.
+	 */
+	public List<Group> getGroups()
+	{
+		return groups;
+	} // }}}
+
+	// {{{ +getGroup(String) : Group
+	public Group getGroup(String key)
+	{
+		return groupsByKey.get(key);
+	} // }}}
+
+	// {{{ +getEntry(String) : Entry
+	/**
+	 * @return the entry of the buffer with the given path, or null.
+	 */
+	public Entry getEntry(String path)
+	{
+		Integer index = indexByPath.get(path);
+		return index == null ? null : entries.get(index.intValue());
+	} // }}}
+
+	// {{{ +getEntry(Buffer) : Entry
+	public Entry getEntry(Buffer buffer)
+	{
+		Integer index = indexByBuffer.get(buffer);
+		return index == null ? null : entries.get(index.intValue());
+	} // }}}
+
+	// {{{ +getEntriesInDirectory(String) : List<Entry>
+	/**
+	 * @param dir
+	 *            a directory as returned by {@link Entry#getDir()}
+	 * @return the buffers directly in the directory, in the order of the tree.
+	 */
+	public List<Entry> getEntriesInDirectory(String dir)
+	{
+		List<Entry> inDir = entriesByDir.get(dir);
+		return inDir == null ? Collections.<Entry> emptyList() : inDir;
+	} // }}}
+
+	// {{{ +indexOf(String) : int
+	/**
+	 * @return the position of the buffer with the given path in
+	 *         {@link #getEntries()}, or -1.
+	 */
+	public int indexOf(String path)
+	{
+		Integer index = indexByPath.get(path);
+		return index == null ? -1 : index.intValue();
+	} // }}}
+
+	// {{{ indexOf(Buffer) : int
+	/**
+	 * @return the position of the buffer in {@link #getEntries()}, or -1.
+	 */
+	int indexOf(Buffer buffer)
+	{
+		Integer index = indexByBuffer.get(buffer);
+		return index == null ? -1 : index.intValue();
+	} // }}}
+
+	// {{{ +getNext(String) : Entry
+	/**
+	 * @return the entry after the buffer with the given path, wrapping
+	 *         around at the end; null if the path is not in this snapshot.
+	 */
+	public Entry getNext(String path)
+	{
+		int index = indexOf(path);
+		return index < 0 ? null : entries.get((index + 1) % entries.size());
+	} // }}}
+
+	// {{{ +getPrevious(String) : Entry
+	/**
+	 * @return the entry before the buffer with the given path, wrapping
+	 *         around at the start; null if the path is not in this snapshot.
+	 */
+	public Entry getPrevious(String path)
+	{
+		int index = indexOf(path);
+		return index < 0 ? null : entries.get((index + entries.size() - 1) % entries.size());
+	} // }}}
+
+	// {{{ +class Entry
+	/**
+	 * A buffer as it was when the snapshot was taken.
+	 */
+	public static final class Entry
+	{
+		private final Buffer buffer;
+
+		private final String path, dir, name, groupKey;
+
+		private final boolean dirty;
+
+		Entry(BufferEntry entry, String groupKey)
+		{
+			this.buffer = entry.getBuffer();
+			this.path = entry.getPath();
+			this.dir = entry.getDir();
+			this.name = entry.getName();
+			this.groupKey = groupKey;
+			this.dirty = entry.isDirty();
+		}
+
+		boolean matches(BufferEntry entry, String groupKey)
+		{
+			return entry.getPath().equals(path) && entry.getDir().equals(dir)
+				&& entry.isDirty() == dirty && this.groupKey.equals(groupKey);
+		}
+
+		/**
+		 * @return the buffer; its methods must be called on the event
+		 *         dispatch thread, as usual.
+		 */
+		public Buffer getBuffer()
+		{
+			return buffer;
+		}
+
+		public String getPath()
+		{
+			return path;
+		}
+
+		/**
+		 * @return the directory the buffer is shown in; symbolic links are
+		 *         resolved, see {@link CanonicalPaths}.
+		 */
+		public String getDir()
+		{
+			return dir;
+		}
+
+		public String getName()
+		{
+			return name;
+		}
+
+		/**
+		 * @return the key of the first group the buffer is shown in.
+		 */
+		public String getGroupKey()
+		{
+			return groupKey;
+		}
+
+		public boolean isDirty()
+		{
+			return dirty;
+		}
+
+		@Override
+		public String toString()
+		{
+			return path;
+		}
+	} // }}}
+
+	// {{{ +class Group
+	/**
+	 * A top level group of the tree.
+	 */
+	public static final class Group
+	{
+		private final String key, label;
+
+		private final List<Entry> entries;
+
+		Group(BufferGroup group, List<Entry> entries)
+		{
+			this.key = group.getKey();
+			this.label = group.getLabel();
+			this.entries = Collections.unmodifiableList(entries);
+		}
+
+		public String getKey()
+		{
+			return key;
+		}
+
+		public String getLabel()
+		{
+			return label;
+		}
+
+		/**
+		 * @return the buffers of the group, in the order of the tree.
+		 */
+		public List<Entry> getEntries()
+		{
+			return entries;
+		}
+
+		@Override
+		public String toString()
+		{
+			return label;
+		}
+	} // }}}
+}
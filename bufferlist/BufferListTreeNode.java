@@ -22,31 +22,74 @@
 package bufferlist;
 
 // {{{ imports
-import javax.swing.tree.DefaultMutableTreeNode;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Enumeration;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+import javax.swing.tree.MutableTreeNode;
+import javax.swing.tree.TreeNode;
+import javax.swing.tree.TreePath;
 
 import org.gjt.sp.jedit.Buffer;
+import org.gjt.sp.jedit.jEdit;
 
 // }}}
 
 /**
- * This is the tree node.
+ * This is the tree node. It provides the part of the
+ * <code>DefaultMutableTreeNode</code> API BufferList uses, with less heap
+ * per node: a buffer node has no children array, no path of its own (it is
+ * the path of the buffer) and its flags packed into one byte; the children
+ * and the path and label of directory and group nodes are held in a
+ * {@link Branch}, which buffer nodes do not have. {@link #getTreePath()}
+ * returns a cached path that shares the path of the parent.
+ * <p>
+ * Directory and group nodes count the buffer nodes and the dirty buffer
+ * nodes below them. The counts are updated in O(depth) whenever a subtree
+ * is inserted or removed, and by {@link #updateDirty()}.
  */
-public class BufferListTreeNode extends DefaultMutableTreeNode
+public class BufferListTreeNode implements MutableTreeNode
 {
-	private static final long serialVersionUID = 1L;
+	// {{{ flags
+	private static final byte ALLOWS_CHILDREN = 1;
+
+	private static final byte EXPANDED = 2;
+
+	private static final byte CONNECTED = 4;
+
+	/**
+	 * Set on buffer nodes whose buffer was dirty when last counted.
+	 */
+	private static final byte DIRTY = 8; // }}}
+
+	private static final BufferListTreeNode[] NO_CHILDREN = new BufferListTreeNode[0];
 
 	// {{{instance variables
+	private BufferListTreeNode parent;
+
 	/**
-	 * Path to this node in VFS. UserObject represents the label of the node and
-	 * so getUserObject()!=user_path for directory nodes.
+	 * The Buffer, BufferGroup or directory; for directory nodes the part of
+	 * the path not shown by the parent.
 	 */
-	private String user_path;
+	private Object userObject;
 
-	// private boolean used = false;
+	/**
+	 * Children, path and label; null for nodes that do not allow children,
+	 * i.e. buffer nodes.
+	 */
+	private Branch branch;
+
+	/**
+	 * The last path returned by getTreePath(); valid as long as its parent
+	 * path is the path of the parent.
+	 */
+	private TreePath treePath;
 
-	private boolean expanded;
+	// private boolean used = false;
 
-	private boolean isConnected;
+	private byte flags;
 
 	// private int reused = 0; // NOTE: debug only
 	// }}}
@@ -54,61 +97,72 @@ public class BufferListTreeNode extends DefaultMutableTreeNode
 	// {{{ +BufferListTreeNode(Object userObject) : <init>
 	public BufferListTreeNode(Object userObject)
 	{
-		super(userObject);
-		init(userObject);
+		this(userObject, true);
 	} // }}}
 
 	// {{{ +BufferListTreeNode(Object userObject, boolean allowsChildren) :
 	// <init>
 	public BufferListTreeNode(Object userObject, boolean allowsChildren)
 	{
-		super(userObject, allowsChildren);
-		init(userObject);
+		this.userObject = userObject;
+		if (allowsChildren)
+		{
+			flags = ALLOWS_CHILDREN;
+			branch = new Branch(getPathOf(userObject));
+		}
+		else if (userObject instanceof Buffer && ((Buffer) userObject).isDirty())
+		{
+			flags = DIRTY;
+		}
+		reset();
 	} // }}}
 
 	public void reset()
 	{
 		// reused += 1; // NOTE: debug only
 		// used = false;
-		expanded = false;
-		isConnected = false;
+		flags &= ALLOWS_CHILDREN | DIRTY;
 		//restore label of the node
-		if (isDirNode())
+		if (isDirNode() && branch != null)
 		{
-			setUserObject(user_path);
+			setUserObject(branch.path);
+			setLabel(null);
 		}
 	}
 
-	private void init(Object userObject)
+	private static String getPathOf(Object userObject)
 	{
 		if (userObject instanceof Buffer)
 		{
-			user_path = ((Buffer) userObject).getPath();
+			return ((Buffer) userObject).getPath();
 		}
 		else if (userObject instanceof String)
 		{
-			user_path = (String) userObject;
+			return (String) userObject;
+		}
+		else if (userObject instanceof BufferGroup)
+		{
+			return ((BufferGroup) userObject).getKey();
 		}
 		else
 		{
-			user_path = "ERROR";
+			return "ERROR";
 		}
-		reset();
 	}
 
 	public void setExpanded(boolean expanded)
 	{
-		this.expanded = expanded;
+		flags = (byte) (expanded ? flags | EXPANDED : flags & ~EXPANDED);
 	}
 
 	public void setConnected()
 	{
-		isConnected = true;
+		flags |= CONNECTED;
 	}
 
 	public boolean isConnected()
 	{
-		return isConnected;
+		return (flags & CONNECTED) != 0;
 	}
 
 	/*
@@ -116,28 +170,543 @@ public class BufferListTreeNode extends DefaultMutableTreeNode
 	 * obj.toString(); }
 	 */
 
+	/**
+	 * @return the path of the buffer or directory, or the key of the group.
+	 */
 	public String getUserPath()
 	{
-		return user_path;
+		return branch != null ? branch.path : getPathOf(userObject);
+	}
+
+	/**
+	 * @return the text to show for this node: the buffer name for buffer
+	 *         nodes, the (abbreviated) path label for directory nodes.
+	 */
+	public String getLabel()
+	{
+		if (isBuffer())
+		{
+			return getBuffer().getName();
+		}
+		if (branch != null && branch.label != null)
+		{
+			return branch.label;
+		}
+		return String.valueOf(userObject);
+	}
+
+	public void setLabel(String label)
+	{
+		if (branch != null)
+		{
+			branch.label = label;
+			branch.countsLabel = null;
+		}
+	}
+
+	// {{{ +getFileCount() : int
+	/**
+	 * @return the number of buffer nodes below this node; 1 for a buffer
+	 *         node, i.e. a node that does not allow children.
+	 */
+	public int getFileCount()
+	{
+		return branch != null ? branch.files : 1;
+	} // }}}
+
+	// {{{ +getDirtyCount() : int
+	/**
+	 * @return the number of buffer nodes below this node whose buffer is
+	 *         dirty; for a buffer node 1 if its buffer is dirty.
+	 */
+	public int getDirtyCount()
+	{
+		return branch != null ? branch.dirty : (flags & DIRTY) != 0 ? 1 : 0;
+	} // }}}
+
+	// {{{ +getLabelWithCounts() : String
+	/**
+	 * @return the label followed by the numbers of files and unsaved files
+	 *         below this node, e.g. "src/ (12 files, 3 unsaved)"; built once
+	 *         per change of the label or the counts.
+	 */
+	public String getLabelWithCounts()
+	{
+		if (branch == null)
+		{
+			return getLabel();
+		}
+		if (branch.countsLabel == null)
+		{
+			branch.countsLabel = jEdit.getProperty("bufferlist.dirCounts.label", new Object[] {
+				getLabel(), Integer.valueOf(branch.files), Integer.valueOf(branch.dirty) });
+		}
+		return branch.countsLabel;
+	} // }}}
+
+	// {{{ +updateDirty() : boolean
+	/**
+	 * Counts the buffer of a buffer node again after its dirty flag may
+	 * have changed, updating the counts of the ancestors.
+	 *
+	 * @return true if the dirty flag has changed since the buffer was last
+	 *         counted.
+	 */
+	public boolean updateDirty()
+	{
+		return isBuffer() && setDirty(getBuffer().isDirty());
+	} // }}}
+
+	// {{{ setDirty(boolean) : boolean
+	/**
+	 * Counts a buffer node as dirty or not, updating the counts of the
+	 * ancestors.
+	 *
+	 * @return true if the dirty flag has changed.
+	 */
+	boolean setDirty(boolean dirty)
+	{
+		if (branch != null || dirty == ((flags & DIRTY) != 0))
+		{
+			return false;
+		}
+		flags ^= DIRTY;
+		if (parent != null)
+		{
+			parent.addCounts(0, dirty ? 1 : -1);
+		}
+		return true;
+	} // }}}
+
+	// {{{ -addCounts(int, int) : void
+	/**
+	 * Adds to the counts of this node and its ancestors.
+	 */
+	private void addCounts(int files, int dirty)
+	{
+		if (files == 0 && dirty == 0)
+		{
+			return;
+		}
+		for (BufferListTreeNode node = this; node != null; node = node.parent)
+		{
+			node.branch.files += files;
+			node.branch.dirty += dirty;
+			node.branch.countsLabel = null;
+		}
+	} // }}}
+
+	/**
+	 * Takes the user object and label of a node of a newly built tree that
+	 * replaces this one; the expansion state is kept.
+	 *
+	 * @return true if the text shown for the node has changed.
+	 */
+	boolean takeOver(BufferListTreeNode node)
+	{
+		String oldLabel = getLabel();
+		setUserObject(node.userObject);
+		if (node.branch != null)
+		{
+			setLabel(node.branch.label);
+		}
+		flags = (byte) ((flags & ~CONNECTED) | (node.flags & CONNECTED));
+		return !oldLabel.equals(getLabel());
 	}
 
 	public Buffer getBuffer()
 	{
-		return (Buffer) getUserObject();
+		return (Buffer) userObject;
 	}
 
 	public boolean isExpanded()
 	{
-		return expanded;
+		return (flags & EXPANDED) != 0;
 	}
 
 	public boolean isBuffer()
 	{
-		return (getUserObject() instanceof Buffer);
+		return (userObject instanceof Buffer);
 	}
 
 	public boolean isDirNode()
 	{
-		return (getUserObject() instanceof String);
+		return (userObject instanceof String);
+	}
+
+	public boolean isGroupNode()
+	{
+		return (userObject instanceof BufferGroup);
+	}
+
+	/**
+	 * @return the group, if this is a group node.
+	 */
+	public BufferGroup getGroup()
+	{
+		return (BufferGroup) userObject;
+	}
+
+	// {{{ +getTreePath() : TreePath
+	/**
+	 * @return the path from the root to this node. It is cached, and built
+	 *         by adding this node to the path of the parent, so the nodes of
+	 *         one subtree share the paths of their ancestors; its cost is
+	 *         O(depth) without allocation while the node stays where it is.
+	 */
+	public TreePath getTreePath()
+	{
+		TreePath parentPath = parent == null ? null : parent.getTreePath();
+		if (treePath == null || treePath.getParentPath() != parentPath)
+		{
+			treePath = parentPath == null ? new TreePath(this) : parentPath
+				.pathByAddingChild(this);
+		}
+		return treePath;
+	} // }}}
+
+	// {{{ +getPath() : TreeNode[]
+	/**
+	 * @return the nodes from the root to this node.
+	 */
+	public TreeNode[] getPath()
+	{
+		TreeNode[] path = new TreeNode[getLevel() + 1];
+		for (BufferListTreeNode node = this; node != null; node = node.parent)
+		{
+			path[node.getLevel()] = node;
+		}
+		return path;
+	} // }}}
+
+	// {{{ +getLevel() : int
+	/**
+	 * @return the number of ancestors; 0 for the root.
+	 */
+	public int getLevel()
+	{
+		int level = 0;
+		for (BufferListTreeNode node = parent; node != null; node = node.parent)
+		{
+			level++;
+		}
+		return level;
+	} // }}}
+
+	// {{{ TreeNode implementation
+	public TreeNode getChildAt(int index)
+	{
+		if (branch == null || index < 0 || index >= branch.count)
+		{
+			throw new ArrayIndexOutOfBoundsException("node has no child at " + index);
+		}
+		return branch.children[index];
+	}
+
+	public int getChildCount()
+	{
+		return branch == null ? 0 : branch.count;
+	}
+
+	public TreeNode getParent()
+	{
+		return parent;
 	}
+
+	public int getIndex(TreeNode node)
+	{
+		if (node == null)
+		{
+			throw new IllegalArgumentException("argument is null");
+		}
+		if (branch != null && node.getParent() == this)
+		{
+			for (int i = 0; i < branch.count; i++)
+			{
+				if (branch.children[i] == node)
+				{
+					return i;
+				}
+			}
+		}
+		return -1;
+	}
+
+	public boolean getAllowsChildren()
+	{
+		return branch != null;
+	}
+
+	public boolean isLeaf()
+	{
+		return getChildCount() == 0;
+	}
+
+	/**
+	 * @return the children; like those of DefaultMutableTreeNode, the
+	 *         enumeration reflects later changes of the children.
+	 */
+	public Enumeration<BufferListTreeNode> children()
+	{
+		return new Enumeration<BufferListTreeNode>()
+		{
+			private int index;
+
+			public boolean hasMoreElements()
+			{
+				return index < getChildCount();
+			}
+
+			public BufferListTreeNode nextElement()
+			{
+				if (!hasMoreElements())
+				{
+					throw new NoSuchElementException();
+				}
+				return branch.children[index++];
+			}
+		};
+	} // }}}
+
+	// {{{ MutableTreeNode implementation
+	public void insert(MutableTreeNode child, int index)
+	{
+		if (branch == null)
+		{
+			throw new IllegalStateException("node does not allow children");
+		}
+		if (child == null)
+		{
+			throw new IllegalArgumentException("new child is null");
+		}
+		for (BufferListTreeNode node = this; node != null; node = node.parent)
+		{
+			if (node == child)
+			{
+				throw new IllegalArgumentException("new child is an ancestor");
+			}
+		}
+		BufferListTreeNode node = (BufferListTreeNode) child;
+		if (node.parent != null)
+		{
+			node.parent.remove(node);
+		}
+		if (index < 0 || index > branch.count)
+		{
+			throw new ArrayIndexOutOfBoundsException(index + " > " + branch.count);
+		}
+		BufferListTreeNode[] children = branch.children;
+		if (branch.count == children.length)
+		{
+			// grow by half, starting small: most directories hold few buffers
+			children = Arrays.copyOf(children, Math.max(4, branch.count + (branch.count >> 1)));
+			System.arraycopy(branch.children, index, children, index + 1, branch.count - index);
+			branch.children = children;
+		}
+		else
+		{
+			System.arraycopy(children, index, children, index + 1, branch.count - index);
+		}
+		children[index] = node;
+		branch.count++;
+		node.setParent(this);
+		addCounts(node.getFileCount(), node.getDirtyCount());
+	}
+
+	public void remove(int index)
+	{
+		BufferListTreeNode child = (BufferListTreeNode) getChildAt(index);
+		BufferListTreeNode[] children = branch.children;
+		System.arraycopy(children, index + 1, children, index, branch.count - index - 1);
+		children[--branch.count] = null;
+		child.setParent(null);
+		addCounts(-child.getFileCount(), -child.getDirtyCount());
+	}
+
+	public void remove(MutableTreeNode child)
+	{
+		if (child == null)
+		{
+			throw new IllegalArgumentException("argument is null");
+		}
+		int index = getIndex(child);
+		if (index < 0)
+		{
+			throw new IllegalArgumentException("argument is not a child");
+		}
+		remove(index);
+	}
+
+	public void setUserObject(Object userObject)
+	{
+		this.userObject = userObject;
+		if (branch != null)
+		{
+			branch.countsLabel = null;
+		}
+	}
+
+	public Object getUserObject()
+	{
+		return userObject;
+	}
+
+	public void removeFromParent()
+	{
+		if (parent != null)
+		{
+			parent.remove(this);
+		}
+	}
+
+	public void setParent(MutableTreeNode parent)
+	{
+		this.parent = (BufferListTreeNode) parent;
+		treePath = null;
+	} // }}}
+
+	// {{{ DefaultMutableTreeNode methods
+	/**
+	 * Adds a child at the end; if it is already a child, it is moved to the
+	 * end.
+	 */
+	public void add(MutableTreeNode child)
+	{
+		if (child != null && child.getParent() == this)
+		{
+			insert(child, getChildCount() - 1);
+		}
+		else
+		{
+			insert(child, getChildCount());
+		}
+	}
+
+	public void removeAllChildren()
+	{
+		for (int i = getChildCount() - 1; i >= 0; i--)
+		{
+			remove(i);
+		}
+		if (branch != null)
+		{
+			branch.children = NO_CHILDREN;
+		}
+	}
+
+	public TreeNode getFirstChild()
+	{
+		if (getChildCount() == 0)
+		{
+			throw new NoSuchElementException("node has no children");
+		}
+		return branch.children[0];
+	}
+
+	/**
+	 * @return this node and its descendants, each before its children.
+	 */
+	public Enumeration<BufferListTreeNode> preorderEnumeration()
+	{
+		List<BufferListTreeNode> nodes = new ArrayList<BufferListTreeNode>();
+		collect(nodes, true);
+		return new NodeEnumeration(nodes);
+	}
+
+	/**
+	 * @return this node and its descendants, each after its children.
+	 */
+	public Enumeration<BufferListTreeNode> depthFirstEnumeration()
+	{
+		List<BufferListTreeNode> nodes = new ArrayList<BufferListTreeNode>();
+		collect(nodes, false);
+		return new NodeEnumeration(nodes);
+	}
+
+	private void collect(List<BufferListTreeNode> nodes, boolean preorder)
+	{
+		if (preorder)
+		{
+			nodes.add(this);
+		}
+		for (int i = 0; i < getChildCount(); i++)
+		{
+			branch.children[i].collect(nodes, preorder);
+		}
+		if (!preorder)
+		{
+			nodes.add(this);
+		}
+	}
+
+	@Override
+	public String toString()
+	{
+		return userObject == null ? null : userObject.toString();
+	} // }}}
+
+	// {{{ -class Branch
+	/**
+	 * The part of a node that only directory and group nodes need.
+	 */
+	private static class Branch
+	{
+		BufferListTreeNode[] children = NO_CHILDREN;
+
+		int count;
+
+		/**
+		 * Path to this node in VFS. UserObject represents the label of the node
+		 * and so getUserObject()!=path for directory nodes.
+		 */
+		final String path;
+
+		/**
+		 * Text shown for directory and group nodes, computed when the model is
+		 * built.
+		 */
+		String label;
+
+		/**
+		 * Buffer nodes and dirty buffer nodes below the node.
+		 */
+		int files, dirty;
+
+		/**
+		 * Cached result of getLabelWithCounts().
+		 */
+		String countsLabel;
+
+		Branch(String path)
+		{
+			this.path = path;
+		}
+	} // }}}
+
+	// {{{ -class NodeEnumeration
+	private static class NodeEnumeration implements Enumeration<BufferListTreeNode>
+	{
+		private final List<BufferListTreeNode> nodes;
+
+		private int index;
+
+		NodeEnumeration(List<BufferListTreeNode> nodes)
+		{
+			this.nodes = nodes;
+		}
+
+		public boolean hasMoreElements()
+		{
+			return index < nodes.size();
+		}
+
+		public BufferListTreeNode nextElement()
+		{
+			if (index >= nodes.size())
+			{
+				throw new NoSuchElementException();
+			}
+			return nodes.get(index++);
+		}
+	} // }}}
 }
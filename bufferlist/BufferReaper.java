@@ -0,0 +1,311 @@
+/*{{{ header
+ * BufferReaper.java - closes clean buffers that have not been used for long
+ *
+ * :tabSize=4:indentSize=4:noTabs=false:maxLineLen=0:folding=explicit:collapseFolds=1:
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA 02111-1307, USA.
+ *}}}
+ */
+package bufferlist;
+
+// {{{ imports
+import java.awt.event.ActionEvent;
+import java.awt.event.ActionListener;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.WeakHashMap;
+
+import javax.swing.Timer;
+
+import org.gjt.sp.jedit.Buffer;
+import org.gjt.sp.jedit.EditPane;
+import org.gjt.sp.jedit.View;
+import org.gjt.sp.jedit.jEdit;
+import org.gjt.sp.util.Log;
+
+// }}}
+
+/**
+ * Remembers when each buffer was last shown in an edit pane and, if property
+ * <code>bufferlist.reaper.enabled</code> is set, closes the buffers that are
+ * unmodified, not pinned, not shown in any edit pane and have not been used for
+ * <code>bufferlist.reaper.idleMinutes</code> minutes. The buffers found in
+ * one check are closed in one bulk update (see {@link BulkUpdate}), so each
+ * BufferList is rebuilt once. The paths of closed buffers are remembered, so
+ * they can be reopened from the popup menu.
+ * <p>
+ * All methods must be called on the event dispatch thread.
+ */
+public class BufferReaper
+{
+	/**
+	 * Milliseconds between two checks for idle buffers.
+	 */
+	private static final int CHECK_INTERVAL = 60 * 1000;
+
+	/**
+	 * Buffer property of buffers that must not be closed automatically.
+	 */
+	private static final String PINNED = "bufferlist.pinned";
+
+	// {{{ state
+	private static final Map<Buffer, Long> lastActivation = new WeakHashMap<Buffer, Long>();
+
+	private static final LinkedList<String> closedPaths = new LinkedList<String>();
+
+	/**
+	 * Buffers not activated since the plugin was started count as activated
+	 * at that time.
+	 */
+	private static long started;
+
+	private static Timer timer; // }}}
+
+	// {{{ start() : void
+	/**
+	 * Called when the plugin is started.
+	 */
+	static void start()
+	{
+		started = System.currentTimeMillis();
+		configure();
+	} // }}}
+
+	// {{{ configure() : void
+	/**
+	 * Starts or stops checking for idle buffers, according to the
+	 * properties.
+	 */
+	static void configure()
+	{
+		if (!jEdit.getBooleanProperty("bufferlist.reaper.enabled", false))
+		{
+			if (timer != null)
+			{
+				timer.stop();
+				timer = null;
+			}
+			return;
+		}
+		if (timer == null)
+		{
+			timer = new Timer(CHECK_INTERVAL, new ActionListener()
+			{
+				public void actionPerformed(ActionEvent e)
+				{
+					closeIdleBuffers();
+				}
+			});
+			timer.start();
+		}
+	} // }}}
+
+	// {{{ shutdown() : void
+	static void shutdown()
+	{
+		if (timer != null)
+		{
+			timer.stop();
+			timer = null;
+		}
+		lastActivation.clear();
+		closedPaths.clear();
+	} // }}}
+
+	// {{{ bufferActivated(Buffer) : void
+	/**
+	 * Called by the plugin when a buffer has been opened or shown in an edit
+	 * pane.
+	 */
+	static void bufferActivated(Buffer buffer)
+	{
+		if (buffer != null)
+		{
+			lastActivation.put(buffer, Long.valueOf(System.currentTimeMillis()));
+		}
+	} // }}}
+
+	// {{{ bufferClosed(Buffer) : void
+	static void bufferClosed(Buffer buffer)
+	{
+		lastActivation.remove(buffer);
+	} // }}}
+
+	// {{{ +getLastActivation(Buffer) : long
+	/**
+	 * @return the time the buffer was last shown in an edit pane.
+	 */
+	public static long getLastActivation(Buffer buffer)
+	{
+		Long time = lastActivation.get(buffer);
+		return time == null ? started : time.longValue();
+	} // }}}
+
+	// {{{ +isPinned(Buffer) : boolean
+	/**
+	 * @return true if the buffer must not be closed automatically.
+	 */
+	public static boolean isPinned(Buffer buffer)
+	{
+		return buffer.getBooleanProperty(PINNED);
+	} // }}}
+
+	// {{{ +setPinned(Buffer, boolean) : void
+	public static void setPinned(Buffer buffer, boolean pinned)
+	{
+		if (pinned)
+		{
+			buffer.setBooleanProperty(PINNED, true);
+		}
+		else
+		{
+			buffer.unsetProperty(PINNED);
+		}
+	} // }}}
+
+	// {{{ +getClosableBuffers() : List<Buffer>
+	/**
+	 * @return the buffers that may be closed without asking: loaded,
+	 *         unmodified, saved to a file, not pinned and not shown in any
+	 *         edit pane.
+	 */
+	public static List<Buffer> getClosableBuffers()
+	{
+		Set<Buffer> visible = new HashSet<Buffer>();
+		for (View view : jEdit.getViews())
+		{
+			for (EditPane editPane : view.getEditPanes())
+			{
+				visible.add(editPane.getBuffer());
+			}
+		}
+		List<Buffer> buffers = new ArrayList<Buffer>();
+		for (Buffer buffer : jEdit.getBuffers())
+		{
+			if (buffer.isLoaded() && !buffer.isDirty() && !buffer.isUntitled()
+				&& !buffer.isPerformingIO() && !isPinned(buffer) && !visible.contains(buffer))
+			{
+				buffers.add(buffer);
+			}
+		}
+		return buffers;
+	} // }}}
+
+	// {{{ +closeIdleBuffers() : int
+	/**
+	 * Closes the closable buffers that have been idle for longer than
+	 * configured.
+	 *
+	 * @return the number of buffers closed.
+	 */
+	public static int closeIdleBuffers()
+	{
+		if (BulkUpdate.isActive())
+		{
+			// e.g. a session is being loaded; try again at the next check
+			return 0;
+		}
+		long limit = System.currentTimeMillis()
+			- jEdit.getIntegerProperty("bufferlist.reaper.idleMinutes", 60) * 60000L;
+		List<Buffer> idle = new ArrayList<Buffer>();
+		for (Buffer buffer : getClosableBuffers())
+		{
+			if (getLastActivation(buffer) < limit)
+			{
+				idle.add(buffer);
+			}
+		}
+		return close(idle, "idle");
+	} // }}}
+
+	// {{{ +close(Collection<Buffer>, String) : int
+	/**
+	 * Closes the given buffers in one bulk update and remembers their paths.
+	 *
+	 * @param reason
+	 *            why the buffers are closed, for the activity log
+	 * @return the number of buffers closed.
+	 */
+	public static int close(Collection<Buffer> buffers, String reason)
+	{
+		View view = jEdit.getActiveView();
+		if (buffers.isEmpty() || view == null)
+		{
+			return 0;
+		}
+		int closed = 0;
+		BulkUpdate.begin();
+		try
+		{
+			for (Buffer buffer : buffers)
+			{
+				String path = buffer.getPath();
+				if (jEdit.closeBuffer(view, buffer))
+				{
+					closed++;
+					closedPaths.remove(path);
+					closedPaths.addFirst(path);
+				}
+			}
+		}
+		finally
+		{
+			BulkUpdate.end();
+		}
+		int history = jEdit.getIntegerProperty("bufferlist.reaper.history", 30);
+		while (closedPaths.size() > history)
+		{
+			closedPaths.removeLast();
+		}
+		Log.log(Log.NOTICE, BufferReaper.class, "Closed " + closed + " " + reason + " buffers");
+		return closed;
+	} // }}}
+
+	// {{{ +getClosedPaths() : List<String>
+	/**
+	 * @return the paths of the buffers closed by the reaper, most recently
+	 *         closed first.
+	 */
+	public static List<String> getClosedPaths()
+	{
+		return new ArrayList<String>(closedPaths);
+	} // }}}
+
+	// {{{ +reopen(View, Collection<String>) : void
+	/**
+	 * Reopens buffers closed by the reaper.
+	 */
+	public static void reopen(View view, Collection<String> paths)
+	{
+		BulkUpdate.begin();
+		try
+		{
+			for (String path : paths)
+			{
+				closedPaths.remove(path);
+				jEdit.openFile(view, path);
+			}
+		}
+		finally
+		{
+			BulkUpdate.end();
+		}
+	} // }}}
+}
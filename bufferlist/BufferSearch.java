@@ -0,0 +1,431 @@
+/*{{{ header
+ * BufferSearch.java - searches the text of open buffers in parallel
+ *
+ * :tabSize=4:indentSize=4:noTabs=false:maxLineLen=0:folding=explicit:collapseFolds=1:
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA 02111-1307, USA.
+ *}}}
+ */
+package bufferlist;
+
+// {{{ imports
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
+
+import javax.swing.SwingUtilities;
+import javax.swing.text.Segment;
+
+import org.gjt.sp.jedit.Buffer;
+import org.gjt.sp.jedit.GUIUtilities;
+import org.gjt.sp.jedit.View;
+import org.gjt.sp.jedit.jEdit;
+import org.gjt.sp.jedit.search.SearchAndReplace;
+
+// }}}
+
+/**
+ * Searches the in-memory text of a set of buffers on a fork/join pool and
+ * shows the number of matches of each buffer next to its name in the tree.
+ * Each buffer is searched under its read lock, so the text cannot change
+ * while it is searched; the lock is held only for that one buffer. Results
+ * are handed to the event dispatch thread as they come in, at most one
+ * pending update at a time, so the tree fills in while the search runs.
+ * <p>
+ * The search string is taken from the user; "regular expressions" and
+ * "ignore case" are taken from the search dialog. Starting a new search
+ * cancels the running one. The counts are a snapshot: they are kept until
+ * the next search, until they are cleared, or until the buffer is reloaded
+ * or closed.
+ * <p>
+ * All public methods must be called on the event dispatch thread.
+ */
+public class BufferSearch
+{
+	// {{{ state
+	private static ForkJoinPool pool;
+
+	/**
+	 * Buffers with at least one match; a result refers to its buffer, so
+	 * closed buffers are removed explicitly by {@link #clear(Buffer)}.
+	 */
+	private static final Map<Buffer, Result> results = new HashMap<Buffer, Result>();
+
+	/**
+	 * Results not yet handed to the event dispatch thread.
+	 */
+	private static final ConcurrentLinkedQueue<Result> pending = new ConcurrentLinkedQueue<Result>();
+
+	private static final AtomicBoolean flushScheduled = new AtomicBoolean();
+
+	/**
+	 * Incremented by every search; tasks of older searches stop.
+	 */
+	private static final AtomicInteger generation = new AtomicInteger(); // }}}
+
+	// {{{ +search(View, Collection<Buffer>) : void
+	/**
+	 * Asks for a search string and searches the given buffers for it.
+	 */
+	public static void search(View view, Collection<Buffer> buffers)
+	{
+		if (buffers.isEmpty())
+		{
+			return;
+		}
+		String text = GUIUtilities.input(view, "bufferlist.search-buffers",
+			SearchAndReplace.getSearchString());
+		if (text == null || text.length() == 0)
+		{
+			return;
+		}
+		Pattern pattern;
+		try
+		{
+			int flags = Pattern.MULTILINE;
+			if (SearchAndReplace.getIgnoreCase())
+			{
+				flags |= Pattern.CASE_INSENSITIVE | Pattern.UNICODE_CASE;
+			}
+			pattern = Pattern.compile(SearchAndReplace.getRegexp() ? text : Pattern.quote(text),
+				flags);
+		}
+		catch (PatternSyntaxException e)
+		{
+			GUIUtilities.error(view, "bufferlist.error.searchPattern",
+				new Object[] { e.getMessage() });
+			return;
+		}
+		search(view, buffers, pattern);
+	} // }}}
+
+	// {{{ +search(View, Collection<Buffer>, Pattern) : void
+	/**
+	 * Clears the previous results and starts searching the given buffers.
+	 * Returns at once; the counts appear in the tree as the buffers are
+	 * searched, and the total is shown in the status bar of the view.
+	 */
+	public static void search(final View view, Collection<Buffer> buffers, Pattern pattern)
+	{
+		clear();
+		final int searchGeneration = generation.incrementAndGet();
+		final Buffer[] array = buffers.toArray(new Buffer[buffers.size()]);
+		final SearchTask task = new SearchTask(array, 0, array.length, pattern, searchGeneration);
+		final long start = System.nanoTime();
+		view.getStatus().setMessage(jEdit.getProperty("bufferlist.search-buffers.running",
+			new Object[] { Integer.valueOf(array.length) }));
+		getPool().execute(new Runnable()
+		{
+			public void run()
+			{
+				// runs on a worker thread of the pool, which task joins
+				task.invoke();
+				SwingUtilities.invokeLater(new Runnable()
+				{
+					public void run()
+					{
+						if (searchGeneration != generation.get())
+						{
+							return;
+						}
+						flush();
+						int matches = 0;
+						for (Result result : results.values())
+						{
+							matches += result.count;
+						}
+						view.getStatus().setMessageAndClear(
+							jEdit.getProperty("bufferlist.search-buffers.done", new Object[] {
+								Integer.valueOf(matches), Integer.valueOf(results.size()),
+								Integer.valueOf(array.length),
+								Long.valueOf((System.nanoTime() - start) / 1000000) }));
+					}
+				});
+			}
+		});
+	} // }}}
+
+	// {{{ +getCount(Buffer) : int
+	/**
+	 * @return the number of matches of the last search in the buffer; 0 if
+	 *         there were none or it has not been searched.
+	 */
+	public static int getCount(Buffer buffer)
+	{
+		Result result = results.get(buffer);
+		return result == null ? 0 : result.count;
+	} // }}}
+
+	// {{{ +getLabel(Buffer) : String
+	/**
+	 * @return the label of a buffer with its number of matches, e.g.
+	 *         "Foo.java (3)"; <code>null</code> if it has no matches. The
+	 *         label is built once per result, as it is asked for on every
+	 *         repaint.
+	 */
+	public static String getLabel(Buffer buffer)
+	{
+		Result result = results.get(buffer);
+		if (result == null)
+		{
+			return null;
+		}
+		String name = buffer.getName();
+		if (result.label == null || !name.equals(result.name))
+		{
+			result.name = name;
+			result.label = jEdit.getProperty("bufferlist.search-buffers.label", new Object[] {
+				name, Integer.valueOf(result.count) });
+		}
+		return result.label;
+	} // }}}
+
+	// {{{ +hasResults() : boolean
+	public static boolean hasResults()
+	{
+		return !results.isEmpty();
+	} // }}}
+
+	// {{{ +clear() : void
+	/**
+	 * Cancels the running search and removes all counts from the tree.
+	 */
+	public static void clear()
+	{
+		generation.incrementAndGet();
+		pending.clear();
+		if (results.isEmpty())
+		{
+			return;
+		}
+		List<Buffer> cleared = new ArrayList<Buffer>(results.keySet());
+		results.clear();
+		notifyBufferLists(cleared);
+	} // }}}
+
+	// {{{ clear(Buffer) : void
+	/**
+	 * Called by the plugin when a buffer has been reloaded or closed.
+	 */
+	static void clear(Buffer buffer)
+	{
+		results.remove(buffer);
+	} // }}}
+
+	// {{{ shutdown() : void
+	static synchronized void shutdown()
+	{
+		generation.incrementAndGet();
+		pending.clear();
+		results.clear();
+		if (pool != null)
+		{
+			pool.shutdownNow();
+			pool = null;
+		}
+	} // }}}
+
+	// {{{ -getPool() : ForkJoinPool
+	/**
+	 * @return the pool, created on first use with one thread per core. Its
+	 *         threads are daemon threads.
+	 */
+	private static synchronized ForkJoinPool getPool()
+	{
+		if (pool == null)
+		{
+			pool = new ForkJoinPool();
+		}
+		return pool;
+	} // }}}
+
+	// {{{ -published(Result) : void
+	/**
+	 * Called by the search tasks for each buffer with matches.
+	 */
+	private static void published(Result result)
+	{
+		pending.add(result);
+		if (flushScheduled.compareAndSet(false, true))
+		{
+			SwingUtilities.invokeLater(new Runnable()
+			{
+				public void run()
+				{
+					flush();
+				}
+			});
+		}
+	} // }}}
+
+	// {{{ -flush() : void
+	private static void flush()
+	{
+		flushScheduled.set(false);
+		List<Buffer> updated = new ArrayList<Buffer>();
+		int current = generation.get();
+		Result result;
+		while ((result = pending.poll()) != null)
+		{
+			// a buffer closed while it was searched is not kept
+			if (result.generation == current && !result.buffer.isClosed())
+			{
+				results.put(result.buffer, result);
+				updated.add(result.buffer);
+			}
+		}
+		if (!updated.isEmpty())
+		{
+			notifyBufferLists(updated);
+		}
+	} // }}}
+
+	// {{{ -notifyBufferLists(Collection<Buffer>) : void
+	private static void notifyBufferLists(Collection<Buffer> buffers)
+	{
+		View[] views = jEdit.getViews();
+		if (views == null)
+		{
+			return;
+		}
+		for (View view : views)
+		{
+			BufferList bufferlist = (BufferList) view.getDockableWindowManager().getDockable(
+				"bufferlist");
+			if (bufferlist != null)
+			{
+				bufferlist.decorationsChanged(buffers);
+			}
+		}
+	} // }}}
+
+	// {{{ -count(Buffer, Pattern, int) : int
+	/**
+	 * Counts the matches in one buffer under its read lock.
+	 *
+	 * @return the number of matches; -1 if the search has been cancelled.
+	 */
+	private static int count(Buffer buffer, Pattern pattern, int searchGeneration)
+	{
+		buffer.readLock();
+		try
+		{
+			if (!buffer.isLoaded())
+			{
+				return 0;
+			}
+			Segment text = new Segment();
+			buffer.getText(0, buffer.getLength(), text);
+			Matcher matcher = pattern.matcher(text);
+			int count = 0;
+			while (matcher.find())
+			{
+				// check now and then, large buffers may have many matches
+				if ((++count & 0xfff) == 0 && searchGeneration != generation.get())
+				{
+					return -1;
+				}
+			}
+			return count;
+		}
+		finally
+		{
+			buffer.readUnlock();
+		}
+	} // }}}
+
+	// {{{ -class SearchTask
+	/**
+	 * Searches a range of buffers, splitting it in halves down to single
+	 * buffers so the pool can balance buffers of very different sizes.
+	 */
+	private static class SearchTask extends RecursiveAction
+	{
+		private static final long serialVersionUID = 1L;
+
+		private final Buffer[] buffers;
+
+		private final int from, to;
+
+		private final Pattern pattern;
+
+		private final int searchGeneration;
+
+		SearchTask(Buffer[] buffers, int from, int to, Pattern pattern, int searchGeneration)
+		{
+			this.buffers = buffers;
+			this.from = from;
+			this.to = to;
+			this.pattern = pattern;
+			this.searchGeneration = searchGeneration;
+		}
+
+		protected void compute()
+		{
+			if (searchGeneration != generation.get())
+			{
+				return;
+			}
+			if (to - from > 1)
+			{
+				int middle = (from + to) >>> 1;
+				invokeAll(new SearchTask(buffers, from, middle, pattern, searchGeneration),
+					new SearchTask(buffers, middle, to, pattern, searchGeneration));
+				return;
+			}
+			for (int i = from; i < to; i++)
+			{
+				int count = count(buffers[i], pattern, searchGeneration);
+				if (count > 0)
+				{
+					published(new Result(buffers[i], count, searchGeneration));
+				}
+			}
+		}
+	} // }}}
+
+	// {{{ -class Result
+	private static class Result
+	{
+		final Buffer buffer;
+
+		final int count;
+
+		final int generation;
+
+		/**
+		 * The label and the buffer name it was built for; only used on the
+		 * event dispatch thread.
+		 */
+		String name, label;
+
+		Result(Buffer buffer, int count, int generation)
+		{
+			this.buffer = buffer;
+			this.count = count;
+			this.generation = generation;
+		}
+	} // }}}
+}
@@ -0,0 +1,380 @@
+/*{{{ header
+ * BufferSetTracker.java - live snapshot of the buffers shown by a BufferList
+ *
+ * :tabSize=4:indentSize=4:noTabs=false:maxLineLen=0:folding=explicit:collapseFolds=1:
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA 02111-1307, USA.
+ *}}}
+ */
+package bufferlist;
+
+// {{{ imports
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.gjt.sp.jedit.Buffer;
+import org.gjt.sp.jedit.EditPane;
+import org.gjt.sp.jedit.View;
+import org.gjt.sp.jedit.jEdit;
+import org.gjt.sp.jedit.bufferset.BufferSet;
+import org.gjt.sp.jedit.bufferset.BufferSetListener;
+
+// }}}
+
+/**
+ * Keeps a deduplicated snapshot of the buffers in the buffer sets of a View,
+ * according to the current BufferSet scope. The snapshot is maintained
+ * through BufferSetListeners, so the buffer sets are only scanned when the
+ * tracker is attached.
+ */
+public class BufferSetTracker
+{
+	// {{{ +interface Listener
+	/**
+	 * Notified after a buffer was added to or removed from one of the tracked
+	 * buffer sets. {@link BufferEntry#getRefCount()} tells whether the
+	 * buffer has just entered (1) or left (0) the snapshot.
+	 */
+	public interface Listener
+	{
+		public void bufferAdded(BufferEntry entry, BufferSet bufferSet);
+
+		public void bufferRemoved(BufferEntry entry, BufferSet bufferSet);
+	} // }}}
+
+	// {{{ instance variables
+	private final View view;
+
+	private final Listener listener;
+
+	private final Map<Buffer, BufferEntry> entries = new HashMap<Buffer, BufferEntry>();
+
+	/**
+	 * The entries by {@link BufferEntry#getId()}; null in free slots.
+	 */
+	private final List<BufferEntry> byId = new ArrayList<BufferEntry>();
+
+	private final BitSet freeIds = new BitSet();
+
+	private final List<SetHandler> handlers = new ArrayList<SetHandler>();
+
+	private BufferSet.Scope scope;
+
+	/**
+	 * Cached result of {@link #getBuffers()}, null if stale.
+	 */
+	private Buffer[] buffers;
+
+	private int dirtyCount; // }}}
+
+	// {{{ +BufferSetTracker(View, Listener) : <init>
+	public BufferSetTracker(View view, Listener listener)
+	{
+		this.view = view;
+		this.listener = listener;
+	} // }}}
+
+	// {{{ +attach() : void
+	/**
+	 * (Re-)scans the buffer sets of the view and starts listening to them.
+	 * The listener is not notified about the buffers found.
+	 */
+	public void attach()
+	{
+		detach();
+		scope = jEdit.getBufferSetManager().getScope();
+		for (EditPane ep : view.getEditPanes())
+		{
+			BufferSet bs = ep.getBufferSet();
+			if (getHandler(bs) == null)
+			{
+				SetHandler handler = new SetHandler(bs, ep);
+				handlers.add(handler);
+				bs.addBufferSetListener(handler);
+				for (Buffer buffer : bs.getAllBuffers())
+				{
+					handler.members.add(addRef(buffer));
+				}
+			}
+			if (scope != BufferSet.Scope.editpane)
+			{
+				break;
+			}
+		}
+	} // }}}
+
+	// {{{ +detach() : void
+	public void detach()
+	{
+		for (SetHandler handler : handlers)
+		{
+			handler.bufferSet.removeBufferSetListener(handler);
+		}
+		handlers.clear();
+		entries.clear();
+		byId.clear();
+		freeIds.clear();
+		buffers = null;
+		dirtyCount = 0;
+	} // }}}
+
+	// {{{ +isAttached() : boolean
+	public boolean isAttached()
+	{
+		return !handlers.isEmpty();
+	} // }}}
+
+	// {{{ +getScope() : BufferSet.Scope
+	/**
+	 * @return the BufferSet scope at the time the tracker was attached.
+	 */
+	public BufferSet.Scope getScope()
+	{
+		return scope;
+	} // }}}
+
+	// {{{ +getBufferSets() : List<BufferSet>
+	/**
+	 * @return the tracked buffer sets, in the order of the edit panes.
+	 */
+	public List<BufferSet> getBufferSets()
+	{
+		List<BufferSet> sets = new ArrayList<BufferSet>(handlers.size());
+		for (SetHandler handler : handlers)
+		{
+			sets.add(handler.bufferSet);
+		}
+		return sets;
+	} // }}}
+
+	// {{{ +getEditPane(BufferSet) : EditPane
+	/**
+	 * @return the first edit pane of the view that shows the given buffer
+	 *         set, or null if the buffer set is not tracked.
+	 */
+	public EditPane getEditPane(BufferSet bs)
+	{
+		SetHandler handler = getHandler(bs);
+		return handler == null ? null : handler.editPane;
+	} // }}}
+
+	// {{{ +contains(BufferSet, BufferEntry) : boolean
+	public boolean contains(BufferSet bs, BufferEntry entry)
+	{
+		SetHandler handler = getHandler(bs);
+		return handler != null && handler.members.contains(entry);
+	} // }}}
+
+	// {{{ +getMembers(BufferSet) : Collection<BufferEntry>
+	/**
+	 * @return the entries of the buffers in the given buffer set; empty if
+	 *         it is not tracked.
+	 */
+	public Collection<BufferEntry> getMembers(BufferSet bs)
+	{
+		SetHandler handler = getHandler(bs);
+		return handler == null ? Collections.<BufferEntry> emptySet() : Collections
+			.unmodifiableSet(handler.members);
+	} // }}}
+
+	// {{{ +getBuffers() : Buffer[]
+	/**
+	 * @return the buffers in the snapshot. The array is shared and must not
+	 *         be modified.
+	 */
+	public Buffer[] getBuffers()
+	{
+		if (buffers == null)
+		{
+			buffers = entries.keySet().toArray(new Buffer[entries.size()]);
+		}
+		return buffers;
+	} // }}}
+
+	// {{{ +getEntries() : Collection<BufferEntry>
+	public Collection<BufferEntry> getEntries()
+	{
+		return entries.values();
+	} // }}}
+
+	// {{{ +getEntry(Buffer) : BufferEntry
+	public BufferEntry getEntry(Buffer buffer)
+	{
+		return entries.get(buffer);
+	} // }}}
+
+	// {{{ +getEntry(int) : BufferEntry
+	/**
+	 * @return the entry with the given {@link BufferEntry#getId()}, or null.
+	 */
+	public BufferEntry getEntry(int id)
+	{
+		return id < byId.size() ? byId.get(id) : null;
+	} // }}}
+
+	// {{{ +size() : int
+	public int size()
+	{
+		return entries.size();
+	} // }}}
+
+	// {{{ +getDirtyCount() : int
+	public int getDirtyCount()
+	{
+		return dirtyCount;
+	} // }}}
+
+	// {{{ +dirtyChanged(Buffer) : boolean
+	/**
+	 * Updates the dirty count after a BufferUpdate.DIRTY_CHANGED.
+	 *
+	 * @return true if the buffer is part of the snapshot.
+	 */
+	public boolean dirtyChanged(Buffer buffer)
+	{
+		BufferEntry entry = entries.get(buffer);
+		if (entry == null)
+		{
+			return false;
+		}
+		boolean dirty = buffer.isDirty();
+		if (entry.dirty != dirty)
+		{
+			entry.dirty = dirty;
+			dirtyCount += dirty ? 1 : -1;
+		}
+		return true;
+	} // }}}
+
+	// {{{ -addRef(Buffer) : BufferEntry
+	private BufferEntry addRef(Buffer buffer)
+	{
+		BufferEntry entry = entries.get(buffer);
+		if (entry != null)
+		{
+			entry.refCount++;
+			return entry;
+		}
+		entry = new BufferEntry(buffer);
+		entry.refCount = 1;
+		entries.put(buffer, entry);
+		entry.id = freeIds.nextSetBit(0);
+		if (entry.id < 0)
+		{
+			entry.id = byId.size();
+			byId.add(entry);
+		}
+		else
+		{
+			freeIds.clear(entry.id);
+			byId.set(entry.id, entry);
+		}
+		buffers = null;
+		if (entry.dirty)
+		{
+			dirtyCount++;
+		}
+		return entry;
+	} // }}}
+
+	// {{{ -removeRef(Buffer) : void
+	private void removeRef(Buffer buffer)
+	{
+		BufferEntry entry = entries.get(buffer);
+		if (--entry.refCount > 0)
+		{
+			return;
+		}
+		entries.remove(buffer);
+		byId.set(entry.id, null);
+		freeIds.set(entry.id);
+		buffers = null;
+		if (entry.dirty)
+		{
+			dirtyCount--;
+		}
+	} // }}}
+
+	// {{{ -getHandler(BufferSet) : SetHandler
+	private SetHandler getHandler(BufferSet bs)
+	{
+		for (SetHandler handler : handlers)
+		{
+			if (handler.bufferSet == bs)
+			{
+				return handler;
+			}
+		}
+		return null;
+	} // }}}
+
+	// {{{ -class SetHandler
+	/**
+	 * Listens to one buffer set.
+	 */
+	private class SetHandler implements BufferSetListener
+	{
+		final BufferSet bufferSet;
+
+		final EditPane editPane;
+
+		final Set<BufferEntry> members = new HashSet<BufferEntry>();
+
+		SetHandler(BufferSet bufferSet, EditPane editPane)
+		{
+			this.bufferSet = bufferSet;
+			this.editPane = editPane;
+		}
+
+		public void bufferAdded(Buffer buffer, int index)
+		{
+			BufferEntry entry = entries.get(buffer);
+			if (entry != null && members.contains(entry))
+			{
+				return;
+			}
+			entry = addRef(buffer);
+			members.add(entry);
+			listener.bufferAdded(entry, bufferSet);
+		}
+
+		public void bufferRemoved(Buffer buffer, int index)
+		{
+			BufferEntry entry = entries.get(buffer);
+			if (entry != null && members.remove(entry))
+			{
+				removeRef(buffer);
+				listener.bufferRemoved(entry, bufferSet);
+			}
+		}
+
+		public void bufferMoved(Buffer buffer, int oldIndex, int newIndex)
+		{
+			// BufferList has its own sort order
+		}
+
+		public void bufferSetSorted()
+		{
+			// BufferList has its own sort order
+		}
+	} // }}}
+}
@@ -0,0 +1,207 @@
+/*{{{ header
+ * BulkUpdate.java - suspends BufferList maintenance while many buffers change
+ *
+ * :tabSize=4:indentSize=4:noTabs=false:maxLineLen=0:folding=explicit:collapseFolds=1:
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA 02111-1307, USA.
+ *}}}
+ */
+package bufferlist;
+
+// {{{ imports
+import java.awt.event.ActionEvent;
+import java.awt.event.ActionListener;
+
+import javax.swing.Timer;
+
+import org.gjt.sp.jedit.View;
+import org.gjt.sp.jedit.jEdit;
+
+// }}}
+
+/**
+ * Tracks bulk phases, in which many buffers are opened or closed at once:
+ * jEdit's startup, bursts of <code>BufferUpdate.CREATED</code> messages (e.g.
+ * while a session is switched) and phases bracketed by macros with
+ * {@link #begin()} and {@link #end()}. While a bulk phase is active, the
+ * BufferLists do not maintain their trees; each of them is rebuilt once when
+ * the phase ends.
+ * <p>
+ * All methods must be called on the event dispatch thread. A macro opening
+ * many files would do:
+ * <pre>
+ * bufferlist.BulkUpdate.begin();
+ * try {
+ *     ...
+ * } finally {
+ *     bufferlist.BulkUpdate.end();
+ * }
+ * </pre>
+ */
+public class BulkUpdate
+{
+	// {{{ state
+	private static int explicitDepth;
+
+	private static boolean startup;
+
+	private static boolean burst;
+
+	private static int burstLength;
+
+	private static long lastCreated;
+
+	private static Timer quietTimer; // }}}
+
+	// {{{ +begin() : void
+	/**
+	 * Starts a bulk phase. Calls may be nested; every call must be paired
+	 * with a call to {@link #end()}.
+	 */
+	public static void begin()
+	{
+		explicitDepth++;
+	} // }}}
+
+	// {{{ +end() : void
+	/**
+	 * Ends a bulk phase started with {@link #begin()}.
+	 */
+	public static void end()
+	{
+		if (explicitDepth == 0)
+		{
+			return;
+		}
+		explicitDepth--;
+		checkFinished();
+	} // }}}
+
+	// {{{ +isActive() : boolean
+	public static boolean isActive()
+	{
+		return explicitDepth > 0 || startup || burst;
+	} // }}}
+
+	// {{{ beginStartup() : void
+	/**
+	 * Called by the plugin if it is started before jEdit has finished its
+	 * startup.
+	 */
+	static void beginStartup()
+	{
+		startup = true;
+	} // }}}
+
+	// {{{ endStartup() : void
+	/**
+	 * Called by the plugin on <code>EditorStarted</code>.
+	 */
+	static void endStartup()
+	{
+		if (startup)
+		{
+			startup = false;
+			checkFinished();
+		}
+	} // }}}
+
+	// {{{ bufferCreated() : void
+	/**
+	 * Called by the plugin for every <code>BufferUpdate.CREATED</code>.
+	 * Starts a bulk phase if buffers are created in rapid succession; the
+	 * phase ends when no buffer has been created for a while.
+	 */
+	static void bufferCreated()
+	{
+		long now = System.currentTimeMillis();
+		if (now - lastCreated <= jEdit.getIntegerProperty("bufferlist.bulk.burstInterval", 100))
+		{
+			burstLength++;
+		}
+		else
+		{
+			burstLength = 1;
+		}
+		lastCreated = now;
+		if (!burst && burstLength >= jEdit.getIntegerProperty("bufferlist.bulk.burstLength", 5))
+		{
+			burst = true;
+		}
+		if (burst)
+		{
+			if (quietTimer == null)
+			{
+				quietTimer = new Timer(0, new ActionListener()
+				{
+					public void actionPerformed(ActionEvent e)
+					{
+						burst = false;
+						burstLength = 0;
+						checkFinished();
+					}
+				});
+				quietTimer.setRepeats(false);
+			}
+			quietTimer.setInitialDelay(jEdit.getIntegerProperty("bufferlist.bulk.quietPeriod",
+				300));
+			quietTimer.restart();
+		}
+	} // }}}
+
+	// {{{ reset() : void
+	/**
+	 * Called when the plugin is stopped.
+	 */
+	static void reset()
+	{
+		if (quietTimer != null)
+		{
+			quietTimer.stop();
+			quietTimer = null;
+		}
+		explicitDepth = 0;
+		startup = false;
+		burst = false;
+		burstLength = 0;
+	} // }}}
+
+	// {{{ -checkFinished() : void
+	/**
+	 * Lets all BufferLists catch up once the last bulk phase has ended.
+	 */
+	private static void checkFinished()
+	{
+		if (isActive())
+		{
+			return;
+		}
+		View[] views = jEdit.getViews();
+		if (views == null)
+		{
+			return;
+		}
+		for (View view : views)
+		{
+			BufferList bufferlist = (BufferList) view.getDockableWindowManager().getDockable(
+				"bufferlist");
+			if (bufferlist != null)
+			{
+				bufferlist.bulkUpdateFinished();
+			}
+		}
+		BufferListPlugin.bulkUpdateFinished();
+	} // }}}
+}
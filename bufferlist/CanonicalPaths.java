@@ -0,0 +1,368 @@
+/*{{{ header
+ * CanonicalPaths.java - asynchronous, cached resolution of symbolic links
+ *
+ * :tabSize=4:indentSize=4:noTabs=false:maxLineLen=0:folding=explicit:collapseFolds=1:
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA 02111-1307, USA.
+ *}}}
+ */
+package bufferlist;
+
+// {{{ imports
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.InvalidPathException;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+import javax.swing.SwingUtilities;
+
+import org.gjt.sp.jedit.Buffer;
+import org.gjt.sp.jedit.MiscUtilities;
+import org.gjt.sp.jedit.View;
+import org.gjt.sp.jedit.jEdit;
+import org.gjt.sp.util.Log;
+
+// }}}
+
+/**
+ * Finds the real path of local directories, i.e. the path with all
+ * symbolic links resolved, so that a checkout reached through a symbolic
+ * link or a bind mount is shown as one directory tree. The file system is
+ * only accessed on a background thread; the result is cached per directory
+ * until the directory is invalidated, which BufferList does whenever a
+ * buffer in it is loaded. Directories that cannot be resolved, e.g. because
+ * they have been deleted, and directories of remote VFSs are their own
+ * canonical directory.
+ * <p>
+ * Buffers whose real directories and names are equal are the same file
+ * opened twice; {@link #getDuplicateOf(Buffer)} tells. The duplicates are
+ * found once per event loop turn after buffers have been opened, closed or
+ * saved or directories have been resolved, not while painting, and not
+ * at all during a bulk update.
+ * <p>
+ * Resolving can be switched off with property
+ * <code>bufferlist.resolveSymlinks</code>.
+ */
+public class CanonicalPaths
+{
+	// {{{ state
+	private static final ConcurrentHashMap<String, String> dirs = new ConcurrentHashMap<String, String>();
+
+	private static volatile boolean enabled = true;
+
+	private static ExecutorService executor;
+
+	/**
+	 * For each buffer opened more than once, another buffer of the same
+	 * file; only used on the event dispatch thread. The values are keys as
+	 * well, so closed buffers are removed explicitly.
+	 */
+	private static final Map<Buffer, Buffer> duplicates = new HashMap<Buffer, Buffer>();
+
+	private static boolean updatePending; // }}}
+
+	// {{{ +getCanonicalDir(String) : String
+	/**
+	 * @return the cached real path of the given directory, the directory
+	 *         itself if it is remote or resolving is switched off, or null if
+	 *         it has not been resolved yet.
+	 */
+	public static String getCanonicalDir(String dir)
+	{
+		if (!enabled || MiscUtilities.isURL(dir))
+		{
+			return dir;
+		}
+		return dirs.get(dir);
+	} // }}}
+
+	// {{{ +resolve(Collection<String>, Runnable) : void
+	/**
+	 * Resolves the given directories on the background thread.
+	 *
+	 * @param callback
+	 *            run on the event dispatch thread when the directories have
+	 *            been resolved, may be null.
+	 */
+	public static synchronized void resolve(Collection<String> dirs, final Runnable callback)
+	{
+		final List<String> todo = new ArrayList<String>(dirs);
+		if (executor == null)
+		{
+			executor = Executors.newSingleThreadExecutor(new ThreadFactory()
+			{
+				public Thread newThread(Runnable r)
+				{
+					Thread thread = new Thread(r, "BufferList canonical paths");
+					thread.setDaemon(true);
+					thread.setPriority(Thread.MIN_PRIORITY);
+					return thread;
+				}
+			});
+		}
+		executor.execute(new Runnable()
+		{
+			public void run()
+			{
+				for (String dir : todo)
+				{
+					if (getCanonicalDir(dir) == null)
+					{
+						CanonicalPaths.dirs.put(dir, lookup(dir));
+					}
+				}
+				SwingUtilities.invokeLater(new Runnable()
+				{
+					public void run()
+					{
+						scheduleUpdate();
+						if (callback != null)
+						{
+							callback.run();
+						}
+					}
+				});
+			}
+		});
+	} // }}}
+
+	// {{{ +invalidate(String) : void
+	/**
+	 * Forgets the real path of a directory, so that it is resolved again the
+	 * next time it is asked for.
+	 */
+	public static void invalidate(String dir)
+	{
+		dirs.remove(dir);
+	} // }}}
+
+	// {{{ configure() : boolean
+	/**
+	 * Reads property <code>bufferlist.resolveSymlinks</code>.
+	 *
+	 * @return true if it has changed.
+	 */
+	static synchronized boolean configure()
+	{
+		boolean newEnabled = jEdit.getBooleanProperty("bufferlist.resolveSymlinks", true);
+		if (newEnabled == enabled)
+		{
+			return false;
+		}
+		enabled = newEnabled;
+		dirs.clear();
+		scheduleUpdate();
+		return true;
+	} // }}}
+
+	// {{{ buffersChanged() : void
+	/**
+	 * Called by the plugin when a buffer has been opened or saved under
+	 * another name, and when a bulk update has finished.
+	 */
+	static void buffersChanged()
+	{
+		scheduleUpdate();
+	} // }}}
+
+	// {{{ bufferClosed(Buffer) : void
+	/**
+	 * Called by the plugin when a buffer has been closed; forgets it at once,
+	 * as its duplicate refers to it.
+	 */
+	static void bufferClosed(Buffer buffer)
+	{
+		duplicates.remove(buffer);
+		duplicates.values().removeAll(Collections.singleton(buffer));
+		scheduleUpdate();
+	} // }}}
+
+	// {{{ shutdown() : void
+	static synchronized void shutdown()
+	{
+		if (executor != null)
+		{
+			executor.shutdownNow();
+			executor = null;
+		}
+		dirs.clear();
+		duplicates.clear();
+	} // }}}
+
+	// {{{ +getDuplicateOf(Buffer) : Buffer
+	/**
+	 * @return another buffer of the same real file, or null if there is none
+	 *         or the directories have not been resolved yet. A lookup in the
+	 *         precomputed duplicates, cheap enough for painting; must be
+	 *         called on the event dispatch thread.
+	 */
+	public static Buffer getDuplicateOf(Buffer buffer)
+	{
+		return duplicates.get(buffer);
+	} // }}}
+
+	// {{{ -scheduleUpdate() : void
+	/**
+	 * Finds the duplicates once the current event has been handled, so that a
+	 * burst of changes costs one pass over the buffers. During a bulk update
+	 * nothing is done; the plugin calls {@link #buffersChanged()} when it has
+	 * finished.
+	 */
+	private static void scheduleUpdate()
+	{
+		if (updatePending)
+		{
+			return;
+		}
+		updatePending = true;
+		SwingUtilities.invokeLater(new Runnable()
+		{
+			public void run()
+			{
+				updatePending = false;
+				if (!BulkUpdate.isActive())
+				{
+					findDuplicates();
+				}
+			}
+		});
+	} // }}}
+
+	// {{{ -findDuplicates() : void
+	/**
+	 * Recomputes the duplicates and repaints the buffers whose badge has
+	 * changed.
+	 */
+	private static void findDuplicates()
+	{
+		Set<Buffer> before = new HashSet<Buffer>(duplicates.keySet());
+		duplicates.clear();
+		if (enabled)
+		{
+			collectDuplicates();
+		}
+		List<Buffer> changed = new ArrayList<Buffer>();
+		for (Buffer buffer : duplicates.keySet())
+		{
+			if (!before.remove(buffer))
+			{
+				changed.add(buffer);
+			}
+		}
+		changed.addAll(before);
+		if (!changed.isEmpty())
+		{
+			notifyBufferLists(changed);
+		}
+	} // }}}
+
+	// {{{ -notifyBufferLists(Collection<Buffer>) : void
+	private static void notifyBufferLists(Collection<Buffer> buffers)
+	{
+		View[] views = jEdit.getViews();
+		if (views == null)
+		{
+			return;
+		}
+		for (View view : views)
+		{
+			BufferList bufferlist = (BufferList) view.getDockableWindowManager().getDockable(
+				"bufferlist");
+			if (bufferlist != null)
+			{
+				bufferlist.decorationsChanged(buffers);
+			}
+		}
+	} // }}}
+
+	// {{{ -collectDuplicates() : void
+	private static void collectDuplicates()
+	{
+		Map<String, Buffer> files = new HashMap<String, Buffer>();
+		for (Buffer buffer : jEdit.getBuffers())
+		{
+			if (buffer.isUntitled())
+			{
+				continue;
+			}
+			String dir = dirs.get(buffer.getVFS().getParentOfPath(buffer.getPath()));
+			if (dir == null)
+			{
+				continue;
+			}
+			String file = MiscUtilities.constructPath(dir, buffer.getName());
+			Buffer first = files.get(file);
+			if (first == null)
+			{
+				files.put(file, buffer);
+			}
+			else
+			{
+				duplicates.put(buffer, first);
+				if (!duplicates.containsKey(first))
+				{
+					duplicates.put(first, buffer);
+				}
+			}
+		}
+	} // }}}
+
+	// {{{ -lookup(String) : String
+	/**
+	 * @return the real path of a local directory; the directory itself if it
+	 *         cannot be resolved. Like the directory, which comes from
+	 *         <code>VFS.getParentOfPath()</code>, it ends with a separator, so
+	 *         that unchanged directories compare equal.
+	 */
+	private static String lookup(String dir)
+	{
+		try
+		{
+			String real = Paths.get(dir).toRealPath().toString();
+			if (endsWithSeparator(dir) && !endsWithSeparator(real))
+			{
+				real += File.separator;
+			}
+			return real;
+		}
+		catch (IOException e)
+		{
+			Log.log(Log.DEBUG, CanonicalPaths.class, "Cannot resolve " + dir + ": " + e);
+		}
+		catch (InvalidPathException e)
+		{
+			Log.log(Log.DEBUG, CanonicalPaths.class, "Cannot resolve " + dir + ": " + e);
+		}
+		return dir;
+	} // }}}
+
+	// {{{ -endsWithSeparator(String) : boolean
+	private static boolean endsWithSeparator(String path)
+	{
+		return path.endsWith("/") || path.endsWith(File.separator);
+	} // }}}
+}
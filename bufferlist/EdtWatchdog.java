@@ -0,0 +1,262 @@
+/*{{{ header
+ * EdtWatchdog.java - reports BufferList handlers that block the EDT
+ *
+ * :tabSize=4:indentSize=4:noTabs=false:maxLineLen=0:folding=explicit:collapseFolds=1:
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA 02111-1307, USA.
+ *}}}
+ */
+package bufferlist;
+
+// {{{ imports
+import java.util.Arrays;
+import java.util.Timer;
+import java.util.TimerTask;
+
+import org.gjt.sp.jedit.jEdit;
+import org.gjt.sp.jedit.msg.BufferUpdate;
+import org.gjt.sp.jedit.msg.EditPaneUpdate;
+import org.gjt.sp.util.Log;
+
+// }}}
+
+/**
+ * Opt-in watchdog that times BufferList's EditBus dispatches and model
+ * rebuilds. When one of them takes longer than the configured budget
+ * (property <code>bufferlist.watchdog.budget</code>, in milliseconds), a
+ * record with the event, the number of open buffers, the phase timings and a
+ * stack of the dispatching thread sampled while it was stalled is written to
+ * the activity log.
+ * <p>
+ * {@link #begin(Object)} and {@link #end()} must be called on the event
+ * dispatch thread. When the watchdog is disabled they cost a field read.
+ */
+public class EdtWatchdog
+{
+	// {{{ configuration
+	private static volatile boolean enabled;
+
+	private static volatile long budgetNanos;
+
+	private static Timer sampler; // }}}
+
+	// {{{ dispatch state, only written on the dispatching thread
+	private static int depth;
+
+	private static Object event;
+
+	private static long seq;
+
+	private static final long[] phaseNanos = new long[BufferListMetrics.TIMER_COUNT]; // }}}
+
+	// {{{ dispatch state, shared with the sampler
+	private static volatile Thread dispatchThread;
+
+	private static volatile long dispatchStart;
+
+	/**
+	 * Sequence number of the running dispatch, 0 if none.
+	 */
+	private static volatile long activeSeq;
+
+	private static volatile StackTraceElement[] sampledStack;
+
+	private static volatile long sampledSeq;
+
+	private static volatile long sampledAt; // }}}
+
+	// {{{ +configure() : void
+	/**
+	 * (Re-)reads the watchdog properties; starts or stops the sampler thread.
+	 */
+	public static synchronized void configure()
+	{
+		budgetNanos = Math.max(1, jEdit.getIntegerProperty("bufferlist.watchdog.budget", 50)) * 1000000L;
+		boolean enable = jEdit.getBooleanProperty("bufferlist.watchdog.enabled", false);
+		if (sampler != null)
+		{
+			sampler.cancel();
+			sampler = null;
+		}
+		if (enable)
+		{
+			long period = Math.max(1, budgetNanos / 2000000L);
+			sampler = new Timer("BufferList EDT watchdog", true);
+			sampler.schedule(new Sampler(), period, period);
+		}
+		enabled = enable;
+	} // }}}
+
+	// {{{ +shutdown() : void
+	public static synchronized void shutdown()
+	{
+		enabled = false;
+		if (sampler != null)
+		{
+			sampler.cancel();
+			sampler = null;
+		}
+	} // }}}
+
+	// {{{ +isEnabled() : boolean
+	public static boolean isEnabled()
+	{
+		return enabled;
+	} // }}}
+
+	// {{{ +begin(Object) : void
+	/**
+	 * Starts timing a dispatch. Nested calls are folded into the outermost
+	 * one. Every call must be paired with a call to {@link #end()}.
+	 *
+	 * @param evt
+	 *            the EditBus message or a short name of the operation.
+	 */
+	public static void begin(Object evt)
+	{
+		if (!enabled)
+		{
+			return;
+		}
+		if (depth++ > 0)
+		{
+			return;
+		}
+		event = evt;
+		Arrays.fill(phaseNanos, 0);
+		dispatchThread = Thread.currentThread();
+		dispatchStart = System.nanoTime();
+		activeSeq = ++seq;
+	} // }}}
+
+	// {{{ +end() : void
+	public static void end()
+	{
+		if (depth == 0 || --depth > 0)
+		{
+			return;
+		}
+		long elapsed = System.nanoTime() - dispatchStart;
+		long current = activeSeq;
+		activeSeq = 0;
+		if (elapsed > budgetNanos)
+		{
+			report(elapsed, sampledSeq == current ? sampledStack : null);
+		}
+		event = null;
+		dispatchThread = null;
+	} // }}}
+
+	// {{{ phase(int, long) : void
+	/**
+	 * Adds the time spent in a phase to the running dispatch; called by
+	 * {@link BufferListMetrics#recordTime(int, long)}.
+	 */
+	static void phase(int timer, long nanos)
+	{
+		if (depth > 0 && Thread.currentThread() == dispatchThread)
+		{
+			phaseNanos[timer] += nanos;
+		}
+	} // }}}
+
+	// {{{ -report(long, StackTraceElement[]) : void
+	private static void report(long elapsed, StackTraceElement[] stack)
+	{
+		StringBuilder sb = new StringBuilder();
+		sb.append("EDT stall: event=").append(describe(event));
+		sb.append(" buffers=").append(jEdit.getBufferCount());
+		sb.append(" total=").append(elapsed / 1000000L).append("ms");
+		sb.append(" budget=").append(budgetNanos / 1000000L).append("ms");
+		sb.append(" phases={");
+		boolean first = true;
+		for (int i = 0; i < phaseNanos.length; i++)
+		{
+			if (phaseNanos[i] != 0)
+			{
+				if (!first)
+				{
+					sb.append(", ");
+				}
+				first = false;
+				sb.append(BufferListMetrics.getTimerName(i)).append('=').append(
+					phaseNanos[i] / 1000000L).append("ms");
+			}
+		}
+		sb.append('}');
+		if (stack == null)
+		{
+			sb.append("\n\t(no stack sampled)");
+		}
+		else
+		{
+			sb.append("\n\tstack sampled at +").append(sampledAt / 1000000L).append("ms:");
+			for (StackTraceElement element : stack)
+			{
+				sb.append("\n\tat ").append(element);
+			}
+		}
+		Log.log(Log.WARNING, EdtWatchdog.class, sb.toString());
+	} // }}}
+
+	// {{{ -describe(Object) : String
+	private static String describe(Object evt)
+	{
+		if (evt instanceof BufferUpdate)
+		{
+			return "BufferUpdate." + ((BufferUpdate) evt).getWhat();
+		}
+		else if (evt instanceof EditPaneUpdate)
+		{
+			return "EditPaneUpdate." + ((EditPaneUpdate) evt).getWhat();
+		}
+		else if (evt instanceof String)
+		{
+			return (String) evt;
+		}
+		return evt == null ? "null" : evt.getClass().getSimpleName();
+	} // }}}
+
+	// {{{ -class Sampler
+	/**
+	 * Captures the stack of the dispatching thread once per dispatch, as soon
+	 * as the dispatch exceeds its budget.
+	 */
+	private static class Sampler extends TimerTask
+	{
+		@Override
+		public void run()
+		{
+			long current = activeSeq;
+			if (current == 0 || sampledSeq == current)
+			{
+				return;
+			}
+			long elapsed = System.nanoTime() - dispatchStart;
+			Thread thread = dispatchThread;
+			if (elapsed <= budgetNanos || thread == null)
+			{
+				return;
+			}
+			StackTraceElement[] stack = thread.getStackTrace();
+			if (activeSeq == current)
+			{
+				sampledStack = stack;
+				sampledAt = elapsed;
+				sampledSeq = current;
+			}
+		}
+	} // }}}
+}
@@ -0,0 +1,672 @@
+/*{{{ header
+ * EventTrace.java - records the EditBus messages BufferList reacts to
+ *
+ * :tabSize=4:indentSize=4:noTabs=false:maxLineLen=0:folding=explicit:collapseFolds=1:
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA 02111-1307, USA.
+ *}}}
+ */
+package bufferlist;
+
+// {{{ imports
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import org.gjt.sp.jedit.Buffer;
+import org.gjt.sp.jedit.EBMessage;
+import org.gjt.sp.jedit.EditPane;
+import org.gjt.sp.jedit.EditPlugin;
+import org.gjt.sp.jedit.View;
+import org.gjt.sp.jedit.jEdit;
+import org.gjt.sp.jedit.msg.BufferUpdate;
+import org.gjt.sp.jedit.msg.EditPaneUpdate;
+import org.gjt.sp.jedit.msg.PropertiesChanged;
+import org.gjt.sp.util.Log;
+
+// }}}
+
+/**
+ * A recording of the <code>BufferUpdate</code>, <code>EditPaneUpdate</code>
+ * and <code>PropertiesChanged</code> messages of a jEdit session, to be
+ * replayed by {@link EventTraceReplay} outside of jEdit. Recording is
+ * switched on and off with {@link #start(View)} and {@link #stop(View)}
+ * (actions <b>Start Event Trace</b> and <b>Stop Event Trace</b>); while it is
+ * on, the plugin passes every message to {@link #record(EBMessage)}.
+ * <p>
+ * The file is a gzipped stream of records. Buffers and edit panes are
+ * numbered from 1 in the order they first appear; a buffer's path is written
+ * once, and again only after it has changed ("save as"). Times are the
+ * microseconds since the previous record:
+ * <pre>
+ * int magic "BLTR", byte version, long start time (ms since 1970)
+ * 0 PATH:        varint buffer, UTF path
+ * 1 BUFFER:      varint time, byte what, varint buffer     (tag | 0x80 if dirty)
+ * 2 EDIT_PANE:   varint time, byte what, varint pane, varint buffer (0 = none)
+ * 3 PROPERTIES:  varint time
+ * </pre>
+ * The recorder is only used on the event dispatch thread.
+ */
+public class EventTrace
+{
+	// {{{ format constants
+	private static final int MAGIC = 0x424c5452;
+
+	private static final int VERSION = 1;
+
+	static final int PATH = 0;
+
+	static final int BUFFER = 1;
+
+	static final int EDIT_PANE = 2;
+
+	static final int PROPERTIES = 3;
+
+	private static final int DIRTY = 0x80;
+
+	/**
+	 * The recorded kinds of BufferUpdate, by their number in the file.
+	 */
+	static final String[] BUFFER_EVENTS = { "CREATED", "LOADED", "CLOSED", "DIRTY_CHANGED",
+		"SAVED", "PROPERTIES_CHANGED" };
+
+	static final int CREATED = 0, LOADED = 1, CLOSED = 2, DIRTY_CHANGED = 3, SAVED = 4,
+		BUFFER_PROPERTIES_CHANGED = 5;
+
+	/**
+	 * The recorded kinds of EditPaneUpdate, by their number in the file.
+	 */
+	static final String[] EDIT_PANE_EVENTS = { "CREATED", "DESTROYED", "BUFFER_CHANGED",
+		"BUFFERSET_CHANGED" };
+
+	static final int PANE_CREATED = 0, PANE_DESTROYED = 1, BUFFER_CHANGED = 2,
+		BUFFERSET_CHANGED = 3; // }}}
+
+	// {{{ recorder state
+	private static DataOutputStream out;
+
+	private static File file;
+
+	private static long lastNanos;
+
+	private static int recorded;
+
+	private static int maxEvents;
+
+	private static int lastBufferId;
+
+	private static int lastPaneId;
+
+	private static final Map<Buffer, BufferId> bufferIds = new WeakHashMap<Buffer, BufferId>();
+
+	private static final Map<EditPane, Integer> paneIds = new WeakHashMap<EditPane, Integer>(); // }}}
+
+	// {{{ loaded trace
+	private final long startTime;
+
+	/**
+	 * One element per record, in file order.
+	 */
+	private final byte[] tags, whats;
+
+	private final boolean[] dirty;
+
+	private final int[] buffers, panes;
+
+	/**
+	 * Microseconds since the first record.
+	 */
+	private final long[] times;
+
+	/**
+	 * For PATH records, indexed like the arrays above; null for the others.
+	 */
+	private final String[] paths;
+
+	private final int bufferCount; // }}}
+
+	// {{{ -EventTrace(...) : <init>
+	private EventTrace(long startTime, int size, int bufferCount)
+	{
+		this.startTime = startTime;
+		this.bufferCount = bufferCount;
+		tags = new byte[size];
+		whats = new byte[size];
+		dirty = new boolean[size];
+		buffers = new int[size];
+		panes = new int[size];
+		times = new long[size];
+		paths = new String[size];
+	} // }}}
+
+	// {{{ +start(View) : void
+	/**
+	 * Starts recording to a new file in the directory <code>traces</code> of
+	 * the plugin home, and shows its name in the status bar of the view.
+	 */
+	public static void start(View view)
+	{
+		if (isRecording())
+		{
+			view.getStatus().setMessageAndClear(jEdit.getProperty("bufferlist.trace.running",
+				new Object[] { file }));
+			return;
+		}
+		File home = EditPlugin.getPluginHome(BufferListPlugin.class);
+		if (home == null)
+		{
+			return;
+		}
+		File traceFile = new File(new File(home, "traces"), new SimpleDateFormat(
+			"yyyyMMdd-HHmmss").format(new Date()) + ".bltrace");
+		try
+		{
+			start(traceFile);
+			view.getStatus().setMessageAndClear(jEdit.getProperty("bufferlist.trace.started",
+				new Object[] { traceFile }));
+		}
+		catch (IOException e)
+		{
+			Log.log(Log.ERROR, EventTrace.class, "Cannot write " + traceFile + ": " + e);
+		}
+	} // }}}
+
+	// {{{ +start(File) : void
+	/**
+	 * Starts recording to the given file. At most
+	 * <code>bufferlist.trace.maxEvents</code> messages are recorded.
+	 */
+	public static void start(File traceFile) throws IOException
+	{
+		stop();
+		traceFile.getParentFile().mkdirs();
+		DataOutputStream stream = new DataOutputStream(new BufferedOutputStream(
+			new GZIPOutputStream(new FileOutputStream(traceFile))));
+		stream.writeInt(MAGIC);
+		stream.writeByte(VERSION);
+		stream.writeLong(System.currentTimeMillis());
+		out = stream;
+		file = traceFile;
+		lastNanos = System.nanoTime();
+		recorded = 0;
+		maxEvents = jEdit.getIntegerProperty("bufferlist.trace.maxEvents", 1000000);
+		lastBufferId = 0;
+		lastPaneId = 0;
+		bufferIds.clear();
+		paneIds.clear();
+		Log.log(Log.NOTICE, EventTrace.class, "Recording BufferList events to " + traceFile);
+	} // }}}
+
+	// {{{ +stop(View) : void
+	/**
+	 * Stops recording and shows the name of the file in the status bar.
+	 */
+	public static void stop(View view)
+	{
+		if (!isRecording())
+		{
+			return;
+		}
+		File traceFile = file;
+		int events = recorded;
+		stop();
+		view.getStatus().setMessageAndClear(jEdit.getProperty("bufferlist.trace.stopped",
+			new Object[] { Integer.valueOf(events), traceFile }));
+	} // }}}
+
+	// {{{ +stop() : void
+	public static void stop()
+	{
+		if (out == null)
+		{
+			return;
+		}
+		try
+		{
+			out.close();
+		}
+		catch (IOException e)
+		{
+			Log.log(Log.ERROR, EventTrace.class, "Cannot write " + file + ": " + e);
+		}
+		Log.log(Log.NOTICE, EventTrace.class, "Recorded " + recorded + " BufferList events to "
+			+ file);
+		out = null;
+		file = null;
+		bufferIds.clear();
+		paneIds.clear();
+	} // }}}
+
+	// {{{ +isRecording() : boolean
+	public static boolean isRecording()
+	{
+		return out != null;
+	} // }}}
+
+	// {{{ record(EBMessage) : void
+	/**
+	 * Called by the plugin for every EditBus message; does nothing unless
+	 * recording. Stops recording if the file cannot be written or the
+	 * maximum number of events has been reached.
+	 */
+	static void record(EBMessage message)
+	{
+		if (out == null)
+		{
+			return;
+		}
+		try
+		{
+			if (message instanceof BufferUpdate)
+			{
+				BufferUpdate bu = (BufferUpdate) message;
+				int what = getBufferEvent(bu.getWhat());
+				if (what < 0 || bu.getBuffer() == null)
+				{
+					return;
+				}
+				int buffer = getBufferId(bu.getBuffer());
+				out.writeByte(BUFFER | (bu.getBuffer().isDirty() ? DIRTY : 0));
+				writeTime();
+				out.writeByte(what);
+				writeVarLong(buffer);
+			}
+			else if (message instanceof EditPaneUpdate)
+			{
+				EditPaneUpdate epu = (EditPaneUpdate) message;
+				int what = getEditPaneEvent(epu.getWhat());
+				if (what < 0)
+				{
+					return;
+				}
+				Buffer current = epu.getEditPane().getBuffer();
+				int buffer = current == null ? 0 : getBufferId(current);
+				out.writeByte(EDIT_PANE);
+				writeTime();
+				out.writeByte(what);
+				writeVarLong(getPaneId(epu.getEditPane()));
+				writeVarLong(buffer);
+			}
+			else if (message instanceof PropertiesChanged)
+			{
+				out.writeByte(PROPERTIES);
+				writeTime();
+			}
+			else
+			{
+				return;
+			}
+			if (++recorded >= maxEvents)
+			{
+				stop();
+			}
+		}
+		catch (IOException e)
+		{
+			Log.log(Log.ERROR, EventTrace.class, "Cannot write " + file + ": " + e);
+			stop();
+		}
+	} // }}}
+
+	// {{{ -getBufferEvent(Object) : int
+	private static int getBufferEvent(Object what)
+	{
+		if (what == BufferUpdate.CREATED)
+		{
+			return CREATED;
+		}
+		else if (what == BufferUpdate.LOADED)
+		{
+			return LOADED;
+		}
+		else if (what == BufferUpdate.CLOSED)
+		{
+			return CLOSED;
+		}
+		else if (what == BufferUpdate.DIRTY_CHANGED)
+		{
+			return DIRTY_CHANGED;
+		}
+		else if (what == BufferUpdate.SAVED)
+		{
+			return SAVED;
+		}
+		else if (what == BufferUpdate.PROPERTIES_CHANGED)
+		{
+			return BUFFER_PROPERTIES_CHANGED;
+		}
+		return -1;
+	} // }}}
+
+	// {{{ -getEditPaneEvent(Object) : int
+	private static int getEditPaneEvent(Object what)
+	{
+		if (what == EditPaneUpdate.CREATED)
+		{
+			return PANE_CREATED;
+		}
+		else if (what == EditPaneUpdate.DESTROYED)
+		{
+			return PANE_DESTROYED;
+		}
+		else if (what == EditPaneUpdate.BUFFER_CHANGED)
+		{
+			return BUFFER_CHANGED;
+		}
+		else if (what == EditPaneUpdate.BUFFERSET_CHANGED)
+		{
+			return BUFFERSET_CHANGED;
+		}
+		return -1;
+	} // }}}
+
+	// {{{ -getBufferId(Buffer) : int
+	/**
+	 * @return the number of the buffer; writes a PATH record first if the
+	 *         buffer is new or its path has changed.
+	 */
+	private static int getBufferId(Buffer buffer) throws IOException
+	{
+		BufferId id = bufferIds.get(buffer);
+		if (id == null)
+		{
+			id = new BufferId(++lastBufferId);
+			bufferIds.put(buffer, id);
+		}
+		String path = buffer.getPath();
+		if (!path.equals(id.path))
+		{
+			id.path = path;
+			out.writeByte(PATH);
+			writeVarLong(id.id);
+			out.writeUTF(path);
+		}
+		return id.id;
+	} // }}}
+
+	// {{{ -getPaneId(EditPane) : int
+	private static int getPaneId(EditPane editPane)
+	{
+		Integer id = paneIds.get(editPane);
+		if (id == null)
+		{
+			id = Integer.valueOf(++lastPaneId);
+			paneIds.put(editPane, id);
+		}
+		return id.intValue();
+	} // }}}
+
+	// {{{ -writeTime() : void
+	private static void writeTime() throws IOException
+	{
+		long now = System.nanoTime();
+		writeVarLong((now - lastNanos) / 1000);
+		lastNanos = now;
+	} // }}}
+
+	// {{{ -writeVarLong(long) : void
+	/**
+	 * Writes a non-negative number in 7 bit groups, lowest first; the high
+	 * bit of each byte tells whether another one follows.
+	 */
+	private static void writeVarLong(long value) throws IOException
+	{
+		while ((value & ~0x7fL) != 0)
+		{
+			out.writeByte((int) (value & 0x7f) | 0x80);
+			value >>>= 7;
+		}
+		out.writeByte((int) value);
+	} // }}}
+
+	// {{{ -readVarLong(DataInputStream) : long
+	private static long readVarLong(DataInputStream in) throws IOException
+	{
+		long value = 0;
+		for (int shift = 0; shift < 64; shift += 7)
+		{
+			int b = in.readUnsignedByte();
+			value |= (long) (b & 0x7f) << shift;
+			if ((b & 0x80) == 0)
+			{
+				return value;
+			}
+		}
+		throw new IOException("Invalid number");
+	} // }}}
+
+	// {{{ +read(File) : EventTrace
+	/**
+	 * Loads a trace; does not need a running jEdit.
+	 *
+	 * @throws IOException
+	 *             if the file cannot be read or is not a trace.
+	 */
+	public static EventTrace read(File traceFile) throws IOException
+	{
+		DataInputStream in = new DataInputStream(new BufferedInputStream(new GZIPInputStream(
+			new FileInputStream(traceFile))));
+		try
+		{
+			if (in.readInt() != MAGIC)
+			{
+				throw new IOException(traceFile + " is not a BufferList event trace");
+			}
+			int version = in.readUnsignedByte();
+			if (version != VERSION)
+			{
+				throw new IOException("Unsupported trace version " + version);
+			}
+			long startTime = in.readLong();
+			List<long[]> records = new ArrayList<long[]>();
+			List<String> recordPaths = new ArrayList<String>();
+			int maxBuffer = 0;
+			long time = 0;
+			while (true)
+			{
+				int tag;
+				try
+				{
+					tag = in.readUnsignedByte();
+				}
+				catch (EOFException e)
+				{
+					break;
+				}
+				// tag, what, dirty, buffer, pane, time
+				long[] record = new long[6];
+				record[0] = tag & ~DIRTY;
+				record[2] = (tag & DIRTY) != 0 ? 1 : 0;
+				String path = null;
+				switch ((int) record[0])
+				{
+				case PATH:
+					record[3] = readVarLong(in);
+					path = in.readUTF();
+					break;
+				case BUFFER:
+					time += readVarLong(in);
+					record[1] = in.readUnsignedByte();
+					record[3] = readVarLong(in);
+					break;
+				case EDIT_PANE:
+					time += readVarLong(in);
+					record[1] = in.readUnsignedByte();
+					record[4] = readVarLong(in);
+					record[3] = readVarLong(in);
+					break;
+				case PROPERTIES:
+					time += readVarLong(in);
+					break;
+				default:
+					throw new IOException("Invalid record " + tag + " after " + records.size()
+						+ " records");
+				}
+				record[5] = time;
+				maxBuffer = Math.max(maxBuffer, (int) record[3]);
+				records.add(record);
+				recordPaths.add(path);
+			}
+			EventTrace trace = new EventTrace(startTime, records.size(), maxBuffer + 1);
+			for (int i = 0; i < records.size(); i++)
+			{
+				long[] record = records.get(i);
+				trace.tags[i] = (byte) record[0];
+				trace.whats[i] = (byte) record[1];
+				trace.dirty[i] = record[2] != 0;
+				trace.buffers[i] = (int) record[3];
+				trace.panes[i] = (int) record[4];
+				trace.times[i] = record[5];
+				trace.paths[i] = recordPaths.get(i);
+			}
+			return trace;
+		}
+		finally
+		{
+			in.close();
+		}
+	} // }}}
+
+	// {{{ accessors of a loaded trace
+	/**
+	 * @return the number of records, including PATH records.
+	 */
+	public int size()
+	{
+		return tags.length;
+	}
+
+	/**
+	 * @return the number of EditBus messages, i.e. the records that are not
+	 *         PATH records.
+	 */
+	public int getEventCount()
+	{
+		int count = 0;
+		for (byte tag : tags)
+		{
+			if (tag != PATH)
+			{
+				count++;
+			}
+		}
+		return count;
+	}
+
+	/**
+	 * @return the highest buffer number plus one.
+	 */
+	public int getBufferCount()
+	{
+		return bufferCount;
+	}
+
+	public long getStartTime()
+	{
+		return startTime;
+	}
+
+	/**
+	 * @return the microseconds between the first and the last record.
+	 */
+	public long getDuration()
+	{
+		return times.length == 0 ? 0 : times[times.length - 1];
+	}
+
+	int getTag(int index)
+	{
+		return tags[index];
+	}
+
+	int getWhat(int index)
+	{
+		return whats[index];
+	}
+
+	boolean isDirty(int index)
+	{
+		return dirty[index];
+	}
+
+	int getBuffer(int index)
+	{
+		return buffers[index];
+	}
+
+	int getPane(int index)
+	{
+		return panes[index];
+	}
+
+	long getTime(int index)
+	{
+		return times[index];
+	}
+
+	String getPath(int index)
+	{
+		return paths[index];
+	}
+
+	/**
+	 * @return the name of the kind of the record, e.g.
+	 *         "BufferUpdate.CLOSED".
+	 */
+	String getKindName(int index)
+	{
+		switch (tags[index])
+		{
+		case PATH:
+			return "path";
+		case BUFFER:
+			return "BufferUpdate." + BUFFER_EVENTS[whats[index]];
+		case EDIT_PANE:
+			return "EditPaneUpdate." + EDIT_PANE_EVENTS[whats[index]];
+		default:
+			return "PropertiesChanged";
+		}
+	} // }}}
+
+	// {{{ -class BufferId
+	private static class BufferId
+	{
+		final int id;
+
+		/**
+		 * The path last written to the trace.
+		 */
+		String path;
+
+		BufferId(int id)
+		{
+			this.id = id;
+		}
+	} // }}}
+}
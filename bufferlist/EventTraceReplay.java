@@ -0,0 +1,568 @@
+/*{{{ header
+ * EventTraceReplay.java - replays an EventTrace against the tree model
+ *
+ * :tabSize=4:indentSize=4:noTabs=false:maxLineLen=0:folding=explicit:collapseFolds=1:
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA 02111-1307, USA.
+ *}}}
+ */
+package bufferlist;
+
+// {{{ imports
+import java.io.File;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import javax.swing.event.TreeModelEvent;
+import javax.swing.event.TreeModelListener;
+import javax.swing.tree.DefaultTreeModel;
+
+import org.gjt.sp.util.StandardUtilities;
+
+// }}}
+
+/**
+ * Replays an {@link EventTrace} without jEdit and reports how fast the tree
+ * model keeps up with it: throughput, latency percentiles per kind of event
+ * and bytes allocated per event. Run it with the jEdit and BufferList jars
+ * on the class path:
+ *
+ * <pre>
+ * java -Djava.awt.headless=true -cp jedit.jar:BufferList.jar \
+ *     bufferlist.EventTraceReplay [-warmup n] [-runs n] [-ignoreCase] file.bltrace
+ * </pre>
+ *
+ * What is measured is the part of BufferList that does not need a View or
+ * jEdit buffers, for a Buffer List in "flat tree" mode, sorted by directory,
+ * showing the buffers of all edit panes and not grouped:
+ * <ul>
+ * <li>a buffer opened or closed, and moved by "save as", is inserted and
+ * removed with its directory node by {@link TreeUpdates}, the code
+ * BufferList runs for that, in the same {@link BufferListTreeNode}s and
+ * <code>DefaultTreeModel</code>, including the file counts of the
+ * directories and the repainting of their rows;</li>
+ * <li>a buffer modified or saved is updated by {@link TreeUpdates} as
+ * well.</li>
+ * </ul>
+ * Not measured: a change of the buffer set or the properties rebuilds the
+ * tree here by sorting the paths and adding the nodes, which approximates
+ * <code>BufferList.buildModel()</code> but is not the same code; switching
+ * buffers only looks up the path of the new current buffer; BufferSetTracker,
+ * grouping, filters, snapshots, canonical directories, the JTree and
+ * everything jEdit does for the same messages, e.g. loading files, are left
+ * out. Buffer nodes carry stand-ins with the names of the buffers, since
+ * real buffers need a running jEdit.
+ */
+public class EventTraceReplay
+{
+	// {{{ instance variables
+	private final EventTrace trace;
+
+	private final boolean ignoreCase;
+
+	private BufferListTreeNode root;
+
+	private DefaultTreeModel model;
+
+	private final Map<String, BufferListTreeNode> dirNodes = new HashMap<String, BufferListTreeNode>();
+
+	/**
+	 * Indexed by buffer number.
+	 */
+	private final String[] paths;
+
+	private final BufferListTreeNode[] bufferNodes;
+
+	/**
+	 * Dirty state of each buffer as last recorded.
+	 */
+	private final boolean[] dirty;
+
+	private final Comparator<String> dirOrder;
+
+	/**
+	 * Tree model events received, to keep them from being optimized away.
+	 */
+	private long treeEvents; // }}}
+
+	// {{{ +EventTraceReplay(EventTrace, boolean) : <init>
+	public EventTraceReplay(EventTrace trace, final boolean ignoreCase)
+	{
+		this.trace = trace;
+		this.ignoreCase = ignoreCase;
+		paths = new String[trace.getBufferCount()];
+		bufferNodes = new BufferListTreeNode[trace.getBufferCount()];
+		dirty = new boolean[trace.getBufferCount()];
+		dirOrder = new Comparator<String>()
+		{
+			public int compare(String dir1, String dir2)
+			{
+				return StandardUtilities.compareStrings(dir1, dir2, ignoreCase);
+			}
+		};
+	} // }}}
+
+	// {{{ +main(String[]) : void
+	public static void main(String[] args)
+	{
+		int warmup = 3;
+		int runs = 5;
+		boolean ignoreCase = false;
+		String fileName = null;
+		try
+		{
+			for (int i = 0; i < args.length; i++)
+			{
+				if (args[i].equals("-warmup"))
+				{
+					warmup = Integer.parseInt(args[++i]);
+				}
+				else if (args[i].equals("-runs"))
+				{
+					runs = Math.max(1, Integer.parseInt(args[++i]));
+				}
+				else if (args[i].equals("-ignoreCase"))
+				{
+					ignoreCase = true;
+				}
+				else
+				{
+					fileName = args[i];
+				}
+			}
+		}
+		catch (RuntimeException e)
+		{
+			fileName = null;
+		}
+		if (fileName == null)
+		{
+			System.err.println("usage: java bufferlist.EventTraceReplay [-warmup n] [-runs n]"
+				+ " [-ignoreCase] file.bltrace");
+			System.exit(2);
+		}
+		try
+		{
+			EventTrace trace = EventTrace.read(new File(fileName));
+			System.out.print(new EventTraceReplay(trace, ignoreCase).benchmark(warmup, runs));
+		}
+		catch (IOException e)
+		{
+			System.err.println(e.getMessage());
+			System.exit(1);
+		}
+	} // }}}
+
+	// {{{ +benchmark(int, int) : String
+	/**
+	 * Replays the trace <code>warmup</code> times without measuring, then
+	 * <code>runs</code> times measuring each event.
+	 *
+	 * @return the report.
+	 */
+	public String benchmark(int warmup, int runs)
+	{
+		for (int i = 0; i < warmup; i++)
+		{
+			replay(null);
+		}
+		int size = trace.size();
+		long[][] latencies = new long[runs][];
+		long totalNanos = 0;
+		long allocated = 0;
+		boolean allocationKnown = true;
+		for (int run = 0; run < runs; run++)
+		{
+			latencies[run] = new long[size];
+			long bytesBefore = getAllocatedBytes();
+			long start = System.nanoTime();
+			replay(latencies[run]);
+			totalNanos += System.nanoTime() - start;
+			long bytesAfter = getAllocatedBytes();
+			if (bytesBefore < 0 || bytesAfter < 0)
+			{
+				allocationKnown = false;
+			}
+			allocated += bytesAfter - bytesBefore;
+		}
+
+		// group the samples by kind of event
+		Map<String, List<Integer>> byKind = new TreeMap<String, List<Integer>>();
+		for (int i = 0; i < size; i++)
+		{
+			if (trace.getTag(i) == EventTrace.PATH)
+			{
+				continue;
+			}
+			String kind = trace.getKindName(i);
+			List<Integer> indexes = byKind.get(kind);
+			if (indexes == null)
+			{
+				indexes = new ArrayList<Integer>();
+				byKind.put(kind, indexes);
+			}
+			indexes.add(Integer.valueOf(i));
+		}
+		int events = trace.getEventCount();
+		StringBuilder report = new StringBuilder();
+		report.append(String.format("events: %d, buffers: %d, recorded over %.1f s%n", events,
+			trace.getBufferCount() - 1, trace.getDuration() / 1e6));
+		report.append(String.format("runs: %d (after %d warm-up runs)%n", runs, warmup));
+		report.append(String.format("throughput: %.0f events/s%n", totalNanos == 0 ? 0.0
+			: (double) events * runs * 1e9 / totalNanos));
+		if (allocationKnown && events > 0)
+		{
+			report.append(String.format("allocated: %.0f bytes/event%n", (double) allocated
+				/ runs / events));
+		}
+		else
+		{
+			report.append("allocated: not available on this JVM\n");
+		}
+		report.append(String.format("%-36s %8s %9s %9s %9s %9s%n", "latency (us)", "count",
+			"p50", "p90", "p99", "max"));
+		List<Integer> all = new ArrayList<Integer>();
+		for (Map.Entry<String, List<Integer>> e : byKind.entrySet())
+		{
+			appendPercentiles(report, e.getKey(), e.getValue(), latencies);
+			all.addAll(e.getValue());
+		}
+		appendPercentiles(report, "all", all, latencies);
+		return report.toString();
+	} // }}}
+
+	// {{{ -appendPercentiles(StringBuilder, String, List<Integer>, long[][]) : void
+	private static void appendPercentiles(StringBuilder report, String kind,
+		List<Integer> indexes, long[][] latencies)
+	{
+		long[] samples = new long[indexes.size() * latencies.length];
+		int n = 0;
+		for (long[] run : latencies)
+		{
+			for (Integer index : indexes)
+			{
+				samples[n++] = run[index.intValue()];
+			}
+		}
+		if (n == 0)
+		{
+			return;
+		}
+		Arrays.sort(samples);
+		report.append(String.format("%-36s %8d %9.1f %9.1f %9.1f %9.1f%n", kind, indexes.size(),
+			percentile(samples, 50) / 1e3, percentile(samples, 90) / 1e3,
+			percentile(samples, 99) / 1e3, samples[n - 1] / 1e3));
+	} // }}}
+
+	// {{{ -percentile(long[], int) : long
+	/**
+	 * @return the sample below which <code>p</code> percent of the sorted
+	 *         samples lie (nearest rank).
+	 */
+	private static long percentile(long[] sorted, int p)
+	{
+		int rank = (int) Math.ceil(p / 100.0 * sorted.length);
+		return sorted[Math.max(0, rank - 1)];
+	} // }}}
+
+	// {{{ -getAllocatedBytes() : long
+	/**
+	 * @return the bytes allocated by this thread so far, or -1 if the JVM
+	 *         does not tell. <code>com.sun.management.ThreadMXBean</code> is
+	 *         looked up by name, as not every JVM has it.
+	 */
+	private static long getAllocatedBytes()
+	{
+		ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+		try
+		{
+			Class<?> sunBean = Class.forName("com.sun.management.ThreadMXBean");
+			if (!sunBean.isInstance(bean))
+			{
+				return -1;
+			}
+			Method method = sunBean.getMethod("getThreadAllocatedBytes", long.class);
+			return ((Long) method.invoke(bean, Long.valueOf(Thread.currentThread().getId())))
+				.longValue();
+		}
+		catch (Exception e)
+		{
+			return -1;
+		}
+	} // }}}
+
+	// {{{ +replay(long[]) : void
+	/**
+	 * Replays the whole trace from an empty tree.
+	 *
+	 * @param latencies
+	 *            receives the nanoseconds taken by each record; may be null.
+	 */
+	public void replay(long[] latencies)
+	{
+		Arrays.fill(paths, null);
+		Arrays.fill(bufferNodes, null);
+		Arrays.fill(dirty, false);
+		dirNodes.clear();
+		root = new BufferListTreeNode("ROOT");
+		model = new DefaultTreeModel(root);
+		model.addTreeModelListener(new TreeModelListener()
+		{
+			public void treeNodesChanged(TreeModelEvent e)
+			{
+				treeEvents++;
+			}
+
+			// BufferList repaints the counts of the directories like this
+
+			public void treeNodesInserted(TreeModelEvent e)
+			{
+				treeEvents++;
+				TreeUpdates.dirCountsChanged(model, (BufferListTreeNode) e.getTreePath()
+					.getLastPathComponent());
+			}
+
+			public void treeNodesRemoved(TreeModelEvent e)
+			{
+				treeEvents++;
+				TreeUpdates.dirCountsChanged(model, (BufferListTreeNode) e.getTreePath()
+					.getLastPathComponent());
+			}
+
+			public void treeStructureChanged(TreeModelEvent e)
+			{
+				treeEvents++;
+			}
+		});
+		for (int i = 0; i < trace.size(); i++)
+		{
+			long start = latencies == null ? 0 : System.nanoTime();
+			apply(i);
+			if (latencies != null)
+			{
+				latencies[i] = System.nanoTime() - start;
+			}
+		}
+	} // }}}
+
+	// {{{ -apply(int) : void
+	private void apply(int index)
+	{
+		int buffer = trace.getBuffer(index);
+		switch (trace.getTag(index))
+		{
+		case EventTrace.PATH:
+			String oldPath = paths[buffer];
+			paths[buffer] = trace.getPath(index);
+			if (oldPath != null && bufferNodes[buffer] != null)
+			{
+				// "save as": BufferList moves the node on SAVED, like this
+				removeNode(buffer);
+				addNode(buffer);
+			}
+			break;
+		case EventTrace.BUFFER:
+			dirty[buffer] = trace.isDirty(index);
+			switch (trace.getWhat(index))
+			{
+			case EventTrace.CREATED:
+				addNode(buffer);
+				break;
+			case EventTrace.CLOSED:
+				removeNode(buffer);
+				break;
+			case EventTrace.DIRTY_CHANGED:
+			case EventTrace.SAVED:
+				if (bufferNodes[buffer] != null)
+				{
+					TreeUpdates.bufferChanged(model, bufferNodes[buffer], dirty[buffer]);
+				}
+				break;
+			default:
+				// LOADED and PROPERTIES_CHANGED leave an ungrouped tree alone
+				break;
+			}
+			break;
+		case EventTrace.EDIT_PANE:
+			if (trace.getWhat(index) == EventTrace.BUFFERSET_CHANGED)
+			{
+				rebuild();
+			}
+			else if (buffer != 0 && bufferNodes[buffer] != null)
+			{
+				// expanding the path of the current buffer
+				bufferNodes[buffer].getTreePath();
+			}
+			break;
+		default:
+			rebuild();
+			break;
+		}
+	} // }}}
+
+	// {{{ -addNode(int) : void
+	private void addNode(int buffer)
+	{
+		String path = paths[buffer];
+		if (path == null || bufferNodes[buffer] != null)
+		{
+			return;
+		}
+		String dir = getDir(path);
+		BufferListTreeNode dirNode = dirNodes.get(dir);
+		if (dirNode == null)
+		{
+			dirNode = createDirNode(dir);
+			TreeUpdates.insertDirNode(model, root, dirNode, dirOrder);
+		}
+		BufferListTreeNode node = createBufferNode(buffer);
+		TreeUpdates.insertBufferNode(model, dirNode, node, getName(path), ignoreCase);
+		bufferNodes[buffer] = node;
+	} // }}}
+
+	// {{{ -removeNode(int) : void
+	private void removeNode(int buffer)
+	{
+		BufferListTreeNode node = bufferNodes[buffer];
+		if (node == null)
+		{
+			return;
+		}
+		bufferNodes[buffer] = null;
+		BufferListTreeNode dirNode = TreeUpdates.removeBufferNode(model, root, node);
+		if (dirNode != null)
+		{
+			dirNodes.remove(dirNode.getUserPath());
+		}
+	} // }}}
+
+	// {{{ -createDirNode(String) : BufferListTreeNode
+	private BufferListTreeNode createDirNode(String dir)
+	{
+		BufferListTreeNode dirNode = new BufferListTreeNode(dir, true);
+		dirNode.setConnected();
+		dirNode.setLabel(dir);
+		dirNodes.put(dir, dirNode);
+		return dirNode;
+	} // }}}
+
+	// {{{ -createBufferNode(int) : BufferListTreeNode
+	private BufferListTreeNode createBufferNode(int buffer)
+	{
+		BufferListTreeNode node = new BufferListTreeNode(new TracedBuffer(getName(paths[buffer])),
+			false);
+		node.setDirty(dirty[buffer]);
+		return node;
+	} // }}}
+
+	// {{{ -rebuild() : void
+	/**
+	 * Builds the tree of the open buffers from scratch, sorting them once,
+	 * like <code>BufferList.buildModel()</code> does in "flat tree" mode.
+	 */
+	private void rebuild()
+	{
+		List<Integer> open = new ArrayList<Integer>();
+		for (int buffer = 0; buffer < bufferNodes.length; buffer++)
+		{
+			if (bufferNodes[buffer] != null)
+			{
+				open.add(Integer.valueOf(buffer));
+			}
+		}
+		Collections.sort(open, new Comparator<Integer>()
+		{
+			public int compare(Integer buffer1, Integer buffer2)
+			{
+				String path1 = paths[buffer1.intValue()];
+				String path2 = paths[buffer2.intValue()];
+				int cmpDir = StandardUtilities.compareStrings(getDir(path1), getDir(path2),
+					ignoreCase);
+				return cmpDir != 0 ? cmpDir : StandardUtilities.compareStrings(getName(path1),
+					getName(path2), ignoreCase);
+			}
+		});
+		dirNodes.clear();
+		root = new BufferListTreeNode("ROOT");
+		for (Integer buffer : open)
+		{
+			String path = paths[buffer.intValue()];
+			String dir = getDir(path);
+			BufferListTreeNode dirNode = dirNodes.get(dir);
+			if (dirNode == null)
+			{
+				dirNode = createDirNode(dir);
+				root.add(dirNode);
+			}
+			BufferListTreeNode node = createBufferNode(buffer.intValue());
+			dirNode.add(node);
+			bufferNodes[buffer.intValue()] = node;
+		}
+		model.setRoot(root);
+	} // }}}
+
+	// {{{ -getDir(String) : String
+	/**
+	 * @return the directory of a path, including the trailing separator as
+	 *         jEdit's VFSs return it.
+	 */
+	private static String getDir(String path)
+	{
+		return path.substring(0, getNameStart(path));
+	} // }}}
+
+	// {{{ -getName(String) : String
+	private static String getName(String path)
+	{
+		return path.substring(getNameStart(path));
+	} // }}}
+
+	// {{{ -getNameStart(String) : int
+	private static int getNameStart(String path)
+	{
+		return Math.max(path.lastIndexOf('/'), path.lastIndexOf('\\')) + 1;
+	} // }}}
+
+	// {{{ -class TracedBuffer
+	/**
+	 * Stands in for a buffer in a buffer node; the label of the node is its
+	 * name.
+	 */
+	private static class TracedBuffer
+	{
+		private final String name;
+
+		TracedBuffer(String name)
+		{
+			this.name = name;
+		}
+
+		@Override
+		public String toString()
+		{
+			return name;
+		}
+	} // }}}
+}
@@ -0,0 +1,695 @@
+/*{{{ header
+ * ExternalChanges.java - watches the files of open buffers for changes on disk
+ *
+ * :tabSize=4:indentSize=4:noTabs=false:maxLineLen=0:folding=explicit:collapseFolds=1:
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA 02111-1307, USA.
+ *}}}
+ */
+package bufferlist;
+
+// {{{ imports
+import static java.nio.file.StandardWatchEventKinds.ENTRY_CREATE;
+import static java.nio.file.StandardWatchEventKinds.ENTRY_DELETE;
+import static java.nio.file.StandardWatchEventKinds.ENTRY_MODIFY;
+import static java.nio.file.StandardWatchEventKinds.OVERFLOW;
+
+import java.awt.event.ActionEvent;
+import java.awt.event.ActionListener;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.InvalidPathException;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import javax.swing.SwingUtilities;
+import javax.swing.Timer;
+
+import org.gjt.sp.jedit.Buffer;
+import org.gjt.sp.jedit.View;
+import org.gjt.sp.jedit.jEdit;
+import org.gjt.sp.jedit.io.FileVFS;
+import org.gjt.sp.util.Log;
+
+// }}}
+
+/**
+ * Watches the directories of open local buffers with a
+ * <code>WatchService</code> and flags buffers whose files have been changed
+ * or deleted by other programs, so the BufferList can show them before
+ * jEdit notices on its own. Events are collected on a background thread
+ * until <code>bufferlist.watch.quietPeriod</code> ms pass without new ones,
+ * but for no more than <code>bufferlist.watch.maxDelay</code> ms;
+ * the files concerned are then examined on that thread and the flags are
+ * updated on the event dispatch thread in one go.
+ * <p>
+ * A buffer is flagged as changed if the modification time of its file
+ * differs from the one jEdit has loaded or saved, so saving it in jEdit does
+ * not flag it. The flags are cleared when the buffer is saved or reloaded.
+ * <p>
+ * Unless noted otherwise, methods must be called on the event dispatch
+ * thread.
+ */
+public class ExternalChanges
+{
+	public static final int UNCHANGED = 0;
+
+	public static final int CHANGED = 1;
+
+	public static final int DELETED = 2;
+
+	// {{{ state
+	private static WatchService watcher;
+
+	private static Thread thread;
+
+	/**
+	 * Registers directories with the watch service, which accesses the file
+	 * system.
+	 */
+	private static ExecutorService registrar;
+
+	/**
+	 * Paths of the watched files, by directory; read by the watcher thread.
+	 */
+	private static final ConcurrentHashMap<String, Set<String>> watched = new ConcurrentHashMap<String, Set<String>>();
+
+	private static final ConcurrentHashMap<String, WatchKey> keys = new ConcurrentHashMap<String, WatchKey>();
+
+	/**
+	 * Watched path of every watched buffer.
+	 */
+	private static final Map<Buffer, String> buffers = new HashMap<Buffer, String>();
+
+	/**
+	 * CHANGED or DELETED by path of flagged buffers.
+	 */
+	private static final Map<String, Integer> flags = new HashMap<String, Integer>();
+
+	/**
+	 * Number of flagged buffers at or below each directory. The directories
+	 * end with a separator, like <code>VFS.getParentOfPath()</code> returns
+	 * them and directory nodes show them.
+	 */
+	private static final Map<String, Integer> flaggedBelow = new HashMap<String, Integer>();
+
+	/**
+	 * Buffers reloaded by {@link #reloadChanged(View)} that have not sent
+	 * <code>BufferUpdate.LOADED</code> yet; a bulk phase is active while
+	 * there are any.
+	 */
+	private static final Set<Buffer> reloading = new HashSet<Buffer>();
+
+	/**
+	 * Ends the bulk phase of a reload if some buffer never reports back.
+	 */
+	private static Timer reloadTimer;
+
+	private static boolean reloadPhase; // }}}
+
+	// {{{ configure() : void
+	/**
+	 * Starts or stops watching, according to property
+	 * <code>bufferlist.watch.enabled</code>.
+	 */
+	static void configure()
+	{
+		boolean enabled = jEdit.getBooleanProperty("bufferlist.watch.enabled", true);
+		if (enabled == (watcher != null))
+		{
+			return;
+		}
+		if (!enabled)
+		{
+			shutdown();
+			return;
+		}
+		try
+		{
+			watcher = FileSystems.getDefault().newWatchService();
+		}
+		catch (IOException e)
+		{
+			Log.log(Log.WARNING, ExternalChanges.class, "Cannot watch files: " + e);
+			return;
+		}
+		thread = new Thread(new Watcher(watcher), "BufferList file watcher");
+		thread.setDaemon(true);
+		thread.setPriority(Thread.MIN_PRIORITY);
+		thread.start();
+		registrar = Executors.newSingleThreadExecutor(new ThreadFactory()
+		{
+			public Thread newThread(Runnable r)
+			{
+				Thread t = new Thread(r, "BufferList file watcher registration");
+				t.setDaemon(true);
+				t.setPriority(Thread.MIN_PRIORITY);
+				return t;
+			}
+		});
+		for (Buffer buffer : jEdit.getBuffers())
+		{
+			watch(buffer);
+		}
+	} // }}}
+
+	// {{{ shutdown() : void
+	static void shutdown()
+	{
+		if (watcher != null)
+		{
+			try
+			{
+				watcher.close();
+			}
+			catch (IOException e)
+			{
+				Log.log(Log.DEBUG, ExternalChanges.class, e);
+			}
+			watcher = null;
+			thread = null;
+			registrar.shutdownNow();
+			registrar = null;
+		}
+		watched.clear();
+		keys.clear();
+		buffers.clear();
+		endReload();
+		Set<String> flagged = new HashSet<String>(flags.keySet());
+		flags.clear();
+		flaggedBelow.clear();
+		if (!flagged.isEmpty())
+		{
+			notifyBufferLists(flagged);
+		}
+	} // }}}
+
+	// {{{ watch(Buffer) : void
+	/**
+	 * Starts watching the file of a buffer, or updates the path watched for
+	 * it after "save as".
+	 */
+	static void watch(Buffer buffer)
+	{
+		if (watcher == null)
+		{
+			return;
+		}
+		String path = buffer.getPath();
+		String old = buffers.get(buffer);
+		if (path.equals(old))
+		{
+			return;
+		}
+		if (old != null)
+		{
+			unwatch(buffer);
+		}
+		if (!(buffer.getVFS() instanceof FileVFS) || buffer.isUntitled())
+		{
+			return;
+		}
+		Path dir;
+		try
+		{
+			dir = Paths.get(path).getParent();
+		}
+		catch (InvalidPathException e)
+		{
+			return;
+		}
+		if (dir == null)
+		{
+			return;
+		}
+		buffers.put(buffer, path);
+		String dirKey = dir.toString();
+		Set<String> files = watched.get(dirKey);
+		if (files == null)
+		{
+			files = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+			watched.put(dirKey, files);
+			register(dir);
+		}
+		files.add(path);
+	} // }}}
+
+	// {{{ unwatch(Buffer) : void
+	/**
+	 * Stops watching the file of a buffer, e.g. because it has been closed.
+	 */
+	static void unwatch(Buffer buffer)
+	{
+		String path = buffers.remove(buffer);
+		if (path == null)
+		{
+			return;
+		}
+		setFlag(path, UNCHANGED);
+		String dirKey = Paths.get(path).getParent().toString();
+		Set<String> files = watched.get(dirKey);
+		if (files == null)
+		{
+			return;
+		}
+		files.remove(path);
+		if (files.isEmpty())
+		{
+			watched.remove(dirKey);
+			WatchKey key = keys.remove(dirKey);
+			if (key != null)
+			{
+				key.cancel();
+			}
+		}
+	} // }}}
+
+	// {{{ clear(Buffer) : void
+	/**
+	 * Clears the flag of a buffer that has been saved or reloaded.
+	 */
+	static void clear(Buffer buffer)
+	{
+		String path = buffers.get(buffer);
+		if (path != null && setFlag(path, UNCHANGED))
+		{
+			notifyBufferLists(Collections.singleton(path));
+		}
+	} // }}}
+
+	// {{{ +getState(Buffer) : int
+	/**
+	 * @return UNCHANGED, CHANGED or DELETED.
+	 */
+	public static int getState(Buffer buffer)
+	{
+		if (flags.isEmpty())
+		{
+			return UNCHANGED;
+		}
+		Integer flag = flags.get(buffer.getPath());
+		return flag == null ? UNCHANGED : flag.intValue();
+	} // }}}
+
+	// {{{ +hasChangesBelow(String) : boolean
+	/**
+	 * @param dir
+	 *            the directory, ending with a separator
+	 * @return true if a buffer in the given directory or one of its
+	 *         subdirectories has been changed or deleted.
+	 */
+	public static boolean hasChangesBelow(String dir)
+	{
+		return !flaggedBelow.isEmpty() && flaggedBelow.containsKey(dir);
+	} // }}}
+
+	// {{{ +getChangedBuffers() : List<Buffer>
+	/**
+	 * @return the buffers whose files have been changed, but not deleted.
+	 */
+	public static List<Buffer> getChangedBuffers()
+	{
+		List<Buffer> changed = new ArrayList<Buffer>();
+		for (Map.Entry<Buffer, String> entry : buffers.entrySet())
+		{
+			Integer flag = flags.get(entry.getValue());
+			if (flag != null && flag.intValue() == CHANGED)
+			{
+				changed.add(entry.getKey());
+			}
+		}
+		return changed;
+	} // }}}
+
+	// {{{ +reloadChanged(View) : int
+	/**
+	 * Reloads all unmodified buffers whose files have been changed. jEdit
+	 * loads them concurrently in its I/O threads; a bulk phase lasts until
+	 * the last of them has been loaded, or until
+	 * <code>bufferlist.watch.reloadTimeout</code> ms have passed.
+	 *
+	 * @return the number of buffers reloaded.
+	 */
+	public static int reloadChanged(View view)
+	{
+		List<Buffer> toReload = new ArrayList<Buffer>();
+		for (Buffer buffer : getChangedBuffers())
+		{
+			if (!buffer.isDirty() && !buffer.isPerformingIO() && !reloading.contains(buffer))
+			{
+				toReload.add(buffer);
+			}
+		}
+		if (toReload.isEmpty())
+		{
+			return 0;
+		}
+		reloading.addAll(toReload);
+		if (reloadTimer == null)
+		{
+			reloadTimer = new Timer(0, new ActionListener()
+			{
+				public void actionPerformed(ActionEvent e)
+				{
+					Log.log(Log.DEBUG, ExternalChanges.class, reloading.size()
+						+ " buffers not reloaded in time");
+					endReload();
+				}
+			});
+			reloadTimer.setRepeats(false);
+		}
+		if (!reloadPhase)
+		{
+			reloadPhase = true;
+			BulkUpdate.begin();
+		}
+		reloadTimer.setInitialDelay(jEdit.getIntegerProperty("bufferlist.watch.reloadTimeout",
+			30000));
+		reloadTimer.restart();
+		for (Buffer buffer : toReload)
+		{
+			buffer.reload(view);
+		}
+		return toReload.size();
+	} // }}}
+
+	// {{{ reloadFinished(Buffer) : void
+	/**
+	 * Called by the plugin when a buffer has been loaded or closed; ends the
+	 * bulk phase of {@link #reloadChanged(View)} after the last buffer.
+	 */
+	static void reloadFinished(Buffer buffer)
+	{
+		if (reloading.remove(buffer) && reloading.isEmpty())
+		{
+			endReload();
+		}
+	} // }}}
+
+	// {{{ -endReload() : void
+	private static void endReload()
+	{
+		if (!reloadPhase)
+		{
+			return;
+		}
+		reloadPhase = false;
+		reloadTimer.stop();
+		reloading.clear();
+		BulkUpdate.end();
+	} // }}}
+
+	// {{{ -register(Path) : void
+	private static void register(final Path dir)
+	{
+		final WatchService service = watcher;
+		registrar.execute(new Runnable()
+		{
+			public void run()
+			{
+				try
+				{
+					WatchKey key = dir.register(service, ENTRY_CREATE, ENTRY_DELETE, ENTRY_MODIFY);
+					String dirKey = dir.toString();
+					if (watched.containsKey(dirKey))
+					{
+						keys.put(dirKey, key);
+					}
+					else
+					{
+						// all buffers of the directory have been closed meanwhile
+						key.cancel();
+					}
+				}
+				catch (IOException e)
+				{
+					Log.log(Log.DEBUG, ExternalChanges.class, "Cannot watch " + dir + ": " + e);
+				}
+				catch (ClosedWatchServiceException e)
+				{
+					// shut down meanwhile
+				}
+			}
+		});
+	} // }}}
+
+	// {{{ -apply(Map<String, Long>) : void
+	/**
+	 * Updates the flags from the modification times of files, -1 for
+	 * deleted files.
+	 */
+	private static void apply(Map<String, Long> times)
+	{
+		Set<String> changed = new HashSet<String>();
+		for (Map.Entry<String, Long> entry : times.entrySet())
+		{
+			String path = entry.getKey();
+			Buffer buffer = jEdit.getBuffer(path);
+			if (buffer == null || !path.equals(buffers.get(buffer)) || buffer.isPerformingIO())
+			{
+				continue;
+			}
+			long time = entry.getValue().longValue();
+			int flag = time < 0 ? DELETED : time != buffer.getLastModified() ? CHANGED
+				: UNCHANGED;
+			if (setFlag(path, flag))
+			{
+				changed.add(path);
+			}
+		}
+		if (!changed.isEmpty())
+		{
+			notifyBufferLists(changed);
+		}
+	} // }}}
+
+	// {{{ -setFlag(String, int) : boolean
+	/**
+	 * @return true if the flag has changed.
+	 */
+	private static boolean setFlag(String path, int flag)
+	{
+		Integer old = flag == UNCHANGED ? flags.remove(path) : flags.put(path, Integer
+			.valueOf(flag));
+		if (old != null && old.intValue() == flag)
+		{
+			return false;
+		}
+		int delta;
+		if (old == null && flag != UNCHANGED)
+		{
+			delta = 1;
+		}
+		else if (old != null && flag == UNCHANGED)
+		{
+			delta = -1;
+		}
+		else
+		{
+			// CHANGED <-> DELETED, or unchanged and unflagged
+			return old != null;
+		}
+		for (Path dir = Paths.get(path).getParent(); dir != null; dir = dir.getParent())
+		{
+			String key = dir.toString();
+			if (!key.endsWith(File.separator))
+			{
+				// the root has one already
+				key += File.separator;
+			}
+			Integer count = flaggedBelow.get(key);
+			int newCount = (count == null ? 0 : count.intValue()) + delta;
+			if (newCount <= 0)
+			{
+				flaggedBelow.remove(key);
+			}
+			else
+			{
+				flaggedBelow.put(key, Integer.valueOf(newCount));
+			}
+		}
+		return true;
+	} // }}}
+
+	// {{{ -notifyBufferLists(Collection<String>) : void
+	private static void notifyBufferLists(Collection<String> paths)
+	{
+		View[] views = jEdit.getViews();
+		if (views == null)
+		{
+			return;
+		}
+		List<Buffer> changed = new ArrayList<Buffer>(paths.size());
+		for (String path : paths)
+		{
+			Buffer buffer = jEdit.getBuffer(path);
+			if (buffer != null)
+			{
+				changed.add(buffer);
+			}
+		}
+		for (View view : views)
+		{
+			BufferList bufferlist = (BufferList) view.getDockableWindowManager().getDockable(
+				"bufferlist");
+			if (bufferlist != null)
+			{
+				bufferlist.decorationsChanged(changed);
+			}
+		}
+	} // }}}
+
+	// {{{ -class Watcher
+	/**
+	 * Runs on the watcher thread: collects events until the file system has
+	 * been quiet for a while, then looks at the files concerned.
+	 */
+	private static class Watcher implements Runnable
+	{
+		private final WatchService service;
+
+		Watcher(WatchService service)
+		{
+			this.service = service;
+		}
+
+		public void run()
+		{
+			try
+			{
+				while (true)
+				{
+					Set<String> paths = new HashSet<String>();
+					collect(service.take(), paths);
+					long quiet = jEdit.getIntegerProperty("bufferlist.watch.quietPeriod", 200);
+					// files written steadily nearby must not put off the others
+					long deadline = System.currentTimeMillis()
+						+ jEdit.getIntegerProperty("bufferlist.watch.maxDelay", 2000);
+					long left;
+					while ((left = deadline - System.currentTimeMillis()) > 0)
+					{
+						WatchKey key = service.poll(Math.min(quiet, left), TimeUnit.MILLISECONDS);
+						if (key == null)
+						{
+							break;
+						}
+						collect(key, paths);
+					}
+					if (paths.isEmpty())
+					{
+						continue;
+					}
+					final Map<String, Long> times = new HashMap<String, Long>();
+					for (String path : paths)
+					{
+						Long time = getLastModified(path);
+						if (time != null)
+						{
+							times.put(path, time);
+						}
+					}
+					SwingUtilities.invokeLater(new Runnable()
+					{
+						public void run()
+						{
+							if (watcher == service)
+							{
+								apply(times);
+							}
+						}
+					});
+				}
+			}
+			catch (InterruptedException e)
+			{
+				// shut down
+			}
+			catch (ClosedWatchServiceException e)
+			{
+				// shut down
+			}
+		}
+
+		/**
+		 * Adds the watched files a key has events for.
+		 */
+		private void collect(WatchKey key, Set<String> paths)
+		{
+			Path dir = (Path) key.watchable();
+			Set<String> files = watched.get(dir.toString());
+			for (WatchEvent<?> event : key.pollEvents())
+			{
+				if (files == null)
+				{
+					continue;
+				}
+				if (event.kind() == OVERFLOW)
+				{
+					// events have been lost: look at all files
+					paths.addAll(files);
+					continue;
+				}
+				String path = dir.resolve((Path) event.context()).toString();
+				if (files.contains(path))
+				{
+					paths.add(path);
+				}
+			}
+			key.reset();
+		}
+
+		/**
+		 * @return the modification time of a file, -1 if it does not exist,
+		 *         or null if it cannot be read at the moment, which leaves the
+		 *         flag of its buffer as it is.
+		 */
+		private Long getLastModified(String path)
+		{
+			try
+			{
+				return Long.valueOf(Files.getLastModifiedTime(Paths.get(path)).toMillis());
+			}
+			catch (NoSuchFileException e)
+			{
+				return Long.valueOf(-1);
+			}
+			catch (IOException e)
+			{
+				Log.log(Log.DEBUG, ExternalChanges.class, "Cannot examine " + path + ": " + e);
+				return null;
+			}
+		}
+	} // }}}
+}
@@ -0,0 +1,196 @@
+/*{{{ header
+ * GroupingStrategies.java - the grouping strategies shipped with BufferList
+ *
+ * :tabSize=4:indentSize=4:noTabs=false:maxLineLen=0:folding=explicit:collapseFolds=1:
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA 02111-1307, USA.
+ *}}}
+ */
+package bufferlist;
+
+// {{{ imports
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
+
+import org.gjt.sp.jedit.Buffer;
+import org.gjt.sp.jedit.MiscUtilities;
+import org.gjt.sp.jedit.Mode;
+import org.gjt.sp.jedit.jEdit;
+import org.gjt.sp.util.Log;
+
+// }}}
+
+/**
+ * The grouping strategies shipped with BufferList; they are registered in
+ * services.xml.
+ */
+public class GroupingStrategies
+{
+	// {{{ +class Project
+	/**
+	 * Groups buffers by project root, see {@link ProjectRoots}. Buffers whose
+	 * root is not known yet are not grouped until it has been looked up.
+	 */
+	public static class Project extends AbstractGroupingStrategy
+	{
+		public String getGroupKey(Buffer buffer)
+		{
+			String root = ProjectRoots.getRoot(getDir(buffer));
+			return root == null ? NO_GROUP : root;
+		}
+
+		@Override
+		public String getGroupLabel(String key)
+		{
+			if (NO_GROUP.equals(key))
+			{
+				return super.getGroupLabel(key);
+			}
+			return jEdit.getProperty("bufferlist.group.project.label", new Object[] {
+				MiscUtilities.getFileName(key),
+				jEdit.getBooleanProperty("bufferlist.shortenHome", true) ? MiscUtilities
+					.abbreviate(key) : key });
+		}
+
+		@Override
+		public String getBaseDirectory(String key)
+		{
+			return NO_GROUP.equals(key) ? null : key;
+		}
+
+		@Override
+		public void prepare(Collection<Buffer> buffers, Runnable callback)
+		{
+			Set<String> unresolved = new HashSet<String>();
+			for (Buffer buffer : buffers)
+			{
+				String dir = getDir(buffer);
+				if (ProjectRoots.getRoot(dir) == null)
+				{
+					unresolved.add(dir);
+				}
+			}
+			if (!unresolved.isEmpty())
+			{
+				ProjectRoots.resolve(unresolved, callback);
+			}
+		}
+
+		private static String getDir(Buffer buffer)
+		{
+			return buffer.getVFS().getParentOfPath(buffer.getPath());
+		}
+	} // }}}
+
+	// {{{ +class Extension
+	/**
+	 * Groups buffers by file name extension.
+	 */
+	public static class Extension extends AbstractGroupingStrategy
+	{
+		public String getGroupKey(Buffer buffer)
+		{
+			String extension = MiscUtilities.getFileExtension(buffer.getName());
+			return extension == null ? NO_GROUP : extension.toLowerCase();
+		}
+	} // }}}
+
+	// {{{ +class EditMode
+	/**
+	 * Groups buffers by jEdit edit mode.
+	 */
+	public static class EditMode extends AbstractGroupingStrategy
+	{
+		public String getGroupKey(Buffer buffer)
+		{
+			Mode mode = buffer.getMode();
+			return mode == null ? NO_GROUP : mode.getName();
+		}
+	} // }}}
+
+	// {{{ +class Vfs
+	/**
+	 * Groups buffers by VFS, e.g. local files, sftp or archives.
+	 */
+	public static class Vfs extends AbstractGroupingStrategy
+	{
+		public String getGroupKey(Buffer buffer)
+		{
+			return buffer.getVFS().getName();
+		}
+
+		@Override
+		public String getGroupLabel(String key)
+		{
+			return jEdit.getProperty("bufferlist.group.vfs." + key + ".label", key);
+		}
+	} // }}}
+
+	// {{{ +class Regex
+	/**
+	 * Groups buffers by the first capturing group (or the whole match) of the
+	 * regular expression in property
+	 * <code>bufferlist.grouping.regex.pattern</code>, applied to the path of
+	 * the buffers.
+	 */
+	public static class Regex extends AbstractGroupingStrategy
+	{
+		private String source;
+
+		private Pattern pattern;
+
+		public String getGroupKey(Buffer buffer)
+		{
+			Pattern p = getPattern();
+			if (p == null)
+			{
+				return NO_GROUP;
+			}
+			Matcher m = p.matcher(buffer.getPath());
+			if (!m.find())
+			{
+				return NO_GROUP;
+			}
+			String key = m.groupCount() > 0 ? m.group(1) : m.group();
+			return key == null ? NO_GROUP : key;
+		}
+
+		private Pattern getPattern()
+		{
+			String newSource = jEdit.getProperty("bufferlist.grouping.regex.pattern", "");
+			if (!newSource.equals(source))
+			{
+				source = newSource;
+				pattern = null;
+				if (newSource.length() > 0)
+				{
+					try
+					{
+						pattern = Pattern.compile(newSource);
+					}
+					catch (PatternSyntaxException e)
+					{
+						Log.log(Log.ERROR, this, "Invalid grouping pattern: " + e.getMessage());
+					}
+				}
+			}
+			return pattern;
+		}
+	} // }}}
+}
@@ -0,0 +1,72 @@
+/*{{{ header
+ * GroupingStrategy.java - groups the buffers of the BufferList tree
+ *
+ * :tabSize=4:indentSize=4:noTabs=false:maxLineLen=0:folding=explicit:collapseFolds=1:
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA 02111-1307, USA.
+ *}}}
+ */
+package bufferlist;
+
+// {{{ imports
+import java.util.Collection;
+
+import org.gjt.sp.jedit.Buffer;
+
+// }}}
+
+/**
+ * Interface that must be implemented by any class that wishes to add a way of
+ * grouping the buffers at the top level of the BufferList tree. Strategies
+ * are services of type <code>bufferlist.GroupingStrategy</code>; the service
+ * name is the value of the grouping property, and property
+ * <code>bufferlist.grouping.&lt;name&gt;.label</code> is shown in menus and
+ * options. Most strategies extend {@link AbstractGroupingStrategy}.
+ * <p>
+ * BufferList remembers the group key of every buffer and asks again only when
+ * a buffer is added, saved or its properties (e.g. its edit mode) change.
+ * All methods are called on the event dispatch thread.
+ */
+public interface GroupingStrategy
+{
+	/**
+	 * Group key of buffers that do not belong to any group.
+	 */
+	public static final String NO_GROUP = "";
+
+	/**
+	 * @return the key of the group of a buffer, or {@link #NO_GROUP}. Must be
+	 *         cheap: no I/O.
+	 */
+	public String getGroupKey(Buffer buffer);
+
+	/**
+	 * @return the text shown for the group node.
+	 */
+	public String getGroupLabel(String key);
+
+	/**
+	 * @return a directory that all buffers of the group are in, or null. The
+	 *         directories of the group are shown relative to it.
+	 */
+	public String getBaseDirectory(String key);
+
+	/**
+	 * Called with buffers whose group keys are about to be requested.
+	 * Strategies that compute keys in the background start that here, and
+	 * run the callback on the event dispatch thread when keys have changed.
+	 */
+	public void prepare(Collection<Buffer> buffers, Runnable callback);
+}
@@ -0,0 +1,262 @@
+/*{{{ header
+ * MemoryGuard.java - closes least recently used buffers when the heap fills up
+ *
+ * :tabSize=4:indentSize=4:noTabs=false:maxLineLen=0:folding=explicit:collapseFolds=1:
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA 02111-1307, USA.
+ *}}}
+ */
+package bufferlist;
+
+// {{{ imports
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryNotificationInfo;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.lang.management.MemoryUsage;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+import javax.management.ListenerNotFoundException;
+import javax.management.Notification;
+import javax.management.NotificationEmitter;
+import javax.management.NotificationListener;
+import javax.swing.SwingUtilities;
+
+import org.gjt.sp.jedit.Buffer;
+import org.gjt.sp.jedit.jEdit;
+import org.gjt.sp.util.Log;
+
+// }}}
+
+/**
+ * Protects jEdit from running out of memory while many buffers are open. If
+ * property <code>bufferlist.memory.enabled</code> is set, a usage threshold
+ * of <code>bufferlist.memory.highWater</code> percent is set on the old
+ * generation heap pool. When the JVM reports that it has been crossed, the
+ * closable buffers (see {@link BufferReaper#getClosableBuffers()}: not
+ * modified, not shown and not pinned) are closed, least recently used first,
+ * until their estimated footprints add up to the memory needed to get below
+ * <code>bufferlist.memory.lowWater</code> percent. The buffers are closed in
+ * one bulk update and logged.
+ * <p>
+ * The collection usage threshold, i.e. the occupancy after a garbage
+ * collection, is used where the pool supports it, so that garbage does not
+ * cause buffers to be closed.
+ */
+public class MemoryGuard
+{
+	// {{{ state
+	private static volatile MemoryPoolMXBean pool;
+
+	/**
+	 * True if the collection usage threshold of the pool is used.
+	 */
+	private static boolean collectionUsage;
+
+	private static NotificationListener listener;
+
+	/**
+	 * True while an eviction has been scheduled on the event dispatch thread.
+	 */
+	private static volatile boolean evictionPending; // }}}
+
+	// {{{ configure() : void
+	/**
+	 * Sets or removes the threshold, according to the properties. Called
+	 * when the plugin is started and on <code>PropertiesChanged</code>.
+	 */
+	static synchronized void configure()
+	{
+		if (!jEdit.getBooleanProperty("bufferlist.memory.enabled", false))
+		{
+			shutdown();
+			return;
+		}
+		if (pool == null)
+		{
+			pool = findOldGenPool();
+			if (pool == null)
+			{
+				Log.log(Log.WARNING, MemoryGuard.class,
+					"No heap pool supports usage thresholds; memory guard disabled");
+				return;
+			}
+			collectionUsage = pool.isCollectionUsageThresholdSupported();
+			listener = new NotificationListener()
+			{
+				public void handleNotification(Notification notification, Object handback)
+				{
+					String type = notification.getType();
+					if (MemoryNotificationInfo.MEMORY_THRESHOLD_EXCEEDED.equals(type)
+						|| MemoryNotificationInfo.MEMORY_COLLECTION_THRESHOLD_EXCEEDED
+							.equals(type))
+					{
+						thresholdExceeded();
+					}
+				}
+			};
+			((NotificationEmitter) ManagementFactory.getMemoryMXBean()).addNotificationListener(
+				listener, null, null);
+		}
+		long max = pool.getUsage().getMax();
+		if (max <= 0)
+		{
+			return;
+		}
+		long threshold = max / 100 * getPercent("bufferlist.memory.highWater", 85);
+		if (collectionUsage)
+		{
+			pool.setCollectionUsageThreshold(threshold);
+		}
+		else
+		{
+			pool.setUsageThreshold(threshold);
+		}
+	} // }}}
+
+	// {{{ shutdown() : void
+	/**
+	 * Removes the threshold and the listener.
+	 */
+	static synchronized void shutdown()
+	{
+		if (pool == null)
+		{
+			return;
+		}
+		try
+		{
+			((NotificationEmitter) ManagementFactory.getMemoryMXBean())
+				.removeNotificationListener(listener);
+		}
+		catch (ListenerNotFoundException e)
+		{
+			// already removed
+		}
+		if (collectionUsage)
+		{
+			pool.setCollectionUsageThreshold(0);
+		}
+		else
+		{
+			pool.setUsageThreshold(0);
+		}
+		pool = null;
+		listener = null;
+	} // }}}
+
+	// {{{ -findOldGenPool() : MemoryPoolMXBean
+	/**
+	 * @return the heap pool supporting usage thresholds with the largest
+	 *         maximum; that is the old (tenured) generation with the common
+	 *         collectors, which is where buffer texts end up.
+	 */
+	private static MemoryPoolMXBean findOldGenPool()
+	{
+		MemoryPoolMXBean best = null;
+		for (MemoryPoolMXBean candidate : ManagementFactory.getMemoryPoolMXBeans())
+		{
+			if (candidate.getType() == MemoryType.HEAP && candidate.isUsageThresholdSupported()
+				&& (best == null || candidate.getUsage().getMax() > best.getUsage().getMax()))
+			{
+				best = candidate;
+			}
+		}
+		return best;
+	} // }}}
+
+	// {{{ -thresholdExceeded() : void
+	/**
+	 * Called on the notification thread of the JVM.
+	 */
+	private static void thresholdExceeded()
+	{
+		if (evictionPending)
+		{
+			return;
+		}
+		evictionPending = true;
+		SwingUtilities.invokeLater(new Runnable()
+		{
+			public void run()
+			{
+				evictionPending = false;
+				evict();
+			}
+		});
+	} // }}}
+
+	// {{{ +evict() : int
+	/**
+	 * Closes least recently used buffers until the old generation is
+	 * expected to be below the low-water mark. Must be called on the event
+	 * dispatch thread.
+	 *
+	 * @return the number of buffers closed.
+	 */
+	public static int evict()
+	{
+		MemoryPoolMXBean p = pool;
+		if (p == null)
+		{
+			return 0;
+		}
+		MemoryUsage usage = collectionUsage ? p.getCollectionUsage() : p.getUsage();
+		if (usage == null || usage.getMax() <= 0)
+		{
+			return 0;
+		}
+		long lowWater = usage.getMax() / 100 * getPercent("bufferlist.memory.lowWater", 70);
+		long excess = usage.getUsed() - lowWater;
+		if (excess <= 0)
+		{
+			return 0;
+		}
+		List<Buffer> candidates = BufferReaper.getClosableBuffers();
+		Collections.sort(candidates, new Comparator<Buffer>()
+		{
+			public int compare(Buffer buffer1, Buffer buffer2)
+			{
+				long time1 = BufferReaper.getLastActivation(buffer1);
+				long time2 = BufferReaper.getLastActivation(buffer2);
+				return time1 < time2 ? -1 : time1 == time2 ? 0 : 1;
+			}
+		});
+		List<Buffer> victims = new ArrayList<Buffer>();
+		long freed = 0;
+		for (Buffer buffer : candidates)
+		{
+			if (freed >= excess)
+			{
+				break;
+			}
+			victims.add(buffer);
+			freed += BufferFootprint.getBytes(buffer);
+		}
+		Log.log(Log.WARNING, MemoryGuard.class, p.getName() + " uses " + usage.getUsed() / 1024
+			+ " of " + usage.getMax() / 1024 + " KB; closing " + victims.size()
+			+ " least recently used buffers of about " + freed / 1024 + " KB");
+		return BufferReaper.close(victims, "least recently used");
+	} // }}}
+
+	// {{{ -getPercent(String, int) : int
+	private static int getPercent(String name, int def)
+	{
+		return Math.max(1, Math.min(99, jEdit.getIntegerProperty(name, def)));
+	} // }}}
+}
@@ -0,0 +1,213 @@
+/*{{{ header
+ * ProjectRoots.java - asynchronous, cached discovery of project roots
+ *
+ * :tabSize=4:indentSize=4:noTabs=false:maxLineLen=0:folding=explicit:collapseFolds=1:
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA 02111-1307, USA.
+ *}}}
+ */
+package bufferlist;
+
+// {{{ imports
+import java.nio.file.Files;
+import java.nio.file.InvalidPathException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+import javax.swing.SwingUtilities;
+
+import org.gjt.sp.jedit.MiscUtilities;
+import org.gjt.sp.jedit.jEdit;
+import org.gjt.sp.util.Log;
+
+// }}}
+
+/**
+ * Finds the project root of a directory: the nearest ancestor (or the
+ * directory itself) containing one of the marker files of property
+ * <code>bufferlist.project.markers</code>, e.g. <code>.git</code> or
+ * <code>pom.xml</code>. The file system is only accessed on a background
+ * thread, and every directory visited is cached, so each directory is looked
+ * up once per session. Directories of remote VFSs have no project root.
+ */
+public class ProjectRoots
+{
+	/**
+	 * Cached value for directories that are not inside a project.
+	 */
+	public static final String NONE = "";
+
+	// {{{ state
+	private static final ConcurrentHashMap<String, String> roots = new ConcurrentHashMap<String, String>();
+
+	private static volatile String[] markers;
+
+	private static String markersProperty;
+
+	private static ExecutorService executor; // }}}
+
+	// {{{ +getRoot(String) : String
+	/**
+	 * @return the cached project root of the given directory, {@link #NONE}
+	 *         if it is not inside a project, or null if it has not been
+	 *         resolved yet.
+	 */
+	public static String getRoot(String dir)
+	{
+		if (MiscUtilities.isURL(dir))
+		{
+			return NONE;
+		}
+		return roots.get(dir);
+	} // }}}
+
+	// {{{ +resolve(Collection<String>, Runnable) : void
+	/**
+	 * Looks up the project roots of the given directories on the background
+	 * thread.
+	 *
+	 * @param callback
+	 *            run on the event dispatch thread when the directories have
+	 *            been resolved, may be null.
+	 */
+	public static synchronized void resolve(Collection<String> dirs, final Runnable callback)
+	{
+		if (markers == null)
+		{
+			configure();
+		}
+		final List<String> todo = new ArrayList<String>(dirs);
+		if (executor == null)
+		{
+			executor = Executors.newSingleThreadExecutor(new ThreadFactory()
+			{
+				public Thread newThread(Runnable r)
+				{
+					Thread thread = new Thread(r, "BufferList project roots");
+					thread.setDaemon(true);
+					thread.setPriority(Thread.MIN_PRIORITY);
+					return thread;
+				}
+			});
+		}
+		executor.execute(new Runnable()
+		{
+			public void run()
+			{
+				for (String dir : todo)
+				{
+					if (getRoot(dir) == null)
+					{
+						lookup(dir);
+					}
+				}
+				if (callback != null)
+				{
+					SwingUtilities.invokeLater(callback);
+				}
+			}
+		});
+	} // }}}
+
+	// {{{ +configure() : void
+	/**
+	 * (Re-)reads the marker files; the cache is cleared if they have changed.
+	 */
+	public static synchronized void configure()
+	{
+		String property = jEdit.getProperty("bufferlist.project.markers",
+			".git .hg .svn pom.xml build.xml");
+		if (property.equals(markersProperty))
+		{
+			return;
+		}
+		markersProperty = property;
+		markers = property.trim().length() == 0 ? new String[0] : property.trim().split("\\s+");
+		roots.clear();
+	} // }}}
+
+	// {{{ +shutdown() : void
+	public static synchronized void shutdown()
+	{
+		if (executor != null)
+		{
+			executor.shutdownNow();
+			executor = null;
+		}
+		roots.clear();
+		markersProperty = null;
+		markers = null;
+	} // }}}
+
+	// {{{ -lookup(String) : void
+	/**
+	 * Walks up from the given directory until a root or a cached directory is
+	 * found, and caches the result for all directories on the way.
+	 */
+	private static void lookup(String dir)
+	{
+		List<String> visited = new ArrayList<String>();
+		String root = NONE;
+		try
+		{
+			String[] names = markers;
+			for (Path path = Paths.get(dir); path != null; path = path.getParent())
+			{
+				String key = path.toString();
+				String cached = roots.get(key);
+				if (cached != null)
+				{
+					root = cached;
+					break;
+				}
+				visited.add(key);
+				if (isRoot(path, names))
+				{
+					root = key;
+					break;
+				}
+			}
+		}
+		catch (InvalidPathException e)
+		{
+			Log.log(Log.DEBUG, ProjectRoots.class, "No project root for " + dir + ": " + e);
+		}
+		roots.put(dir, root);
+		for (String key : visited)
+		{
+			roots.put(key, root);
+		}
+	} // }}}
+
+	// {{{ -isRoot(Path, String[]) : boolean
+	private static boolean isRoot(Path path, String[] names)
+	{
+		for (String name : names)
+		{
+			if (Files.exists(path.resolve(name)))
+			{
+				return true;
+			}
+		}
+		return false;
+	} // }}}
+}
@@ -0,0 +1,101 @@
+/*{{{ header
+ * RecencyIndex.java - orders buffers by their last activation
+ *
+ * :tabSize=4:indentSize=4:noTabs=false:maxLineLen=0:folding=explicit:collapseFolds=1:
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA 02111-1307, USA.
+ *}}}
+ */
+package bufferlist;
+
+// {{{ imports
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.TreeMap;
+
+import org.gjt.sp.jedit.Buffer;
+
+// }}}
+
+/**
+ * The buffers of a BufferList in most recently used order. Every activation
+ * gets a new stamp from a counter; the buffers are kept in a map sorted by
+ * stamp, so moving a buffer to the front takes O(log n) and the order never
+ * has to be sorted.
+ */
+public class RecencyIndex
+{
+	// {{{ instance variables
+	private long clock;
+
+	private final HashMap<Buffer, Long> stamps = new HashMap<Buffer, Long>();
+
+	private final TreeMap<Long, Buffer> buffers = new TreeMap<Long, Buffer>(); // }}}
+
+	// {{{ +touch(Buffer) : void
+	/**
+	 * Makes the given buffer the most recently used one.
+	 */
+	public void touch(Buffer buffer)
+	{
+		Long stamp = Long.valueOf(++clock);
+		Long old = stamps.put(buffer, stamp);
+		if (old != null)
+		{
+			buffers.remove(old);
+		}
+		buffers.put(stamp, buffer);
+	} // }}}
+
+	// {{{ +remove(Buffer) : void
+	public void remove(Buffer buffer)
+	{
+		Long old = stamps.remove(buffer);
+		if (old != null)
+		{
+			buffers.remove(old);
+		}
+	} // }}}
+
+	// {{{ +getStamp(Buffer) : long
+	/**
+	 * @return the stamp of the last activation of the buffer; later
+	 *         activations have greater stamps, 0 if the buffer has not been
+	 *         activated.
+	 */
+	public long getStamp(Buffer buffer)
+	{
+		Long stamp = stamps.get(buffer);
+		return stamp == null ? 0 : stamp.longValue();
+	} // }}}
+
+	// {{{ +iterator() : Iterator<Buffer>
+	/**
+	 * @return the buffers, the most recently used one first. Walking the
+	 *         index takes O(n) in total; there is no positional access, which
+	 *         would cost O(index) per call.
+	 */
+	public Iterator<Buffer> iterator()
+	{
+		return Collections.unmodifiableCollection(buffers.descendingMap().values()).iterator();
+	} // }}}
+
+	// {{{ +size() : int
+	public int size()
+	{
+		return buffers.size();
+	} // }}}
+}
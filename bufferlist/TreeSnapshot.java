@@ -0,0 +1,323 @@
+/*{{{ header
+ * TreeSnapshot.java - persisted shape of the BufferList tree
+ *
+ * :tabSize=4:indentSize=4:noTabs=false:maxLineLen=0:folding=explicit:collapseFolds=1:
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA 02111-1307, USA.
+ *}}}
+ */
+package bufferlist;
+
+// {{{ imports
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Reader;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Enumeration;
+import java.util.List;
+
+import javax.swing.JTree;
+import javax.swing.tree.TreePath;
+
+import org.gjt.sp.jedit.Buffer;
+import org.gjt.sp.jedit.jEdit;
+import org.gjt.sp.util.Log;
+
+// }}}
+
+/**
+ * The shape of a BufferList tree as written to the plugin home on exit: the
+ * settings the tree was built with and, in display order, every node with
+ * its depth, path, label and expansion state. Restoring it needs no sorting
+ * and no VFS calls, so the first BufferList of a session can be painted
+ * before the real model is built.
+ * <p>
+ * The file is a line based UTF-8 text file:
+ * <pre>
+ * key=value                               (settings)
+ * depth TAB kind TAB expanded TAB path TAB label
+ * </pre>
+ * where kind is G (group), D (directory) or B (buffer).
+ */
+public class TreeSnapshot
+{
+	private static final String VERSION = "1";
+
+	private static final String ENCODING = "UTF-8";
+
+	// {{{ instance variables
+	private String version;
+
+	private int displayMode;
+
+	private String grouping;
+
+	private String sortMode;
+
+	private String scope;
+
+	private boolean shortenHome;
+
+	private final List<String[]> records = new ArrayList<String[]>(); // }}}
+
+	// {{{ +capture(BufferListTreeNode, JTree, int, String, String, String, boolean) : TreeSnapshot
+	/**
+	 * Records the nodes below the given root.
+	 */
+	public static TreeSnapshot capture(BufferListTreeNode root, JTree tree,
+		int displayMode, String grouping, String sortMode, String scope, boolean shortenHome)
+	{
+		TreeSnapshot snapshot = new TreeSnapshot();
+		snapshot.version = VERSION;
+		snapshot.displayMode = displayMode;
+		snapshot.grouping = grouping;
+		snapshot.sortMode = sortMode;
+		snapshot.scope = scope;
+		snapshot.shortenHome = shortenHome;
+		Enumeration<BufferListTreeNode> e = root.preorderEnumeration();
+		while (e.hasMoreElements())
+		{
+			BufferListTreeNode node = e.nextElement();
+			if (node == root)
+			{
+				continue;
+			}
+			String kind = node.isBuffer() ? "B" : node.isGroupNode() ? "G" : "D";
+			boolean expanded = !node.isBuffer()
+				&& tree.isExpanded(node.getTreePath());
+			snapshot.records.add(new String[] { String.valueOf(node.getLevel()), kind,
+				expanded ? "1" : "0", node.getUserPath(), node.getLabel() });
+		}
+		return snapshot;
+	} // }}}
+
+	// {{{ +matches(int, String, String, String, boolean) : boolean
+	/**
+	 * @return true if the snapshot was taken with the given settings.
+	 */
+	public boolean matches(int pDisplayMode, String pGrouping, String pSortMode, String pScope,
+		boolean pShortenHome)
+	{
+		return VERSION.equals(version) && displayMode == pDisplayMode
+			&& String.valueOf(pGrouping).equals(grouping)
+			&& String.valueOf(pSortMode).equals(sortMode) && String.valueOf(pScope).equals(scope)
+			&& shortenHome == pShortenHome;
+	} // }}}
+
+	// {{{ +restore(BufferListTreeNode) : List<BufferListTreeNode>
+	/**
+	 * Rebuilds the recorded nodes below the given (empty) root. Buffers that
+	 * are not open (yet) are left out.
+	 *
+	 * @return the nodes that were expanded, parents first.
+	 */
+	public List<BufferListTreeNode> restore(BufferListTreeNode root)
+	{
+		List<BufferListTreeNode> expanded = new ArrayList<BufferListTreeNode>();
+		List<BufferListTreeNode> parents = new ArrayList<BufferListTreeNode>();
+		parents.add(root);
+		for (String[] record : records)
+		{
+			int depth = Integer.parseInt(record[0]);
+			if (depth < 1 || depth > parents.size())
+			{
+				// parent was left out
+				continue;
+			}
+			BufferListTreeNode node;
+			char kind = record[1].charAt(0);
+			if (kind == 'B')
+			{
+				Buffer buffer = jEdit.getBuffer(record[3]);
+				if (buffer == null)
+				{
+					continue;
+				}
+				node = new BufferListTreeNode(buffer, false);
+			}
+			else if (kind == 'G')
+			{
+				BufferGroup group = new BufferGroup(record[3], record[4]);
+				node = new BufferListTreeNode(group, true);
+				group.node = node;
+			}
+			else
+			{
+				node = new BufferListTreeNode(record[3], true);
+				node.setLabel(record[4]);
+			}
+			parents.get(depth - 1).add(node);
+			while (parents.size() > depth)
+			{
+				parents.remove(parents.size() - 1);
+			}
+			if (node.getAllowsChildren())
+			{
+				parents.add(node);
+				if ("1".equals(record[2]))
+				{
+					expanded.add(node);
+				}
+			}
+		}
+		return expanded;
+	} // }}}
+
+	// {{{ +size() : int
+	public int size()
+	{
+		return records.size();
+	} // }}}
+
+	// {{{ +read(File) : TreeSnapshot
+	/**
+	 * @return the snapshot stored in the given file, or null if there is none
+	 *         or it cannot be read.
+	 */
+	public static TreeSnapshot read(File file)
+	{
+		if (file == null || !file.isFile())
+		{
+			return null;
+		}
+		TreeSnapshot snapshot = new TreeSnapshot();
+		Reader in = null;
+		try
+		{
+			in = new InputStreamReader(new FileInputStream(file), ENCODING);
+			BufferedReader reader = new BufferedReader(in);
+			String line;
+			while ((line = reader.readLine()) != null)
+			{
+				String[] record = line.split("\t", 5);
+				if (record.length == 5)
+				{
+					snapshot.records.add(record);
+					continue;
+				}
+				int eq = line.indexOf('=');
+				if (eq < 0)
+				{
+					continue;
+				}
+				String key = line.substring(0, eq);
+				String value = line.substring(eq + 1);
+				if (key.equals("version"))
+				{
+					snapshot.version = value;
+				}
+				else if (key.equals("displayMode"))
+				{
+					snapshot.displayMode = Integer.parseInt(value);
+				}
+				else if (key.equals("grouping"))
+				{
+					snapshot.grouping = value;
+				}
+				else if (key.equals("sortMode"))
+				{
+					snapshot.sortMode = value;
+				}
+				else if (key.equals("scope"))
+				{
+					snapshot.scope = value;
+				}
+				else if (key.equals("shortenHome"))
+				{
+					snapshot.shortenHome = Boolean.valueOf(value).booleanValue();
+				}
+			}
+			return snapshot;
+		}
+		catch (IOException e)
+		{
+			Log.log(Log.WARNING, TreeSnapshot.class, "Cannot read " + file + ": " + e);
+		}
+		catch (RuntimeException e)
+		{
+			Log.log(Log.WARNING, TreeSnapshot.class, "Invalid tree snapshot " + file + ": " + e);
+		}
+		finally
+		{
+			close(in);
+		}
+		return null;
+	} // }}}
+
+	// {{{ +write(File) : void
+	public void write(File file)
+	{
+		if (file == null)
+		{
+			return;
+		}
+		file.getParentFile().mkdirs();
+		Writer out = null;
+		try
+		{
+			out = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(file), ENCODING));
+			out.write("version=" + version + "\n");
+			out.write("displayMode=" + displayMode + "\n");
+			out.write("grouping=" + grouping + "\n");
+			out.write("sortMode=" + sortMode + "\n");
+			out.write("scope=" + scope + "\n");
+			out.write("shortenHome=" + shortenHome + "\n");
+			for (String[] record : records)
+			{
+				for (int i = 0; i < record.length; i++)
+				{
+					if (i > 0)
+					{
+						out.write('\t');
+					}
+					out.write(record[i]);
+				}
+				out.write('\n');
+			}
+		}
+		catch (IOException e)
+		{
+			Log.log(Log.WARNING, TreeSnapshot.class, "Cannot write " + file + ": " + e);
+		}
+		finally
+		{
+			close(out);
+		}
+	} // }}}
+
+	// {{{ -close(Closeable) : void
+	private static void close(Closeable closeable)
+	{
+		if (closeable != null)
+		{
+			try
+			{
+				closeable.close();
+			}
+			catch (IOException e)
+			{
+				// ignore
+			}
+		}
+	} // }}}
+}
@@ -0,0 +1,151 @@
+/*{{{ header
+ * TreeUpdates.java - incremental changes to a tree model of buffer nodes
+ *
+ * :tabSize=4:indentSize=4:noTabs=false:maxLineLen=0:folding=explicit:collapseFolds=1:
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA 02111-1307, USA.
+ *}}}
+ */
+package bufferlist;
+
+// {{{ imports
+import java.util.Comparator;
+
+import javax.swing.tree.DefaultTreeModel;
+
+import org.gjt.sp.util.StandardUtilities;
+
+// }}}
+
+/**
+ * Inserts, removes and changes single nodes of a tree of
+ * {@link BufferListTreeNode}s, keeping the order BufferList builds the tree
+ * in: in a directory node the buffers come first, sorted by name, then the
+ * subdirectories. Neither a View nor a jEdit buffer is needed; buffer nodes
+ * are the nodes that do not allow children and their labels are the names
+ * of their buffers. That is what lets {@link EventTraceReplay} measure the
+ * code BufferList runs for single buffers.
+ */
+class TreeUpdates
+{
+	// {{{ insertBufferNode(DefaultTreeModel, BufferListTreeNode, BufferListTreeNode, String, boolean) : void
+	/**
+	 * Inserts a buffer node into a directory node in order.
+	 */
+	static void insertBufferNode(DefaultTreeModel model, BufferListTreeNode dirNode,
+		BufferListTreeNode node, String name, boolean ignoreCase)
+	{
+		model.insertNodeInto(node, dirNode, getBufferInsertIndex(dirNode, name, ignoreCase));
+	} // }}}
+
+	// {{{ insertDirNode(DefaultTreeModel, BufferListTreeNode, BufferListTreeNode, Comparator<String>) : void
+	/**
+	 * Inserts a directory node below a group node in "flat tree" mode, after
+	 * the directories that come before it.
+	 */
+	static void insertDirNode(DefaultTreeModel model, BufferListTreeNode groupNode,
+		BufferListTreeNode dirNode, Comparator<String> dirOrder)
+	{
+		model.insertNodeInto(dirNode, groupNode, getDirInsertIndex(groupNode, dirNode
+			.getUserPath(), dirOrder));
+	} // }}}
+
+	// {{{ removeBufferNode(DefaultTreeModel, BufferListTreeNode, BufferListTreeNode) : BufferListTreeNode
+	/**
+	 * Removes a buffer node in "flat tree" mode, and its directory node if no
+	 * other buffer is left in it.
+	 *
+	 * @return the removed directory node, or null if it stays or the buffer
+	 *         was a child of the group node.
+	 */
+	static BufferListTreeNode removeBufferNode(DefaultTreeModel model,
+		BufferListTreeNode groupNode, BufferListTreeNode node)
+	{
+		BufferListTreeNode parent = (BufferListTreeNode) node.getParent();
+		model.removeNodeFromParent(node);
+		if (parent == groupNode || parent.getChildCount() > 0)
+		{
+			return null;
+		}
+		model.removeNodeFromParent(parent);
+		return parent;
+	} // }}}
+
+	// {{{ bufferChanged(DefaultTreeModel, BufferListTreeNode, boolean) : void
+	/**
+	 * Repaints a buffer node after its buffer has changed, and the counts of
+	 * its directories if the buffer has been modified or saved.
+	 */
+	static void bufferChanged(DefaultTreeModel model, BufferListTreeNode node, boolean dirty)
+	{
+		model.nodeChanged(node);
+		if (node.setDirty(dirty))
+		{
+			dirCountsChanged(model, (BufferListTreeNode) node.getParent());
+		}
+	} // }}}
+
+	// {{{ dirCountsChanged(DefaultTreeModel, BufferListTreeNode) : void
+	/**
+	 * Tells the tree that the file counts of the given node and its ancestors
+	 * have changed; only the directory rows show them. O(depth).
+	 */
+	static void dirCountsChanged(DefaultTreeModel model, BufferListTreeNode node)
+	{
+		for (; node != null; node = (BufferListTreeNode) node.getParent())
+		{
+			if (node.isDirNode())
+			{
+				model.nodeChanged(node);
+			}
+		}
+	} // }}}
+
+	// {{{ getBufferInsertIndex(BufferListTreeNode, String, boolean) : int
+	/**
+	 * @return the index at which a buffer with the given name is inserted
+	 *         into a directory node.
+	 */
+	static int getBufferInsertIndex(BufferListTreeNode dirNode, String name, boolean ignoreCase)
+	{
+		int count = dirNode.getChildCount();
+		for (int i = 0; i < count; i++)
+		{
+			BufferListTreeNode child = (BufferListTreeNode) dirNode.getChildAt(i);
+			if (child.getAllowsChildren()
+				|| StandardUtilities.compareStrings(child.getLabel(), name, ignoreCase) > 0)
+			{
+				return i;
+			}
+		}
+		return count;
+	} // }}}
+
+	// {{{ getDirInsertIndex(BufferListTreeNode, String, Comparator<String>) : int
+	static int getDirInsertIndex(BufferListTreeNode parent, String dir,
+		Comparator<String> dirOrder)
+	{
+		int count = parent.getChildCount();
+		for (int i = 0; i < count; i++)
+		{
+			BufferListTreeNode child = (BufferListTreeNode) parent.getChildAt(i);
+			if (child.isDirNode() && dirOrder.compare(child.getUserPath(), dir) > 0)
+			{
+				return i;
+			}
+		}
+		return count;
+	} // }}}
+}